@@ -0,0 +1,144 @@
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber2;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Compares the primitive {@code long} fast path of
+ * {@link CryptoUtilities#isPrime2(NaturalNumber)} with the general randomized
+ * witness path over odd numbers from 2^20 to 2^63.
+ *
+ * @author Lucas Xie
+ */
+public final class LongPrimalityBenchmark {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private LongPrimalityBenchmark() {
+    }
+
+    /**
+     * Bit lengths measured, from 2^20 up to the largest positive
+     * {@code long}.
+     */
+    private static final int[] BIT_LENGTHS = {20, 24, 28, 32, 36, 40, 44, 48,
+        52, 56, 60, 63};
+
+    /**
+     * Consecutive odd candidates timed per bit length.
+     */
+    private static final int SAMPLES = 200;
+
+    /**
+     * Passes over the samples before timing starts, so both paths are
+     * JIT-compiled.
+     */
+    private static final int WARMUP_PASSES = 3;
+
+    /**
+     * Nanoseconds per microsecond.
+     */
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    /**
+     * Returns the odd candidates for one bit length: {@code SAMPLES}
+     * consecutive odd numbers starting just above 2^(bits - 1) + 2^(bits - 2).
+     *
+     * @param bits
+     *            bit length of the candidates
+     * @return candidates
+     * @requires 2 < bits <= 63
+     */
+    private static long[] candidates(int bits) {
+        long start = (1L << (bits - 1)) | (1L << (bits - 2)) | 1;
+        long[] values = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            values[i] = start + 2L * i;
+        }
+        return values;
+    }
+
+    /**
+     * Returns the average time in nanoseconds of the fast path over values.
+     *
+     * @param values
+     *            candidates
+     * @param results
+     *            records the answer for each candidate
+     * @return average nanoseconds per candidate
+     * @replaces results
+     */
+    private static double timeFastPath(long[] values, boolean[] results) {
+        long start = System.nanoTime();
+        for (int i = 0; i < values.length; i++) {
+            results[i] = CryptoUtilities.isPrime(values[i]);
+        }
+        return (double) (System.nanoTime() - start) / values.length;
+    }
+
+    /**
+     * Returns the average time in nanoseconds of the randomized witness path
+     * over values.
+     *
+     * @param values
+     *            candidates, as {@code NaturalNumber}s
+     * @param results
+     *            records the answer for each candidate
+     * @return average nanoseconds per candidate
+     * @replaces results
+     */
+    private static double timeWitnessPath(NaturalNumber[] values,
+            boolean[] results) {
+        long start = System.nanoTime();
+        for (int i = 0; i < values.length; i++) {
+            results[i] = CryptoUtilities.isPrime2Randomized(values[i]);
+        }
+        return (double) (System.nanoTime() - start) / values.length;
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the command line arguments (ignored)
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+
+        out.println("bits\tfast (us)\twitness (us)\tspeedup\tagree");
+        for (int bits : BIT_LENGTHS) {
+            long[] values = candidates(bits);
+            NaturalNumber[] numbers = new NaturalNumber[values.length];
+            for (int i = 0; i < values.length; i++) {
+                numbers[i] = new NaturalNumber2(Long.toString(values[i]));
+            }
+            boolean[] fast = new boolean[values.length];
+            boolean[] witness = new boolean[values.length];
+
+            for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+                timeFastPath(values, fast);
+                timeWitnessPath(numbers, witness);
+            }
+            double fastNanos = timeFastPath(values, fast);
+            double witnessNanos = timeWitnessPath(numbers, witness);
+
+            /*
+             * Random witnesses can only err by calling a composite prime
+             */
+            int agree = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (fast[i] == witness[i]) {
+                    agree++;
+                }
+            }
+
+            out.println(String.format("%d\t%.2f\t%.2f\t%.1fx\t%d/%d", bits,
+                    fastNanos / NANOS_PER_MICRO,
+                    witnessNanos / NANOS_PER_MICRO, witnessNanos / fastNanos,
+                    agree, values.length));
+        }
+
+        out.close();
+    }
+}
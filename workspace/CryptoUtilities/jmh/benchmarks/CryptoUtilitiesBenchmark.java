@@ -0,0 +1,399 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber1L;
+import components.naturalnumber.NaturalNumber2;
+
+/**
+ * JMH benchmarks for the public operations of {@code CryptoUtilities}, at
+ * several bit lengths and on both {@code NaturalNumber} implementations.
+ *
+ * <p>
+ * JMH does not accept benchmarks in the default package, and a named package
+ * cannot import {@code CryptoUtilities}, so the operations are reached through
+ * method handles resolved once when the class is loaded. Build with the
+ * compiled {@code src} folder, the OSU components library, and
+ * {@code jmh-core} plus {@code jmh-generator-annprocess} (1.37) on the
+ * classpath, then run {@link #main(String[])}: it adds the GC profiler, so
+ * every result reports allocation ({@code gc.alloc.rate.norm}) next to
+ * throughput. Inputs that an operation updates are copied first, and the copy
+ * is part of the measured time.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CryptoUtilitiesBenchmark {
+
+    /**
+     * Name of the class under test.
+     */
+    private static final String UTILITIES = "CryptoUtilities";
+
+    /**
+     * CryptoUtilities.powerMod(NaturalNumber, NaturalNumber, NaturalNumber).
+     */
+    private static final MethodHandle POWER_MOD = find("powerMod", void.class,
+            NaturalNumber.class, NaturalNumber.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.reduceToGCD(NaturalNumber, NaturalNumber).
+     */
+    private static final MethodHandle REDUCE_TO_GCD = find("reduceToGCD",
+            void.class, NaturalNumber.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.isPrime1(NaturalNumber).
+     */
+    private static final MethodHandle IS_PRIME1 = find("isPrime1",
+            boolean.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.isPrime2(NaturalNumber).
+     */
+    private static final MethodHandle IS_PRIME2 = find("isPrime2",
+            boolean.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.isPrime3(NaturalNumber, NaturalNumber).
+     */
+    private static final MethodHandle IS_PRIME3 = find("isPrime3",
+            boolean.class, NaturalNumber.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.isPrime4(NaturalNumber).
+     */
+    private static final MethodHandle IS_PRIME4 = find("isPrime4",
+            boolean.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.randomNumber(NaturalNumber).
+     */
+    private static final MethodHandle RANDOM_NUMBER = find("randomNumber",
+            NaturalNumber.class, NaturalNumber.class);
+
+    /**
+     * CryptoUtilities.generateNextLikelyPrime(NaturalNumber).
+     */
+    private static final MethodHandle GENERATE_NEXT_LIKELY_PRIME = find(
+            "generateNextLikelyPrime", void.class, NaturalNumber.class);
+
+    /**
+     * Number of rounds for isPrime3.
+     */
+    private static final int ISPRIME3_ROUNDS = 20;
+
+    /**
+     * Certainty passed to BigInteger when building prime inputs.
+     */
+    private static final int CERTAINTY = 64;
+
+    /**
+     * Bit length of every input.
+     */
+    @Param({"64", "256", "1024", "2048"})
+    private int bits;
+
+    /**
+     * Simple name of the NaturalNumber implementation the inputs use.
+     */
+    @Param({"NaturalNumber1L", "NaturalNumber2"})
+    private String implementation;
+
+    /**
+     * Base for powerMod, below modulus.
+     */
+    private NaturalNumber base;
+
+    /**
+     * Exponent for powerMod.
+     */
+    private NaturalNumber exponent;
+
+    /**
+     * Odd modulus for powerMod.
+     */
+    private NaturalNumber modulus;
+
+    /**
+     * First operand for reduceToGCD.
+     */
+    private NaturalNumber gcdLeft;
+
+    /**
+     * Second operand for reduceToGCD.
+     */
+    private NaturalNumber gcdRight;
+
+    /**
+     * Prime input for the primality tests (their slowest case).
+     */
+    private NaturalNumber prime;
+
+    /**
+     * Number of rounds for isPrime3.
+     */
+    private NaturalNumber rounds;
+
+    /**
+     * Starting point for generateNextLikelyPrime, and bound for randomNumber.
+     */
+    private NaturalNumber start;
+
+    /**
+     * Returns a handle on the named public static method of CryptoUtilities.
+     *
+     * @param name
+     *            method name
+     * @param returnType
+     *            return type
+     * @param parameterTypes
+     *            parameter types
+     * @return method handle
+     */
+    private static MethodHandle find(String name, Class<?> returnType,
+            Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.publicLookup().findStatic(
+                    Class.forName(UTILITIES), name,
+                    MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(
+                    "Cannot find " + UTILITIES + "." + name, e);
+        }
+    }
+
+    /**
+     * Returns a new number of the benchmarked implementation.
+     *
+     * @param value
+     *            value of the number
+     * @return new number with the given value
+     */
+    private NaturalNumber newNumber(BigInteger value) {
+        NaturalNumber n;
+        if (this.implementation.equals("NaturalNumber1L")) {
+            n = new NaturalNumber1L(value.toString());
+        } else {
+            n = new NaturalNumber2(value.toString());
+        }
+        return n;
+    }
+
+    /**
+     * Returns a copy of n of the same implementation.
+     *
+     * @param n
+     *            number to copy
+     * @return copy of n
+     */
+    private static NaturalNumber copy(NaturalNumber n) {
+        NaturalNumber c = n.newInstance();
+        c.copyFrom(n);
+        return c;
+    }
+
+    /**
+     * Checks that a primality test gives the expected answer on prime, so a
+     * benchmark cannot silently time a different path than it says.
+     *
+     * @param test
+     *            name of the test
+     * @param actual
+     *            its answer on prime
+     * @param expected
+     *            the expected answer
+     */
+    private static void expect(String test, boolean actual,
+            boolean expected) {
+        if (actual != expected) {
+            throw new IllegalStateException(
+                    test + " returned " + actual + " on the prime input");
+        }
+    }
+
+    /**
+     * Builds the inputs, with a seed per bit length so every run measures the
+     * same values, and checks the answer of every primality test on prime.
+     *
+     * @throws Throwable
+     *             if a primality test throws
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Random random = new Random(this.bits);
+        BigInteger top = BigInteger.ONE.shiftLeft(this.bits - 1);
+        BigInteger m = new BigInteger(this.bits, random).or(top).setBit(0);
+
+        this.modulus = this.newNumber(m);
+        this.base = this.newNumber(new BigInteger(this.bits, random).mod(m));
+        this.exponent = this.newNumber(new BigInteger(this.bits, random));
+        this.gcdLeft = this.newNumber(
+                new BigInteger(this.bits, random).or(top));
+        this.gcdRight = this.newNumber(new BigInteger(this.bits, random));
+        this.prime = this.newNumber(
+                new BigInteger(this.bits, CERTAINTY, random));
+        this.rounds = this.newNumber(BigInteger.valueOf(ISPRIME3_ROUNDS));
+        this.start = this.newNumber(new BigInteger(this.bits, random).or(top));
+
+        expect("isPrime1", (boolean) IS_PRIME1.invokeExact(this.prime), true);
+        expect("isPrime2", (boolean) IS_PRIME2.invokeExact(this.prime), true);
+        expect("isPrime3",
+                (boolean) IS_PRIME3.invokeExact(this.prime, this.rounds),
+                true);
+        expect("isPrime4", (boolean) IS_PRIME4.invokeExact(this.prime), true);
+    }
+
+    /**
+     * Measures powerMod.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber powerMod() throws Throwable {
+        NaturalNumber n = copy(this.base);
+        POWER_MOD.invokeExact(n, this.exponent, this.modulus);
+        return n;
+    }
+
+    /**
+     * Measures reduceToGCD.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber reduceToGCD() throws Throwable {
+        NaturalNumber n = copy(this.gcdLeft);
+        NaturalNumber m = copy(this.gcdRight);
+        REDUCE_TO_GCD.invokeExact(n, m);
+        return n;
+    }
+
+    /**
+     * Measures isPrime1 on a prime.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public boolean isPrime1() throws Throwable {
+        return (boolean) IS_PRIME1.invokeExact(this.prime);
+    }
+
+    /**
+     * Measures isPrime2 on a prime.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public boolean isPrime2() throws Throwable {
+        return (boolean) IS_PRIME2.invokeExact(this.prime);
+    }
+
+    /**
+     * Measures isPrime3 on a prime, which runs every round.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public boolean isPrime3() throws Throwable {
+        return (boolean) IS_PRIME3.invokeExact(this.prime, this.rounds);
+    }
+
+    /**
+     * Measures isPrime4 (Baillie-PSW) on a prime.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public boolean isPrime4() throws Throwable {
+        return (boolean) IS_PRIME4.invokeExact(this.prime);
+    }
+
+    /**
+     * Measures randomNumber.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber randomNumber() throws Throwable {
+        return (NaturalNumber) RANDOM_NUMBER.invokeExact(this.start);
+    }
+
+    /**
+     * Measures generateNextLikelyPrime.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber generateNextLikelyPrime() throws Throwable {
+        NaturalNumber n = copy(this.start);
+        GENERATE_NEXT_LIKELY_PRIME.invokeExact(n);
+        return n;
+    }
+
+    /**
+     * Runs every benchmark in this class with the GC profiler.
+     *
+     * @param args
+     *            JMH command line options, e.g. -p bits=1024
+     * @throws CommandLineOptionException
+     *             if args are not valid JMH options
+     * @throws RunnerException
+     *             if JMH fails to run
+     */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(CryptoUtilitiesBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
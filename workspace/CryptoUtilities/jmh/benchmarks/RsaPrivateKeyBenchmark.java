@@ -0,0 +1,251 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber2;
+
+/**
+ * JMH benchmarks comparing an RSA private-key operation done with
+ * {@code CryptoUtilities.powerMod} on the full modulus against
+ * {@code RsaPrivateKey}, with its two halves computed sequentially and in
+ * parallel.
+ *
+ * <p>
+ * As in {@link CryptoUtilitiesBenchmark}, the default-package classes under
+ * test are reached through method handles resolved once when the class is
+ * loaded. The parallel case hands the q half to a single background thread,
+ * so it only pays off with a free core.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RsaPrivateKeyBenchmark {
+
+    /**
+     * CryptoUtilities.powerMod(NaturalNumber, NaturalNumber, NaturalNumber).
+     */
+    private static final MethodHandle POWER_MOD;
+
+    /**
+     * new RsaPrivateKey(NaturalNumber, NaturalNumber, NaturalNumber), typed
+     * to return Object.
+     */
+    private static final MethodHandle NEW_KEY;
+
+    /**
+     * RsaPrivateKey.apply(NaturalNumber), with the receiver typed as Object.
+     */
+    private static final MethodHandle APPLY;
+
+    /**
+     * RsaPrivateKey.apply(NaturalNumber, ExecutorService), with the receiver
+     * typed as Object.
+     */
+    private static final MethodHandle APPLY_PARALLEL;
+
+    /**
+     * Public exponent used to derive the private exponent.
+     */
+    private static final int PUBLIC_EXPONENT = 65537;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            Class<?> key = Class.forName("RsaPrivateKey");
+            POWER_MOD = lookup.findStatic(Class.forName("CryptoUtilities"),
+                    "powerMod", MethodType.methodType(void.class,
+                            NaturalNumber.class, NaturalNumber.class,
+                            NaturalNumber.class));
+            NEW_KEY = lookup
+                    .findConstructor(key,
+                            MethodType.methodType(void.class,
+                                    NaturalNumber.class, NaturalNumber.class,
+                                    NaturalNumber.class))
+                    .asType(MethodType.methodType(Object.class,
+                            NaturalNumber.class, NaturalNumber.class,
+                            NaturalNumber.class));
+            APPLY = lookup
+                    .findVirtual(key, "apply",
+                            MethodType.methodType(void.class,
+                                    NaturalNumber.class))
+                    .asType(MethodType.methodType(void.class, Object.class,
+                            NaturalNumber.class));
+            APPLY_PARALLEL = lookup
+                    .findVirtual(key, "apply",
+                            MethodType.methodType(void.class,
+                                    NaturalNumber.class,
+                                    ExecutorService.class))
+                    .asType(MethodType.methodType(void.class, Object.class,
+                            NaturalNumber.class, ExecutorService.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Bit length of the modulus.
+     */
+    @Param({"1024", "2048", "4096"})
+    private int bits;
+
+    /**
+     * The modulus p * q.
+     */
+    private NaturalNumber modulus;
+
+    /**
+     * The private exponent.
+     */
+    private NaturalNumber exponent;
+
+    /**
+     * Ciphertext, below the modulus.
+     */
+    private NaturalNumber ciphertext;
+
+    /**
+     * The key under test.
+     */
+    private Object key;
+
+    /**
+     * Runs the q half in the parallel case.
+     */
+    private ExecutorService executor;
+
+    /**
+     * Builds the key and inputs, with a seed per bit length so every run
+     * measures the same values.
+     *
+     * @throws Throwable
+     *             if the key constructor throws
+     */
+    @Setup
+    public void setUp() throws Throwable {
+        Random random = new Random(this.bits);
+        BigInteger e = BigInteger.valueOf(PUBLIC_EXPONENT);
+        BigInteger p;
+        BigInteger q;
+        BigInteger phi;
+        do {
+            p = BigInteger.probablePrime(this.bits / 2, random);
+            q = BigInteger.probablePrime(this.bits / 2, random);
+            phi = p.subtract(BigInteger.ONE)
+                    .multiply(q.subtract(BigInteger.ONE));
+        } while (p.equals(q) || !phi.gcd(e).equals(BigInteger.ONE));
+        BigInteger m = p.multiply(q);
+
+        this.modulus = new NaturalNumber2(m.toString());
+        this.exponent = new NaturalNumber2(e.modInverse(phi).toString());
+        this.ciphertext = new NaturalNumber2(
+                new BigInteger(this.bits, random).mod(m).toString());
+        this.key = (Object) NEW_KEY.invokeExact(
+                (NaturalNumber) new NaturalNumber2(p.toString()),
+                (NaturalNumber) new NaturalNumber2(q.toString()),
+                this.exponent);
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Stops the background thread.
+     */
+    @TearDown
+    public void tearDown() {
+        this.executor.shutdown();
+    }
+
+    /**
+     * Measures powerMod with the full modulus.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber powerMod() throws Throwable {
+        NaturalNumber n = new NaturalNumber2(this.ciphertext);
+        POWER_MOD.invokeExact(n, this.exponent, this.modulus);
+        return n;
+    }
+
+    /**
+     * Measures RsaPrivateKey.apply with both halves on this thread.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber crt() throws Throwable {
+        NaturalNumber n = new NaturalNumber2(this.ciphertext);
+        APPLY.invokeExact(this.key, n);
+        return n;
+    }
+
+    /**
+     * Measures RsaPrivateKey.apply with the q half on the background thread.
+     *
+     * @return result
+     * @throws Throwable
+     *             if the method under test throws
+     */
+    @Benchmark
+    public NaturalNumber crtParallel() throws Throwable {
+        NaturalNumber n = new NaturalNumber2(this.ciphertext);
+        APPLY_PARALLEL.invokeExact(this.key, n, this.executor);
+        return n;
+    }
+
+    /**
+     * Runs every benchmark in this class with the GC profiler.
+     *
+     * @param args
+     *            JMH command line options, e.g. -p bits=2048
+     * @throws CommandLineOptionException
+     *             if args are not valid JMH options
+     * @throws RunnerException
+     *             if JMH fails to run
+     */
+    public static void main(String[] args)
+            throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RsaPrivateKeyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build();
+        new Runner(options).run();
+    }
+}
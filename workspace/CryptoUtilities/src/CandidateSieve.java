@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber2;
+
+/**
+ * Sliding sieve over the odd numbers starting at some large odd number,
+ * crossing off every candidate with a small prime factor so that only the
+ * survivors need a full primality test.
+ *
+ * <p>
+ * The residues of the starting number modulo every sieving prime are computed
+ * once at construction; each time the window is used up it slides forward and
+ * the residues are advanced by the window width, without touching the
+ * original number again.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class CandidateSieve {
+
+    /**
+     * Exclusive upper bound on the sieving primes.
+     */
+    private static final int PRIME_LIMIT = 1 << 16;
+
+    /**
+     * Number of odd candidates covered by one window.
+     */
+    private static final int WINDOW = 1 << 14;
+
+    /**
+     * Odd primes below {@link #PRIME_LIMIT}, in increasing order.
+     */
+    private static final int[] SIEVING_PRIMES = oddPrimesBelow(PRIME_LIMIT);
+
+    /**
+     * residues[i] = [first candidate of the current window] mod
+     * SIEVING_PRIMES[i].
+     */
+    private final int[] residues;
+
+    /**
+     * composite[i] is true iff candidate i of the current window has a small
+     * prime factor.
+     */
+    private final boolean[] composite;
+
+    /**
+     * Offset from the starting number of the first candidate of the current
+     * window.
+     */
+    private long windowStart;
+
+    /**
+     * Index within the current window of the next candidate to examine.
+     */
+    private int index;
+
+    /**
+     * Constructs a sieve whose first candidate is start.
+     *
+     * @param start
+     *            first candidate
+     * @requires start is odd and start > 2^16
+     */
+    public CandidateSieve(NaturalNumber start) {
+        assert start.compareTo(new NaturalNumber2(PRIME_LIMIT)) > 0
+                : "Violation of: start > 2^16";
+
+        int[] limbs = NaturalNumberLimbs.toLimbs(start, 1);
+        assert (limbs[0] & 1) == 1 : "Violation of: start is odd";
+
+        this.residues = new int[SIEVING_PRIMES.length];
+        for (int i = 0; i < SIEVING_PRIMES.length; i++) {
+            this.residues[i] = NaturalNumberLimbs.remainder(limbs,
+                    limbs.length, SIEVING_PRIMES[i]);
+        }
+        this.composite = new boolean[WINDOW];
+        this.windowStart = 0;
+        this.fillWindow();
+    }
+
+    /**
+     * Returns the odd primes below limit.
+     *
+     * @param limit
+     *            exclusive upper bound
+     * @return odd primes below limit, in increasing order
+     * @requires limit > 2
+     */
+    static int[] oddPrimesBelow(int limit) {
+        boolean[] crossed = new boolean[limit];
+        int count = 0;
+        for (int p = 2 + 1; p < limit; p += 2) {
+            if (!crossed[p]) {
+                count++;
+                for (long q = (long) p * p; q < limit; q += 2L * p) {
+                    crossed[(int) q] = true;
+                }
+            }
+        }
+
+        int[] primes = new int[count];
+        int i = 0;
+        for (int p = 2 + 1; p < limit; p += 2) {
+            if (!crossed[p]) {
+                primes[i] = p;
+                i++;
+            }
+        }
+        return primes;
+    }
+
+    /**
+     * Crosses off every candidate of the current window that is divisible by
+     * a sieving prime.
+     *
+     * @updates composite
+     */
+    private void fillWindow() {
+        Arrays.fill(this.composite, false);
+        for (int i = 0; i < SIEVING_PRIMES.length; i++) {
+            int p = SIEVING_PRIMES[i];
+            /*
+             * Candidate j is first + 2j, which is 0 mod p when j = -r / 2 mod
+             * p; (p + 1) / 2 is the inverse of 2 mod p
+             */
+            long first = (long) ((p - this.residues[i]) % p) * ((p + 1) / 2)
+                    % p;
+            for (int j = (int) first; j < WINDOW; j += p) {
+                this.composite[j] = true;
+            }
+        }
+        this.index = 0;
+    }
+
+    /**
+     * Slides the window forward past the current one and sieves it.
+     *
+     * @updates residues, composite, windowStart
+     */
+    private void slide() {
+        final int width = 2 * WINDOW;
+        for (int i = 0; i < SIEVING_PRIMES.length; i++) {
+            this.residues[i] = (int) (((long) this.residues[i] + width)
+                    % SIEVING_PRIMES[i]);
+        }
+        this.windowStart += width;
+        this.fillWindow();
+    }
+
+    /**
+     * Returns the offset from the starting number of the next candidate with
+     * no prime factor below 2^16; successive calls return increasing offsets
+     * and skip no candidate that could be prime.
+     *
+     * @return offset of the next surviving candidate
+     * @ensures <pre>
+     * [start + nextSurvivor is the least candidate after the previously
+     *  returned one that no sieving prime divides]
+     * </pre>
+     */
+    public long nextSurvivor() {
+        while (this.index < WINDOW && this.composite[this.index]) {
+            this.index++;
+        }
+        while (this.index == WINDOW) {
+            this.slide();
+            while (this.index < WINDOW && this.composite[this.index]) {
+                this.index++;
+            }
+        }
+        long offset = this.windowStart + 2L * this.index;
+        this.index++;
+        return offset;
+    }
+}
@@ -1,7 +1,23 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
+
 import components.naturalnumber.NaturalNumber;
 import components.naturalnumber.NaturalNumber2;
-import components.random.Random;
-import components.random.Random1L;
 import components.simplereader.SimpleReader;
 import components.simplereader.SimpleReader1L;
 import components.simplewriter.SimpleWriter;
@@ -49,10 +65,67 @@ public final class CryptoUtilities {
      */
     private static final NaturalNumber ZERO = new NaturalNumber2(0);
 
+    /**
+     * Number of random witness candidates tried by isPrime2.
+     */
+    private static final int WITNESS_ROUNDS = 50;
+
+    /**
+     * Largest value handled by the primitive {@code long} fast path of the
+     * primality tests (2^63 - 1).
+     */
+    private static final NaturalNumber LONG_LIMIT = new NaturalNumber2(
+            Long.toString(Long.MAX_VALUE));
+
+    /**
+     * Miller-Rabin bases that together make the test deterministic for every
+     * n < 3.3 * 10^24, and so for every {@code long}.
+     */
+    private static final long[] LONG_WITNESSES = {2, 3, 5, 7, 11, 13, 17, 19,
+        23, 29, 31, 37};
+
+    /**
+     * Number of Newton iterations needed to invert an odd {@code long} modulo
+     * 2^64 (starting from 3 correct bits, each iteration doubles them).
+     */
+    private static final int LONG_INVERSE_ITERATIONS = 5;
+
     /**
      * Pseudo-random number generator.
      */
-    private static final Random GENERATOR = new Random1L();
+    private static final RandomGenerator GENERATOR = new SplittableRandom();
+
+    /**
+     * Pseudo-random number generator of the current worker thread, for
+     * primality tests run concurrently (GENERATOR cannot be shared between
+     * threads).
+     */
+    private static final ThreadLocal<RandomGenerator> WORKER_GENERATOR =
+            ThreadLocal.withInitial(SplittableRandom::new);
+
+    /**
+     * Largest number of batch entries tested by one fork-join task without
+     * splitting further.
+     */
+    private static final int BATCH_LEAF_SIZE = 8;
+
+    /**
+     * First Lucas parameter D tried by Selfridge's method (then -7, 9, -11,
+     * ...).
+     */
+    private static final int SELFRIDGE_START = 5;
+
+    /**
+     * Number of Lucas parameters tried before checking whether n is a perfect
+     * square (for which no D works).
+     */
+    private static final int SQUARE_CHECK_TRIES = 20;
+
+    /**
+     * Mapped prime table answering isPrime(long) below its limit, or null
+     * until {@link #usePrimeBitmap(Path)} is called.
+     */
+    private static volatile PrimeBitmap primeBitmap = null;
 
     /**
      * Returns a random number uniformly distributed in the interval [0, n].
@@ -67,38 +140,62 @@ public final class CryptoUtilities {
      */
     public static NaturalNumber randomNumber(NaturalNumber n) {
         assert !n.isZero() : "Violation of: n > 0";
-        final int base = 10;
-        NaturalNumber result;
-        int d = n.divideBy10();
-        if (n.isZero()) {
-            /*
-             * Incoming n has only one digit and it is d, so generate a random
-             * number uniformly distributed in [0, d]
-             */
-            int x = (int) ((d + 1) * GENERATOR.nextDouble());
-            result = new NaturalNumber2(x);
-            n.multiplyBy10(d);
-        } else {
+        return randomNumber(n, GENERATOR);
+    }
+
+    /**
+     * Returns a random number uniformly distributed in the interval [0, n],
+     * drawing randomness from the given generator.
+     *
+     * @param n
+     *            top end of interval
+     * @param generator
+     *            source of randomness
+     * @return random number in interval
+     * @requires n > 0
+     * @ensures <pre>
+     * randomNumber = [a random number uniformly distributed in [0, n]]
+     * </pre>
+     */
+    public static NaturalNumber randomNumber(NaturalNumber n,
+            RandomGenerator generator) {
+        assert !n.isZero() : "Violation of: n > 0";
+        OperationStats.Scope stats = OperationStats.begin("randomNumber");
+        NaturalNumber result = new NaturalNumber2();
+        OperationStats.countNaturalNumbers(1);
+        try {
+            int[] bound = NaturalNumberLimbs.toLimbs(n, 0);
+            int length = NaturalNumberLimbs.significantLength(bound,
+                    bound.length);
+            int topBits = NaturalNumberLimbs.bitLength(bound, length)
+                    - (length - 1) * NaturalNumberLimbs.LIMB_BITS;
+            int topMask = -1 >>> (NaturalNumberLimbs.LIMB_BITS - topBits);
+
             /*
-             * Incoming n has more than one digit, so generate a random number
-             * (NaturalNumber) uniformly distributed in [0, n], and another
-             * (int) uniformly distributed in [0, 9] (i.e., a random digit)
+             * Draw uniform words until the value, masked to the bit length of
+             * n, is at most n; n has its top bit set, so each draw succeeds
+             * with probability above 1/2, and every accepted value in [0, n]
+             * is equally likely
              */
-            result = randomNumber(n);
-            int lastDigit = (int) (base * GENERATOR.nextDouble());
-            result.multiplyBy10(lastDigit);
-            n.multiplyBy10(d);
-            if (result.compareTo(n) > 0) {
-                /*
-                 * In this case, we need to try again because generated number
-                 * is greater than n; the recursive call's argument is not
-                 * "smaller" than the incoming value of n, but this recursive
-                 * call has no more than a 90% chance of being made (and for
-                 * large n, far less than that), so the probability of
-                 * termination is 1
-                 */
-                result = randomNumber(n);
-            }
+            int[] candidate = new int[length];
+            int draws = 0;
+            do {
+                draws++;
+                for (int i = 0; i < length; i += 2) {
+                    long word = generator.nextLong();
+                    candidate[i] = (int) word;
+                    if (i + 1 < length) {
+                        candidate[i + 1] = (int) (word
+                                >>> NaturalNumberLimbs.LIMB_BITS);
+                    }
+                }
+                candidate[length - 1] &= topMask;
+            } while (NaturalNumberLimbs.compare(candidate, bound, length) > 0);
+            OperationStats.countRetries(draws - 1);
+
+            NaturalNumberLimbs.fromLimbs(candidate, length, result);
+        } finally {
+            OperationStats.end(stats);
         }
         return result;
     }
@@ -117,15 +214,85 @@ public final class CryptoUtilities {
     public static void reduceToGCD(NaturalNumber n, NaturalNumber m) {
 
         /*
-         * Use Euclid's algorithm; in pseudocode: if m = 0 then GCD(n, m) = n
-         * else GCD(n, m) = GCD(m, n mod m)
+         * Run Euclid's algorithm iteratively on limbs: Lehmer steps batch the
+         * quotients of large operands, and binary steps finish once both fit
+         * in a long; only the final value is converted back
          */
+        OperationStats.Scope stats = OperationStats.begin("reduceToGCD");
+        try {
+            if (!m.isZero()) {
+                int[] x = NaturalNumberLimbs.toLimbs(n, 0);
+                int[] y = NaturalNumberLimbs.toLimbs(m, x.length);
+                if (x.length < y.length) {
+                    x = Arrays.copyOf(x, y.length);
+                }
+                if (NaturalNumberLimbs.compare(x, y, x.length) < 0) {
+                    int[] t = x;
+                    x = y;
+                    y = t;
+                }
+                LimbGcd gcd = new LimbGcd(x, y, false);
+                gcd.run();
+                NaturalNumberLimbs.fromLimbs(gcd.gcd(), gcd.gcd().length, n);
+                m.clear();
+            }
+        } finally {
+            OperationStats.end(stats);
+        }
+    }
 
-        if (!m.isZero()) {
-            NaturalNumber rem = n.divide(m);
-            reduceToGCD(m, rem);
-            n.transferFrom(m);
+    /**
+     * Updates n to its multiplicative inverse modulo m, if it has one, using
+     * the extended form of the iterative GCD in {@code reduceToGCD}.
+     *
+     * @param n
+     *            the number to invert
+     * @param m
+     *            the modulus
+     * @return true iff GCD(#n, m) = 1
+     * @updates n
+     * @requires m > 1
+     * @ensures <pre>
+     * reduceToInverse = (GCD(#n, m) = 1)  and
+     * if reduceToInverse
+     *  then (0 < n < m  and  (#n * n) mod m = 1)
+     *  else n = GCD(#n, m)
+     * </pre>
+     */
+    public static boolean reduceToInverse(NaturalNumber n, NaturalNumber m) {
+        assert m.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: m > 1";
+
+        NaturalNumber r = n;
+        if (n.compareTo(m) >= 0) {
+            r = new NaturalNumber2(n).divide(m);
+        }
+        int[] x = NaturalNumberLimbs.toLimbs(m, 0);
+        int[] y = NaturalNumberLimbs.toLimbs(r, x.length);
+        if (x.length < y.length) {
+            x = Arrays.copyOf(x, y.length);
+        }
+        LimbGcd gcd = new LimbGcd(x, y, true);
+        gcd.run();
+
+        int[] g = gcd.gcd();
+        boolean invertible = NaturalNumberLimbs.significantLength(g,
+                g.length) == 1 && g[0] == 1;
+        if (invertible) {
+            /*
+             * s * #n = 1 (mod m) with |s| < m; a negative s is lifted into
+             * range by adding m
+             */
+            int[] s = gcd.cofactor();
+            NaturalNumberLimbs.fromLimbs(s, s.length, n);
+            if (gcd.isCofactorNegative()) {
+                NaturalNumber lifted = new NaturalNumber2(m);
+                lifted.subtract(n);
+                n.transferFrom(lifted);
+            }
+        } else {
+            NaturalNumberLimbs.fromLimbs(g, g.length, n);
         }
+        return invertible;
     }
 
     /**
@@ -137,7 +304,62 @@ public final class CryptoUtilities {
      * @ensures isEven = (n mod 2 = 0)
      */
     public static boolean isEven(NaturalNumber n) {
-        return (new NaturalNumber2(n).divide(TWO).isZero());
+        return remainder(n, 2) == 0;
+    }
+
+    /**
+     * Returns n mod k for a small positive k, in one pass over the digits of
+     * n and without copying it into another NaturalNumber. The digits are
+     * taken off n and put back, so n must not be read or changed by another
+     * thread during the call.
+     *
+     * @param n
+     *            the dividend
+     * @param k
+     *            the divisor
+     * @return n mod k
+     * @restores n
+     * @requires k > 0
+     * @ensures remainder = n mod k
+     */
+    public static int remainder(NaturalNumber n, int k) {
+        assert k > 0 : "Violation of: k > 0";
+        final int base = 10;
+        int result;
+        if (base % k == 0) {
+            /*
+             * k divides 10 (k = 1, 2, 5, or 10), so the last digit decides
+             */
+            int d = n.divideBy10();
+            result = d % k;
+            n.multiplyBy10(d);
+        } else {
+            /*
+             * n = sum of d_i * 10^i, so the residue is the sum of d_i times
+             * the residue of 10^i, taking the digits from the least
+             * significant on; they are kept to be put back in reverse
+             */
+            final int initialDigits = 16;
+            int[] digits = new int[initialDigits];
+            int count = 0;
+            long residue = 0;
+            long weight = 1 % k;
+            while (!n.isZero()) {
+                if (count == digits.length) {
+                    digits = Arrays.copyOf(digits, 2 * count);
+                }
+                int d = n.divideBy10();
+                digits[count] = d;
+                count++;
+                residue = (residue + d * weight) % k;
+                weight = weight * base % k;
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                n.multiplyBy10(digits[i]);
+            }
+            result = (int) residue;
+        }
+        return result;
     }
 
     /**
@@ -157,36 +379,91 @@ public final class CryptoUtilities {
             NaturalNumber m) {
         assert m.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: m > 1";
 
+        /*
+         * Odd moduli (every modulus the primality tests use) go through a
+         * Montgomery context; even moduli fall back to fast powering with
+         * explicit reduction
+         */
+        OperationStats.Scope stats = OperationStats.begin("powerMod");
+        try {
+            if (isEven(m)) {
+                powerModEven(n, p, m);
+            } else {
+                new MontgomeryContext(m).powerMod(n, p);
+            }
+        } finally {
+            OperationStats.end(stats);
+        }
+    }
+
+    /**
+     * Updates n to its p-th power modulo m, for moduli that Montgomery
+     * multiplication cannot handle.
+     *
+     * @param n
+     *            number to be raised to a power
+     * @param p
+     *            the power
+     * @param m
+     *            the modulus
+     * @updates n
+     * @requires m > 1
+     * @ensures n = #n ^ (p) mod m
+     */
+    private static void powerModEven(NaturalNumber n, NaturalNumber p,
+            NaturalNumber m) {
+
         /*
          * Use the fast-powering algorithm as previously discussed in class,
          * with the additional feature that every multiplication is followed
          * immediately by "reducing the result modulo m"
          */
 
-        if (p.equals(ZERO)) {
-            n.copyFrom(ONE);
-        } else if (!p.equals(ONE)) {
-            NaturalNumber pCopy = new NaturalNumber2(p);
-            NaturalNumber nCopy = new NaturalNumber2(n);
-            NaturalNumber nMod;
+        OperationStats.enterRecursion();
+        try {
+            if (p.equals(ZERO)) {
+                n.copyFrom(ONE);
+            } else if (!p.equals(ONE)) {
+                NaturalNumber pCopy = new NaturalNumber2(p);
+                NaturalNumber nCopy = new NaturalNumber2(n);
+                NaturalNumber nMod;
+                OperationStats.countNaturalNumbers(2);
 
-            if (isEven(p)) {
-                pCopy.divide(TWO);
+                if (isEven(p)) {
+                    pCopy.divide(TWO);
 
-                n.multiply(new NaturalNumber2(n));
-                nMod = new NaturalNumber2(n).divide(m);
-                n.transferFrom(nMod);
+                    n.multiply(new NaturalNumber2(n));
+                    nMod = new NaturalNumber2(n).divide(m);
+                    n.transferFrom(nMod);
 
-                powerMod(n, pCopy, m);
-            } else {
-                pCopy.decrement();
+                    /*
+                     * The remainder of p / 2 and the copy of n squared in
+                     * place
+                     */
+                    OperationStats.countNaturalNumbers(2);
+                    OperationStats.countDivisions(1);
 
-                powerMod(n, pCopy, m);
+                    powerModEven(n, pCopy, m);
+                } else {
+                    pCopy.decrement();
+
+                    powerModEven(n, pCopy, m);
+
+                    n.multiply(nCopy);
+                    nMod = new NaturalNumber2(n).divide(m);
+                    n.transferFrom(nMod);
+                }
 
-                n.multiply(nCopy);
-                nMod = new NaturalNumber2(n).divide(m);
-                n.transferFrom(nMod);
+                /*
+                 * Both branches multiply once and reduce once; the reduction
+                 * copies n and gets the remainder back as a new number
+                 */
+                OperationStats.countNaturalNumbers(2);
+                OperationStats.countMultiplications(1);
+                OperationStats.countDivisions(1);
             }
+        } finally {
+            OperationStats.exitRecursion();
         }
     }
 
@@ -214,14 +491,93 @@ public final class CryptoUtilities {
         assert w.compareTo(n) < 0 : "Violation of: w < n - 1";
         n.increment();
 
-        NaturalNumber sqWModN = new NaturalNumber2(w);
-        NaturalNumber wPowNDecModN = new NaturalNumber2(w);
-        NaturalNumber nDec = new NaturalNumber2(n);
-        nDec.decrement();
+        boolean isWitness;
+        if (isEven(n)) {
+            OperationStats.Scope stats = OperationStats.begin(
+                    "isWitnessToCompositeness");
+            try {
+                NaturalNumber sqWModN = new NaturalNumber2(w);
+                NaturalNumber wPowNDecModN = new NaturalNumber2(w);
+                NaturalNumber nDec = new NaturalNumber2(n);
+                OperationStats.countNaturalNumbers(THREE);
+                nDec.decrement();
+
+                powerMod(sqWModN, TWO, n);
+                powerMod(wPowNDecModN, nDec, n);
+                isWitness = sqWModN.compareTo(ONE) == 0
+                        || wPowNDecModN.compareTo(ONE) != 0;
+            } finally {
+                OperationStats.end(stats);
+            }
+        } else {
+            MontgomeryContext nContext = new MontgomeryContext(n);
+            int[] x = nContext.newElement();
+            nContext.load(w, x);
+            isWitness = isWitnessToCompositeness(x, nContext,
+                    nContext.newElement());
+        }
+        return isWitness;
+    }
+
+    /**
+     * Reports whether w is a "witness" that the (odd) modulus n of
+     * {@code nContext} is composite, as in
+     * {@link #isWitnessToCompositeness(NaturalNumber, NaturalNumber)}.
+     *
+     * @param w
+     *            witness candidate, in Montgomery form
+     * @param nContext
+     *            Montgomery context for n
+     * @param scratch
+     *            element used as working storage
+     * @return true iff w is a "witness" that n is composite
+     * @replaces scratch
+     * @ensures <pre>
+     * isWitnessToCompositeness =
+     *     (w ^ 2 mod n = 1)  or  (w ^ (n-1) mod n /= 1)
+     * </pre>
+     */
+    private static boolean isWitnessToCompositeness(int[] w,
+            MontgomeryContext nContext, int[] scratch) {
+        return isWitnessToCompositeness(w, nContext, scratch, null);
+    }
 
-        powerMod(sqWModN, TWO, n);
-        powerMod(wPowNDecModN, nDec, n);
-        return sqWModN.compareTo(ONE) == 0 || wPowNDecModN.compareTo(ONE) != 0;
+    /**
+     * Reports whether w is a "witness" that the (odd) modulus n of
+     * {@code nContext} is composite, as
+     * {@link #isWitnessToCompositeness(int[], MontgomeryContext, int[])}
+     * does, or false as soon as stop is seen set; the flag is read between
+     * the squarings of the exponentiation, so a round another round has made
+     * pointless ends early.
+     *
+     * @param w
+     *            witness candidate, in Montgomery form
+     * @param nContext
+     *            Montgomery context for n
+     * @param scratch
+     *            element used as working storage
+     * @param stop
+     *            flag that abandons the test once set, or null
+     * @return true iff w is a "witness" that n is composite and stop was not
+     *         seen set
+     * @replaces scratch
+     */
+    private static boolean isWitnessToCompositeness(int[] w,
+            MontgomeryContext nContext, int[] scratch, AtomicBoolean stop) {
+        OperationStats.Scope stats = OperationStats.begin(
+                "isWitnessToCompositeness");
+        boolean isWitness;
+        try {
+            nContext.multiply(w, w, scratch);
+            isWitness = nContext.isOne(scratch);
+            if (!isWitness && nContext.power(w, nContext.modulusMinusOne(),
+                    scratch, stop)) {
+                isWitness = !nContext.isOne(scratch);
+            }
+        } finally {
+            OperationStats.end(stats);
+        }
+        return isWitness;
     }
 
     /**
@@ -241,7 +597,12 @@ public final class CryptoUtilities {
     public static boolean isPrime1(NaturalNumber n) {
         assert n.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: n > 1";
         boolean isPrime;
-        if (n.compareTo(new NaturalNumber2(THREE)) <= 0) {
+        if (fitsInLong(n)) {
+            /*
+             * exact answer on primitives, no witnesses needed
+             */
+            isPrime = isPrime(Long.parseLong(n.toString()));
+        } else if (n.compareTo(new NaturalNumber2(THREE)) <= 0) {
             /*
              * 2 and 3 are primes
              */
@@ -278,7 +639,33 @@ public final class CryptoUtilities {
     public static boolean isPrime2(NaturalNumber n) {
         assert n.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: n > 1";
 
-        final int candidateCount = 50;
+        boolean isPrime;
+        if (fitsInLong(n)) {
+            isPrime = isPrime(Long.parseLong(n.toString()));
+        } else {
+            isPrime = isPrime2Randomized(n);
+        }
+        return isPrime;
+    }
+
+    /**
+     * Reports whether n is a prime using randomly chosen witnesses only (the
+     * general path of {@link #isPrime2(NaturalNumber)}, without the
+     * {@code long} fast path); may be wrong with "low" probability.
+     *
+     * @param n
+     *            number to be checked
+     * @return true means n is very likely prime; false means n is definitely
+     *         composite
+     * @requires n > 1
+     * @ensures <pre>
+     * isPrime2Randomized = [n is a prime number, with small probability of
+     *         error if it is reported to be prime, and no chance of error if
+     *         it is reported to be composite]
+     * </pre>
+     */
+    static boolean isPrime2Randomized(NaturalNumber n) {
+        assert n.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: n > 1";
 
         /*
          * Use the ability to generate random numbers (provided by the
@@ -298,27 +685,325 @@ public final class CryptoUtilities {
          */
         if (n.compareTo(FOUR) <= 0) {
             isPrime = !n.equals(FOUR);
+        } else if (isEven(n)) {
+            /*
+             * evens above 4 are composite
+             */
+            isPrime = false;
         } else {
             NaturalNumber nDec4 = new NaturalNumber2(n);
             nDec4.subtract(FOUR);
 
-            for (int i = 0; i < candidateCount; i++) {
-                /*
-                 * Generate random number within 1 < w < n-1; equivalent to 2 ≤
-                 * w ≤ n-2; equivalent to 0 ≤ w-2 ≤ n-4.
-                 */
+            isPrime = !hasRandomWitness(new MontgomeryContext(n), nDec4,
+                    GENERATOR);
+        }
+
+        return isPrime;
+    }
+
+    /**
+     * Reports whether any of {@code WITNESS_ROUNDS} random candidates w with
+     * 1 < w < n-1 is a witness that the (odd) modulus n of {@code nContext}
+     * is composite. Uses no state shared with other threads besides its
+     * arguments.
+     *
+     * @param nContext
+     *            Montgomery context for n
+     * @param nDec4
+     *            n - 4
+     * @param generator
+     *            source of randomness for the candidates
+     * @return true iff some candidate is a witness that n is composite
+     * @requires n > 4
+     */
+    private static boolean hasRandomWitness(MontgomeryContext nContext,
+            NaturalNumber nDec4, RandomGenerator generator) {
+        /*
+         * Every witness is tested against the same modulus, so set up the
+         * working elements once
+         */
+        int[] w = nContext.newElement();
+        int[] scratch = nContext.newElement();
+        NaturalNumber two = new NaturalNumber2(2);
+
+        boolean found = false;
+        for (int i = 0; i < WITNESS_ROUNDS && !found; i++) {
+            /*
+             * Generate random number within 1 < w < n-1; equivalent to 2 ≤ w ≤
+             * n-2; equivalent to 0 ≤ w-2 ≤ n-4.
+             */
+            NaturalNumber candidate = randomNumber(nDec4, generator);
+            candidate.add(two);
+            nContext.load(candidate, w);
+
+            found = isWitnessToCompositeness(w, nContext, scratch);
+        }
+        return found;
+    }
+
+    /**
+     * Reports whether n is a prime, like {@link #isPrime2(NaturalNumber)},
+     * for use from worker threads: the long fast path and evenness are
+     * decided on limbs and witnesses come from generator, so no
+     * {@code NaturalNumber} shared with other threads is touched.
+     *
+     * @param n
+     *            number to be checked, owned by the calling thread
+     * @param generator
+     *            source of randomness owned by the calling thread
+     * @return true means n is very likely prime; false means n is definitely
+     *         composite
+     * @requires n > 1
+     * @ensures <pre>
+     * isPrime2 = [n is a prime number, with small probability of error
+     *         if it is reported to be prime, and no chance of error if it is
+     *         reported to be composite]
+     * </pre>
+     */
+    private static boolean isPrime2(NaturalNumber n,
+            RandomGenerator generator) {
+        final int four = 4;
+        int[] limbs = NaturalNumberLimbs.toLimbs(n, 2);
+        boolean isPrime;
+        if (NaturalNumberLimbs.bitLength(limbs, limbs.length) < Long.SIZE) {
+            isPrime = isPrime(((limbs[1] & NaturalNumberLimbs.MASK)
+                    << NaturalNumberLimbs.LIMB_BITS)
+                    | (limbs[0] & NaturalNumberLimbs.MASK));
+        } else if ((limbs[0] & 1) == 0) {
+            isPrime = false;
+        } else {
+            NaturalNumber nDec4 = new NaturalNumber2(n);
+            nDec4.subtract(new NaturalNumber2(four));
+            isPrime = !hasRandomWitness(new MontgomeryContext(n), nDec4,
+                    generator);
+        }
+        return isPrime;
+    }
+
+    /**
+     * Reports, for each number in numbers, whether it is a prime, in the
+     * sense of {@link #isPrime2(NaturalNumber)}; the numbers are tested in
+     * parallel on the common fork-join pool.
+     *
+     * @param numbers
+     *            numbers to be checked
+     * @return results in the iteration order of numbers
+     * @requires [every entry of numbers > 1]
+     * @ensures <pre>
+     * |isPrimeBatch| = |numbers|  and
+     * [isPrimeBatch[i] reports, as isPrime2 does, whether the i-th entry
+     *  of numbers is prime]
+     * </pre>
+     */
+    public static boolean[] isPrimeBatch(Iterable<NaturalNumber> numbers) {
+        return isPrimeBatch(numbers, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reports, for each number in numbers, whether it is a prime, in the
+     * sense of {@link #isPrime2(NaturalNumber)}; the numbers are split into
+     * fork-join tasks on pool, whose idle workers steal pending halves, and
+     * each worker draws witnesses from its own generator.
+     *
+     * @param numbers
+     *            numbers to be checked
+     * @param pool
+     *            pool that runs the tests
+     * @return results in the iteration order of numbers
+     * @requires [every entry of numbers > 1]
+     * @ensures <pre>
+     * |isPrimeBatch| = |numbers|  and
+     * [isPrimeBatch[i] reports, as isPrime2 does, whether the i-th entry
+     *  of numbers is prime]
+     * </pre>
+     */
+    public static boolean[] isPrimeBatch(Iterable<NaturalNumber> numbers,
+            ForkJoinPool pool) {
+        assert numbers != null : "Violation of: numbers is not null";
+        assert pool != null : "Violation of: pool is not null";
+
+        /*
+         * Workers get private copies, so the caller's numbers are neither
+         * modified nor read concurrently
+         */
+        List<NaturalNumber> copies = new ArrayList<>();
+        for (NaturalNumber n : numbers) {
+            copies.add(new NaturalNumber2(n));
+        }
+        boolean[] results = new boolean[copies.size()];
+        pool.invoke(new PrimalityBatch(copies, results, 0, copies.size()));
+        return results;
+    }
+
+    /**
+     * Fork-join task testing a contiguous range of a batch for primality.
+     */
+    private static final class PrimalityBatch extends RecursiveAction {
+
+        /**
+         * Serialization version (required by {@code RecursiveAction}).
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Numbers of the whole batch.
+         */
+        private final transient List<NaturalNumber> numbers;
+
+        /**
+         * Results of the whole batch, filled in by index.
+         */
+        private final boolean[] results;
+
+        /**
+         * Range [from, to) of the batch tested by this task.
+         */
+        private final int from, to;
+
+        /**
+         * Constructs a task for numbers[from, to).
+         *
+         * @param numbers
+         *            numbers of the whole batch
+         * @param results
+         *            results of the whole batch
+         * @param from
+         *            first index tested
+         * @param to
+         *            index after the last one tested
+         */
+        PrimalityBatch(List<NaturalNumber> numbers, boolean[] results,
+                int from, int to) {
+            this.numbers = numbers;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= BATCH_LEAF_SIZE) {
+                RandomGenerator generator = WORKER_GENERATOR.get();
+                for (int i = this.from; i < this.to; i++) {
+                    this.results[i] = isPrime2(this.numbers.get(i), generator);
+                }
+            } else {
+                int mid = (this.from + this.to) >>> 1;
+                invokeAll(new PrimalityBatch(this.numbers, this.results,
+                        this.from, mid),
+                        new PrimalityBatch(this.numbers, this.results, mid,
+                                this.to));
+            }
+        }
+    }
+
+    /**
+     * Reports whether n is a prime, testing the random witness candidates of
+     * {@link #isPrime2(NaturalNumber)} concurrently on the given executor
+     * (e.g., a {@code ForkJoinPool} or a virtual-thread-per-task executor);
+     * may be wrong with "low" probability.
+     *
+     * <p>
+     * Candidates are drawn on the calling thread, since the shared generator
+     * is not thread-safe, and each round gets its own copy of the Montgomery
+     * context. As soon as any round finds a witness, rounds that have not
+     * started are skipped and running ones stop at their next squaring.
+     * </p>
+     *
+     * @param n
+     *            number to be checked
+     * @param executor
+     *            executor that runs the witness rounds
+     * @return true means n is very likely prime; false means n is definitely
+     *         composite
+     * @requires n > 1 and executor is not shut down
+     * @ensures <pre>
+     * isPrime2 = [n is a prime number, with small probability of error
+     *         if it is reported to be prime, and no chance of error if it is
+     *         reported to be composite]
+     * </pre>
+     */
+    public static boolean isPrime2(NaturalNumber n, ExecutorService executor) {
+        assert n.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: n > 1";
+        assert executor != null : "Violation of: executor is not null";
+
+        boolean isPrime = true;
+        if (fitsInLong(n)) {
+            isPrime = isPrime(Long.parseLong(n.toString()));
+        } else if (isEven(n)) {
+            isPrime = false;
+        } else {
+            NaturalNumber nDec4 = new NaturalNumber2(n);
+            nDec4.subtract(FOUR);
+            MontgomeryContext nContext = new MontgomeryContext(n);
+            AtomicBoolean found = new AtomicBoolean(false);
+
+            CompletionService<Boolean> rounds = new ExecutorCompletionService<>(
+                    executor);
+            List<Future<Boolean>> pending = new ArrayList<>(WITNESS_ROUNDS);
+            for (int i = 0; i < WITNESS_ROUNDS; i++) {
                 NaturalNumber w = randomNumber(nDec4);
                 w.add(TWO);
+                pending.add(rounds.submit(witnessRound(w, nContext, found)));
+            }
 
-                if (isWitnessToCompositeness(w, n) && isPrime) {
-                    isPrime = false;
+            try {
+                for (int i = 0; i < WITNESS_ROUNDS && isPrime; i++) {
+                    if (rounds.take().get()) {
+                        isPrime = false;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(
+                        "Interrupted while testing witnesses", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Witness round failed",
+                        e.getCause());
+            } finally {
+                /*
+                 * Rounds still queued are dropped; running ones see found
+                 */
+                found.set(true);
+                for (Future<Boolean> round : pending) {
+                    round.cancel(false);
                 }
             }
         }
-
         return isPrime;
     }
 
+    /**
+     * Returns a task that reports whether w is a witness to the compositeness
+     * of the modulus of {@code nContext}, or returns false without finishing
+     * the test once {@code found} is set.
+     *
+     * @param w
+     *            witness candidate
+     * @param nContext
+     *            Montgomery context for n, copied by the task
+     * @param found
+     *            set by any round that finds a witness
+     * @return the witness round
+     */
+    private static Callable<Boolean> witnessRound(NaturalNumber w,
+            MontgomeryContext nContext, AtomicBoolean found) {
+        return () -> {
+            boolean isWitness = false;
+            if (!found.get()) {
+                MontgomeryContext context = nContext.copy();
+                int[] x = context.newElement();
+                context.load(w, x);
+                isWitness = isWitnessToCompositeness(x, context,
+                        context.newElement(), found);
+                if (isWitness) {
+                    found.set(true);
+                }
+            }
+            return isWitness;
+        };
+    }
+
     /**
      * Reports whether n is a prime using Miller-Rabin algorithm with error
      * probability of at most 1/(4^k).
@@ -341,63 +1026,491 @@ public final class CryptoUtilities {
 
         boolean isPrime = true;
 
-        if (n.compareTo(FOUR) <= 0) {
+        if (fitsInLong(n)) {
+            isPrime = isPrime(Long.parseLong(n.toString()));
+        } else if (n.compareTo(FOUR) <= 0) {
             isPrime = !n.equals(FOUR);
+        } else if (isEven(n)) {
+            /*
+             * n - 1 is odd, so s = 0 and no round can confirm primality
+             */
+            isPrime = false;
         } else {
             NaturalNumber nDec4 = new NaturalNumber2(n);
             nDec4.subtract(FOUR);
 
             /*
-             * Calculate d and s vals based on n-1 = 2^s*d
+             * The context already holds d and s for n-1 = 2^s*d, along with
+             * the working element every round reuses
              */
-            NaturalNumber s = new NaturalNumber2(); // 0
-            NaturalNumber d = new NaturalNumber2(n); // n-1
-            d.decrement();
-
-            while (new NaturalNumber2(d).divide(TWO).equals(ZERO)) {
-                s.increment();
-                NaturalNumber dMod = d.divide(TWO);
-                d.transferFrom(dMod);
-            }
+            MontgomeryContext nContext = new MontgomeryContext(n);
+            int[] x = nContext.newElement();
 
             /*
-             * Iterate k rounds checking different bases
+             * Iterate k rounds checking different bases; n is composite as
+             * soon as one base a has a^d /= 1 and no a^(2^r*d) = -1 (mod n)
              */
-            for (NaturalNumber i = new NaturalNumber2(); i.compareTo(k) < 0; i
-                    .increment()) {
+            for (NaturalNumber i = new NaturalNumber2(); i.compareTo(k) < 0
+                    && isPrime; i.increment()) {
                 NaturalNumber a = randomNumber(nDec4);
                 a.add(TWO);
-                NaturalNumber x = new NaturalNumber2(a);
-                NaturalNumber y = new NaturalNumber2();
-                powerMod(x, d, n);
+                nContext.load(a, x);
+                isPrime = isStrongProbablePrime(x, nContext);
+            }
+        }
 
+        return isPrime;
+    }
+
+    /**
+     * Reports whether n is a prime using the Baillie-PSW test: a strong
+     * probable-prime test to base 2 followed by a strong Lucas probable-prime
+     * test with Selfridge's parameters. No composite is known to pass both,
+     * and together they cost about three modular exponentiations.
+     *
+     * @param n
+     *            number to be checked
+     * @return true means n is a prime (barring an unknown Baillie-PSW
+     *         pseudoprime); false means n is definitely composite
+     * @requires n > 1
+     * @ensures <pre>
+     * isPrime4 = [n is a prime number, with no known error if it is reported
+     *         to be prime, and no chance of error if it is reported to be
+     *         composite]
+     * </pre>
+     */
+    public static boolean isPrime4(NaturalNumber n) {
+        assert n.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: n > 1";
+        boolean isPrime;
+        if (fitsInLong(n)) {
+            isPrime = isPrime(Long.parseLong(n.toString()));
+        } else if (isEven(n)) {
+            isPrime = false;
+        } else {
+            MontgomeryContext nContext = new MontgomeryContext(n);
+            isPrime = isStrongProbablePrimeBase2(nContext)
+                    && isStrongLucasProbablePrime(n, nContext);
+        }
+        return isPrime;
+    }
+
+    /**
+     * Reports whether the modulus n of nContext is a strong probable prime to
+     * base 2, i.e., with n - 1 = 2^s * d and d odd, 2^d = 1 or 2^(2^r * d) =
+     * -1 (mod n) for some 0 <= r < s.
+     *
+     * @param nContext
+     *            Montgomery context for n
+     * @return true iff n is a strong probable prime to base 2
+     * @requires n > 2
+     */
+    private static boolean isStrongProbablePrimeBase2(
+            MontgomeryContext nContext) {
+        int[] x = nContext.newElement();
+        nContext.load(2, x);
+        return isStrongProbablePrime(x, nContext);
+    }
+
+    /**
+     * Reports whether the modulus n of nContext is a strong probable prime to
+     * base a, i.e., with n - 1 = 2^s * d and d odd, a^d = 1 or a^(2^r * d) =
+     * -1 (mod n) for some 0 <= r < s.
+     *
+     * @param a
+     *            the base, in Montgomery form
+     * @param nContext
+     *            Montgomery context for n
+     * @return true iff n is a strong probable prime to base a
+     * @replaces a
+     * @requires n > 2
+     */
+    private static boolean isStrongProbablePrime(int[] a,
+            MontgomeryContext nContext) {
+        nContext.power(a, nContext.oddPart(), a);
+        boolean probable = nContext.isOne(a) || nContext.isMinusOne(a);
+        for (int r = 1; r < nContext.twoAdicity() && !probable; r++) {
+            nContext.multiply(a, a, a);
+            probable = nContext.isMinusOne(a);
+        }
+        return probable;
+    }
+
+    /**
+     * Reports whether n is a strong Lucas probable prime for P = 1 and
+     * Q = (1 - D) / 4, where D is the first of 5, -7, 9, -11, ... with Jacobi
+     * symbol (D/n) = -1. With n + 1 = 2^s * k and k odd, that means U_k = 0
+     * or V_(2^r * k) = 0 (mod n) for some 0 <= r < s.
+     *
+     * @param n
+     *            number to be checked
+     * @param nContext
+     *            Montgomery context for n
+     * @return true iff n is a strong Lucas probable prime
+     * @requires n is odd and n > 2^63
+     */
+    private static boolean isStrongLucasProbablePrime(NaturalNumber n,
+            MontgomeryContext nContext) {
+        int[] limbs = NaturalNumberLimbs.toLimbs(n,
+                nContext.limbCount() + 1);
+
+        /*
+         * Selfridge's method; a perfect square has (D/n) >= 0 for every D,
+         * so check for one once the search runs long
+         */
+        int d = SELFRIDGE_START;
+        int jacobi = jacobi(d, limbs);
+        int tries = 1;
+        boolean square = false;
+        while (jacobi == 1 && !square) {
+            if (d > 0) {
+                d = -(d + 2);
+            } else {
+                d = 2 - d;
+            }
+            jacobi = jacobi(d, limbs);
+            tries++;
+            if (tries == SQUARE_CHECK_TRIES) {
+                square = isSquare(n);
+            }
+        }
+        final int four = 4;
+        int q = (1 - d) / four;
+        int qMagnitude = Math.abs(q);
+
+        boolean probable = false;
+        if (jacobi == -1 && (qMagnitude <= 1 || LimbGcd.binaryGcd(qMagnitude,
+                NaturalNumberLimbs.remainder(limbs, limbs.length,
+                        qMagnitude)) == 1)) {
+            /*
+             * (D/n) = 0 would mean 1 < |D| < n shares a factor with n, and so
+             * would Q; otherwise compute U_k, V_k, and Q^k left to right over
+             * the bits of k, starting from U_1 = 1, V_1 = P = 1, Q^1 = Q
+             */
+            int[] dElement = nContext.newElement();
+            int[] qElement = nContext.newElement();
+            int[] u = nContext.newElement();
+            int[] v = nContext.newElement();
+            int[] qk = nContext.newElement();
+            int[] t = nContext.newElement();
+            nContext.load(d, dElement);
+            nContext.load(q, qElement);
+            nContext.load(1, u);
+            nContext.load(1, v);
+            System.arraycopy(qElement, 0, qk, 0, qk.length);
+
+            int[] nPlusOne = limbs;
+            NaturalNumberLimbs.multiplyAdd(nPlusOne, 1, 1);
+            int s = 0;
+            while (!NaturalNumberLimbs.testBit(nPlusOne, s)) {
+                s++;
+            }
+            int top = NaturalNumberLimbs.bitLength(nPlusOne,
+                    nPlusOne.length) - 1;
+            for (int i = top - 1; i >= s; i--) {
                 /*
-                 * Iterate s rounds checking compositeness(?)
+                 * Double: U_2j = U_j V_j, V_2j = V_j^2 - 2 Q^j
                  */
-                for (NaturalNumber j = new NaturalNumber2(); j
-                        .compareTo(s) < 0; j.increment()) {
-                    if (isWitnessToCompositeness(x, n) && isPrime) {
-                        isPrime = false;
-                    } else {
-                        y = new NaturalNumber2(x);
-                        powerMod(y, TWO, n);
-                        x.transferFrom(y);
-                    }
+                nContext.multiply(u, v, u);
+                nContext.multiply(v, v, v);
+                nContext.add(qk, qk, t);
+                nContext.subtract(v, t, v);
+                nContext.multiply(qk, qk, qk);
+                if (NaturalNumberLimbs.testBit(nPlusOne, i)) {
+                    /*
+                     * Increment: U_(j+1) = (U_j + V_j) / 2,
+                     * V_(j+1) = (D U_j + V_j) / 2
+                     */
+                    nContext.multiply(dElement, u, t);
+                    nContext.add(u, v, u);
+                    nContext.halve(u, u);
+                    nContext.add(t, v, v);
+                    nContext.halve(v, v);
+                    nContext.multiply(qk, qElement, qk);
                 }
+            }
+
+            probable = isZero(u) || isZero(v);
+            for (int r = 1; r < s && !probable; r++) {
+                nContext.multiply(v, v, v);
+                nContext.add(qk, qk, t);
+                nContext.subtract(v, t, v);
+                nContext.multiply(qk, qk, qk);
+                probable = isZero(v);
+            }
+        }
+        return probable;
+    }
 
-                if (y.compareTo(ONE) != 0) {
-                    isPrime = false;
+    /**
+     * Reports whether every limb of a is zero.
+     *
+     * @param a
+     *            limbs
+     * @return true iff a = 0
+     */
+    private static boolean isZero(int[] a) {
+        return NaturalNumberLimbs.significantLength(a, a.length) == 0;
+    }
+
+    /**
+     * Reports whether n is a perfect square.
+     *
+     * @param n
+     *            number to be checked
+     * @return true iff n = r^2 for some r
+     */
+    private static boolean isSquare(NaturalNumber n) {
+        NaturalNumber root = new NaturalNumber2(n);
+        root.root(2);
+        NaturalNumber square = new NaturalNumber2(root);
+        square.multiply(root);
+        return square.equals(n);
+    }
+
+    /**
+     * Returns the Jacobi symbol (d/n) for a small d and an odd n.
+     *
+     * @param d
+     *            small odd numerator
+     * @param nLimbs
+     *            limbs of n
+     * @return (d/n), one of -1, 0, 1
+     * @requires n is odd and |d| is odd
+     */
+    private static int jacobi(int d, int[] nLimbs) {
+        final int mod4Mask = 3;
+        int a = Math.abs(d);
+        int nMod4 = nLimbs[0] & mod4Mask;
+
+        /*
+         * Quadratic reciprocity turns (|d|/n) into (n mod |d| / |d|), and
+         * (-1/n) = -1 exactly when n = 3 (mod 4)
+         */
+        int symbol = jacobi(NaturalNumberLimbs.remainder(nLimbs,
+                nLimbs.length, a), a);
+        if ((a & mod4Mask) == mod4Mask && nMod4 == mod4Mask) {
+            symbol = -symbol;
+        }
+        if (d < 0 && nMod4 == mod4Mask) {
+            symbol = -symbol;
+        }
+        return symbol;
+    }
+
+    /**
+     * Returns the Jacobi symbol (a/m).
+     *
+     * @param a
+     *            numerator
+     * @param m
+     *            denominator
+     * @return (a/m), one of -1, 0, 1
+     * @requires a >= 0 and m is odd and m > 0
+     */
+    private static int jacobi(int a, int m) {
+        final int mod4Mask = 3;
+        final int mod8Mask = 7;
+        final int three = 3;
+        final int five = 5;
+        int x = a % m;
+        int y = m;
+        int symbol = 1;
+        while (x != 0) {
+            /*
+             * (2/y) = -1 exactly when y = 3 or 5 (mod 8)
+             */
+            while ((x & 1) == 0) {
+                x >>= 1;
+                int r = y & mod8Mask;
+                if (r == three || r == five) {
+                    symbol = -symbol;
                 }
+            }
+            int t = x;
+            x = y;
+            y = t;
+            if ((x & mod4Mask) == mod4Mask && (y & mod4Mask) == mod4Mask) {
+                symbol = -symbol;
+            }
+            x %= y;
+        }
+        if (y != 1) {
+            symbol = 0;
+        }
+        return symbol;
+    }
 
-                /*
-                 * If all composite checks passed implicitly prime
-                 */
+    /**
+     * Reports whether n fits in a {@code long}, i.e., whether the primitive
+     * fast path applies.
+     *
+     * @param n
+     *            number to be checked
+     * @return true iff n <= 2^63 - 1
+     */
+    private static boolean fitsInLong(NaturalNumber n) {
+        return n.compareTo(LONG_LIMIT) <= 0;
+    }
+
+    /**
+     * Makes isPrime(long), and so the fast path of every primality test,
+     * answer numbers below 2^32 from the prime table in file, building the
+     * table on the common fork-join pool first if file does not exist.
+     *
+     * @param file
+     *            prime table file, shared by every JVM that uses it
+     * @throws IOException
+     *             if the table cannot be built or mapped
+     */
+    public static void usePrimeBitmap(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            PrimeBitmap.build(file, PrimeBitmap.MAX_LIMIT,
+                    ForkJoinPool.commonPool());
+        }
+        primeBitmap = PrimeBitmap.open(file);
+    }
+
+    /**
+     * Reports whether n is a prime, exactly, using deterministic Miller-Rabin
+     * over a fixed witness set on primitives.
+     *
+     * @param n
+     *            number to be checked
+     * @return true iff n is a prime number
+     * @ensures isPrime = [n is a prime number]
+     */
+    public static boolean isPrime(long n) {
+        boolean isPrime = n > 1;
+        boolean decided = !isPrime;
+
+        PrimeBitmap bitmap = primeBitmap;
+        if (!decided && bitmap != null && n < bitmap.limit()) {
+            /*
+             * A single bit test in the mapped table
+             */
+            isPrime = bitmap.isPrime(n);
+            decided = true;
+        }
+
+        /*
+         * The witnesses double as trial divisors, which also settles every
+         * n <= 37
+         */
+        for (int i = 0; i < LONG_WITNESSES.length && !decided; i++) {
+            if (n == LONG_WITNESSES[i]) {
+                decided = true;
+            } else if (n % LONG_WITNESSES[i] == 0) {
+                isPrime = false;
+                decided = true;
             }
         }
 
+        if (!decided) {
+            /*
+             * Odd n > 37: n - 1 = 2^s * d, and all arithmetic is Montgomery
+             * multiplication modulo n with R = 2^64
+             */
+            int s = Long.numberOfTrailingZeros(n - 1);
+            long d = (n - 1) >>> s;
+            long inverse = n;
+            for (int i = 0; i < LONG_INVERSE_ITERATIONS; i++) {
+                inverse *= 2 - n * inverse;
+            }
+            long negInverse = -inverse;
+            long one = Long.remainderUnsigned(-n, n);
+            long minusOne = n - one;
+            long rSquared = one;
+            for (int i = 0; i < Long.SIZE; i++) {
+                rSquared <<= 1;
+                if (Long.compareUnsigned(rSquared, n) >= 0) {
+                    rSquared -= n;
+                }
+            }
+
+            for (int i = 0; i < LONG_WITNESSES.length && isPrime; i++) {
+                long x = montgomeryMultiply(LONG_WITNESSES[i], rSquared, n,
+                        negInverse);
+                x = montgomeryPower(x, d, one, n, negInverse);
+                if (x != one && x != minusOne) {
+                    int j = 1;
+                    while (j < s && x != minusOne) {
+                        x = montgomeryMultiply(x, x, n, negInverse);
+                        j++;
+                    }
+                    isPrime = x == minusOne;
+                }
+            }
+        }
         return isPrime;
     }
 
+    /**
+     * Returns the Montgomery product a * b * 2^-64 mod n, computed on the full
+     * 128-bit product so that it cannot overflow.
+     *
+     * @param a
+     *            one factor
+     * @param b
+     *            the other factor
+     * @param n
+     *            the modulus
+     * @param negInverse
+     *            -n^-1 mod 2^64
+     * @return a * b * 2^-64 mod n
+     * @requires n is odd and 0 <= a, b < n < 2^63
+     */
+    private static long montgomeryMultiply(long a, long b, long n,
+            long negInverse) {
+        long lo = a * b;
+        long hi = Math.multiplyHigh(a, b);
+        long q = lo * negInverse;
+        /*
+         * High word of q * n with q read as unsigned; lo + low word of q * n
+         * is 0 mod 2^64, so it carries exactly when lo is non-zero
+         */
+        long qnHi = Math.multiplyHigh(q, n) + ((q >> (Long.SIZE - 1)) & n);
+        long carry = 0;
+        if (lo != 0) {
+            carry = 1;
+        }
+        long t = hi + qnHi + carry;
+        if (Long.compareUnsigned(t, n) >= 0) {
+            t -= n;
+        }
+        return t;
+    }
+
+    /**
+     * Returns base^exp in Montgomery form modulo n.
+     *
+     * @param base
+     *            base, in Montgomery form
+     * @param exp
+     *            exponent
+     * @param one
+     *            Montgomery form of 1 (2^64 mod n)
+     * @param n
+     *            the modulus
+     * @param negInverse
+     *            -n^-1 mod 2^64
+     * @return base^exp in Montgomery form
+     * @requires n is odd and 0 <= base < n < 2^63 and exp >= 0
+     */
+    private static long montgomeryPower(long base, long exp, long one,
+            long n, long negInverse) {
+        long result = one;
+        long square = base;
+        long e = exp;
+        while (e != 0) {
+            if ((e & 1) != 0) {
+                result = montgomeryMultiply(result, square, n, negInverse);
+            }
+            square = montgomeryMultiply(square, square, n, negInverse);
+            e >>>= 1;
+        }
+        return result;
+    }
+
     /**
      * Generates a likely prime number at least as large as some given number.
      *
@@ -415,12 +1528,125 @@ public final class CryptoUtilities {
          * the odd numbers only (why?), until n is likely prime
          */
 
-        while (!isPrime2(n)) {
-            if (isEven(n)) {
-                n.increment();
-            } else {
+        if (isEven(n) && !n.equals(TWO)) {
+            n.increment();
+        }
+        if (fitsInLong(n)) {
+            /*
+             * Each check is already exact and cheap on primitives
+             */
+            while (!isPrime2(n)) {
                 n.add(TWO);
             }
+        } else {
+            /*
+             * Only candidates with no small prime factor are worth the full
+             * witness test
+             */
+            CandidateSieve sieve = new CandidateSieve(n);
+            NaturalNumber gap = new NaturalNumber2();
+            long offset = sieve.nextSurvivor();
+            gap.setFromInt((int) offset);
+            n.add(gap);
+            while (!isPrime2(n)) {
+                long next = sieve.nextSurvivor();
+                gap.setFromInt((int) (next - offset));
+                n.add(gap);
+                offset = next;
+            }
+        }
+    }
+
+    /**
+     * Returns a random likely prime with exactly the given number of bits,
+     * drawing randomness from generator. No {@code NaturalNumber} shared with
+     * other threads is touched, so this may run on worker threads, each with
+     * its own generator.
+     *
+     * @param bits
+     *            bit length of the prime
+     * @param generator
+     *            source of randomness owned by the calling thread
+     * @return random likely prime
+     * @requires bits >= 2
+     * @ensures <pre>
+     * 2^(bits-1) <= randomLikelyPrime < 2^bits  and
+     * [randomLikelyPrime is very likely a prime number]
+     * </pre>
+     */
+    public static NaturalNumber randomLikelyPrime(int bits,
+            RandomGenerator generator) {
+        assert bits >= 2 : "Violation of: bits >= 2";
+        int length = ((bits - 1) >>> NaturalNumberLimbs.LOG_LIMB_BITS) + 1;
+        int topBit = (bits - 1) & (NaturalNumberLimbs.LIMB_BITS - 1);
+        int[] limbs = new int[length];
+        NaturalNumber p = new NaturalNumber2();
+
+        /*
+         * Start from a random odd number with the top bit set, and retry in
+         * the rare case that the next likely prime needs one more bit
+         */
+        int[] found;
+        do {
+            for (int i = 0; i < length; i++) {
+                limbs[i] = generator.nextInt();
+            }
+            limbs[length - 1] &= -1 >>> (NaturalNumberLimbs.LIMB_BITS - 1
+                    - topBit);
+            limbs[length - 1] |= 1 << topBit;
+            limbs[0] |= 1;
+            NaturalNumberLimbs.fromLimbs(limbs, length, p);
+            generateNextLikelyPrime(p, generator);
+            found = NaturalNumberLimbs.toLimbs(p, 1);
+        } while (NaturalNumberLimbs.bitLength(found, found.length) > bits);
+        return p;
+    }
+
+    /**
+     * Generates a likely prime number at least as large as some given odd
+     * number, like {@link #generateNextLikelyPrime(NaturalNumber)}, for use
+     * from worker threads: parity and size are read from limbs and witnesses
+     * come from generator, so no {@code NaturalNumber} shared with other
+     * threads is touched.
+     *
+     * @param n
+     *            minimum value of likely prime, owned by the calling thread
+     * @param generator
+     *            source of randomness owned by the calling thread
+     * @updates n
+     * @requires n is odd and n > 1
+     * @ensures n >= #n and [n is very likely a prime number]
+     */
+    private static void generateNextLikelyPrime(NaturalNumber n,
+            RandomGenerator generator) {
+        int[] limbs = NaturalNumberLimbs.toLimbs(n, 2);
+        if (NaturalNumberLimbs.bitLength(limbs, limbs.length) < Long.SIZE
+                - 2) {
+            /*
+             * Well below 2^63, so stepping through the odd numbers on
+             * primitives cannot overflow
+             */
+            long candidate = ((limbs[1] & NaturalNumberLimbs.MASK)
+                    << NaturalNumberLimbs.LIMB_BITS)
+                    | (limbs[0] & NaturalNumberLimbs.MASK);
+            while (!isPrime(candidate)) {
+                candidate += 2;
+            }
+            limbs[0] = (int) candidate;
+            limbs[1] = (int) (candidate >>> NaturalNumberLimbs.LIMB_BITS);
+            NaturalNumberLimbs.fromLimbs(limbs, 2, n);
+        } else {
+            CandidateSieve sieve = new CandidateSieve(n);
+            NaturalNumber gap = new NaturalNumber2();
+            long offset = sieve.nextSurvivor();
+            gap.setFromInt((int) offset);
+            n.add(gap);
+            while (!isPrime2(n, generator)) {
+                long next = sieve.nextSurvivor();
+                gap.setFromInt((int) (next - offset));
+                n.add(gap);
+                offset = next;
+            }
         }
     }
 
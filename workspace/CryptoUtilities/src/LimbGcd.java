@@ -0,0 +1,517 @@
+import java.util.Arrays;
+
+/**
+ * Iterative greatest common divisor of two numbers in limb form, using
+ * Lehmer's algorithm while the operands are large and binary (Stein) steps
+ * once they fit in a {@code long}, optionally tracking the cofactor needed for
+ * a modular inverse.
+ *
+ * <p>
+ * The remainder sequence a_0 = first, a_1 = second, a_(i+1) = a_(i-1) mod a_i
+ * is computed in place in three buffers allocated once. In extended mode the
+ * cofactors s_i with s_i * second = a_i (mod first) are tracked as well. They
+ * alternate in sign (s_0 = 0, s_1 = 1, s_2 < 0, s_3 > 0, ...), so only their
+ * magnitudes are stored and every update is a sum of non-negative terms.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class LimbGcd {
+
+    /**
+     * Number of leading bits used for the single-precision Lehmer digits;
+     * keeps every cofactor and every cofactor-limb product in a
+     * {@code long}.
+     */
+    private static final int DIGIT_BITS = 31;
+
+    /**
+     * Mask selecting {@link #DIGIT_BITS} low-order bits.
+     */
+    private static final long DIGIT_MASK = (1L << DIGIT_BITS) - 1;
+
+    /**
+     * Limb capacity of every buffer.
+     */
+    private final int capacity;
+
+    /**
+     * Current remainder a_i.
+     */
+    private int[] a;
+
+    /**
+     * Next remainder a_(i+1).
+     */
+    private int[] b;
+
+    /**
+     * Spare buffer that receives the next value of a.
+     */
+    private int[] spare;
+
+    /**
+     * Significant length of a.
+     */
+    private int aLen;
+
+    /**
+     * Significant length of b.
+     */
+    private int bLen;
+
+    /**
+     * Whether cofactors are tracked.
+     */
+    private final boolean extended;
+
+    /**
+     * Cofactor magnitude |s_i| (null unless extended).
+     */
+    private int[] sa;
+
+    /**
+     * Cofactor magnitude |s_(i+1)| (null unless extended).
+     */
+    private int[] sb;
+
+    /**
+     * Spare buffer that receives the next value of sa (null unless
+     * extended).
+     */
+    private int[] sSpare;
+
+    /**
+     * Index i of the current a in the remainder sequence.
+     */
+    private int index;
+
+    /**
+     * Scratch holding the divisor shifted left during a full division step,
+     * and the next value of b during a Lehmer step.
+     */
+    private final int[] shifted;
+
+    /**
+     * Scratch holding the divisor's cofactor shifted left during a full
+     * division step, and the next value of sb during a Lehmer step.
+     */
+    private final int[] shiftedCofactor;
+
+    /**
+     * Constructs the computation for first and second, which become the
+     * working buffers.
+     *
+     * @param first
+     *            limbs of the first number, consumed
+     * @param second
+     *            limbs of the second number, consumed
+     * @param extended
+     *            whether to track the cofactor of second
+     * @requires first >= second
+     */
+    LimbGcd(int[] first, int[] second, boolean extended) {
+        this.capacity = Math.max(first.length, second.length) + 2;
+        this.a = new int[this.capacity];
+        this.b = new int[this.capacity];
+        this.spare = new int[this.capacity];
+        System.arraycopy(first, 0, this.a, 0, first.length);
+        System.arraycopy(second, 0, this.b, 0, second.length);
+        this.aLen = NaturalNumberLimbs.significantLength(this.a,
+                this.capacity);
+        this.bLen = NaturalNumberLimbs.significantLength(this.b,
+                this.capacity);
+        assert NaturalNumberLimbs.compare(this.a, this.b,
+                this.capacity) >= 0 : "Violation of: first >= second";
+
+        this.extended = extended;
+        if (extended) {
+            this.sa = new int[this.capacity];
+            this.sb = new int[this.capacity];
+            this.sSpare = new int[this.capacity];
+            this.sb[0] = 1;
+        }
+        this.index = 0;
+        this.shifted = new int[this.capacity];
+        this.shiftedCofactor = new int[this.capacity];
+    }
+
+    /**
+     * Runs the remainder sequence until b = 0.
+     *
+     * @updates this
+     * @ensures [a = GCD(first, second), and in extended mode sa = |s_index|]
+     */
+    void run() {
+        while (this.bLen > 0) {
+            if (!this.extended && NaturalNumberLimbs.bitLength(this.a,
+                    this.aLen) < Long.SIZE) {
+                /*
+                 * Both operands fit in a long: finish with binary steps
+                 */
+                long g = binaryGcd(this.toLong(this.a), this.toLong(this.b));
+                Arrays.fill(this.a, 0);
+                this.a[0] = (int) g;
+                this.a[1] = (int) (g >>> NaturalNumberLimbs.LIMB_BITS);
+                this.aLen = NaturalNumberLimbs.significantLength(this.a, 2);
+                Arrays.fill(this.b, 0, 2, 0);
+                this.bLen = 0;
+            } else if (!this.lehmerStep()) {
+                this.divisionStep();
+            }
+        }
+    }
+
+    /**
+     * Returns the limbs of the result; callers must not modify them.
+     *
+     * @return GCD(first, second), once {@link #run()} has returned
+     */
+    int[] gcd() {
+        return this.a;
+    }
+
+    /**
+     * Returns the cofactor magnitude |s| with s * second = GCD (mod first);
+     * callers must not modify it.
+     *
+     * @return |s|, once {@link #run()} has returned in extended mode
+     */
+    int[] cofactor() {
+        return this.sa;
+    }
+
+    /**
+     * Reports whether the cofactor returned by {@link #cofactor()} is
+     * negative.
+     *
+     * @return true iff s < 0
+     */
+    boolean isCofactorNegative() {
+        return this.index > 0 && this.index % 2 == 0;
+    }
+
+    /**
+     * Returns the value of a two-limb number.
+     *
+     * @param x
+     *            limbs, with value < 2^63
+     * @return value of x
+     */
+    private long toLong(int[] x) {
+        long hi = x[1] & NaturalNumberLimbs.MASK;
+        return (hi << NaturalNumberLimbs.LIMB_BITS)
+                | (x[0] & NaturalNumberLimbs.MASK);
+    }
+
+    /**
+     * Returns GCD(u, v) by binary (Stein) steps.
+     *
+     * @param u
+     *            one number
+     * @param v
+     *            the other number
+     * @return GCD(u, v)
+     * @requires u >= 0 and v >= 0
+     */
+    static long binaryGcd(long u, long v) {
+        long x = u;
+        long y = v;
+        long g;
+        if (x == 0) {
+            g = y;
+        } else if (y == 0) {
+            g = x;
+        } else {
+            int shift = Long.numberOfTrailingZeros(x | y);
+            x >>>= Long.numberOfTrailingZeros(x);
+            while (y != 0) {
+                y >>>= Long.numberOfTrailingZeros(y);
+                if (x > y) {
+                    long t = x;
+                    x = y;
+                    y = t;
+                }
+                y -= x;
+            }
+            g = x << shift;
+        }
+        return g;
+    }
+
+    /**
+     * Returns (x >> shift) for a number of at most shift + 31 bits.
+     *
+     * @param x
+     *            limbs
+     * @param shift
+     *            number of low-order bits dropped
+     * @return leading digit of x
+     */
+    private long leadingDigit(int[] x, int shift) {
+        int limb = shift >>> NaturalNumberLimbs.LOG_LIMB_BITS;
+        int bit = shift & (NaturalNumberLimbs.LIMB_BITS - 1);
+        long lo = x[limb] & NaturalNumberLimbs.MASK;
+        long hi = 0;
+        if (limb + 1 < this.capacity) {
+            hi = x[limb + 1] & NaturalNumberLimbs.MASK;
+        }
+        return ((hi << NaturalNumberLimbs.LIMB_BITS | lo) >>> bit) & DIGIT_MASK;
+    }
+
+    /**
+     * Performs as many Euclid steps as the leading digits of a and b
+     * determine (Knuth's Algorithm L), applying them all at once.
+     *
+     * @return false iff no step could be determined
+     * @updates this
+     */
+    private boolean lehmerStep() {
+        int shift = Math.max(
+                NaturalNumberLimbs.bitLength(this.a, this.aLen) - DIGIT_BITS,
+                0);
+        long x = this.leadingDigit(this.a, shift);
+        long y = this.leadingDigit(this.b, shift);
+        long bigA = 1;
+        long bigB = 0;
+        long bigC = 0;
+        long bigD = 1;
+        int steps = 0;
+
+        while (y + bigC != 0 && y + bigD != 0) {
+            long q = Math.floorDiv(x + bigA, y + bigC);
+            if (q != Math.floorDiv(x + bigB, y + bigD)) {
+                break;
+            }
+            long t = bigA - q * bigC;
+            bigA = bigC;
+            bigC = t;
+            t = bigB - q * bigD;
+            bigB = bigD;
+            bigD = t;
+            t = x - q * y;
+            x = y;
+            y = t;
+            steps++;
+        }
+
+        boolean progressed = bigB != 0;
+        if (progressed) {
+            /*
+             * (a, b) <- (A a + B b, C a + D b), where A, B (and C, D) have
+             * opposite signs and the results are non-negative
+             */
+            int len = this.aLen;
+            int[] newB = this.shifted;
+            combine(this.spare, bigA, this.a, bigB, this.b, len);
+            combine(newB, bigC, this.a, bigD, this.b, len);
+            int[] t = this.a;
+            this.a = this.spare;
+            this.spare = t;
+            System.arraycopy(newB, 0, this.b, 0, this.capacity);
+            this.aLen = NaturalNumberLimbs.significantLength(this.a, len);
+            this.bLen = NaturalNumberLimbs.significantLength(this.b, len);
+
+            if (this.extended) {
+                int[] newSb = this.shiftedCofactor;
+                addProducts(this.sSpare, Math.abs(bigA), this.sa,
+                        Math.abs(bigB), this.sb);
+                addProducts(newSb, Math.abs(bigC), this.sa, Math.abs(bigD),
+                        this.sb);
+                int[] s = this.sa;
+                this.sa = this.sSpare;
+                this.sSpare = s;
+                System.arraycopy(newSb, 0, this.sb, 0, this.capacity);
+            }
+            this.index += steps;
+            OperationStats.countDivisions(steps);
+        }
+        return progressed;
+    }
+
+    /**
+     * Sets out to p * x + q * y, where p and q have opposite signs (or one is
+     * zero) and the result is known to be non-negative.
+     *
+     * @param out
+     *            destination, zero beyond len
+     * @param p
+     *            cofactor of x
+     * @param x
+     *            limbs
+     * @param q
+     *            cofactor of y
+     * @param y
+     *            limbs
+     * @param len
+     *            number of significant limbs of x and y
+     * @replaces out
+     */
+    private void combine(int[] out, long p, int[] x, long q, int[] y,
+            int len) {
+        OperationStats.countMultiplications(2);
+        long plus = p;
+        int[] plusX = x;
+        long minus = -q;
+        int[] minusX = y;
+        if (q > 0) {
+            plus = q;
+            plusX = y;
+            minus = -p;
+            minusX = x;
+        }
+        long carryPlus = 0;
+        long carryMinus = 0;
+        long borrow = 0;
+        for (int i = 0; i < len; i++) {
+            long pi = plus * (plusX[i] & NaturalNumberLimbs.MASK) + carryPlus;
+            long mi = minus * (minusX[i] & NaturalNumberLimbs.MASK)
+                    + carryMinus;
+            carryPlus = pi >>> NaturalNumberLimbs.LIMB_BITS;
+            carryMinus = mi >>> NaturalNumberLimbs.LIMB_BITS;
+            long diff = (pi & NaturalNumberLimbs.MASK)
+                    - (mi & NaturalNumberLimbs.MASK) - borrow;
+            out[i] = (int) diff;
+            borrow = diff >>> (Long.SIZE - 1);
+        }
+        Arrays.fill(out, len, this.capacity, 0);
+    }
+
+    /**
+     * Sets out to p * x + q * y for non-negative p and q.
+     *
+     * @param out
+     *            destination
+     * @param p
+     *            multiplier of x
+     * @param x
+     *            limbs
+     * @param q
+     *            multiplier of y
+     * @param y
+     *            limbs
+     * @replaces out
+     */
+    private void addProducts(int[] out, long p, int[] x, long q, int[] y) {
+        OperationStats.countMultiplications(2);
+        long carry = 0;
+        for (int i = 0; i < this.capacity; i++) {
+            long px = p * (x[i] & NaturalNumberLimbs.MASK);
+            long qy = q * (y[i] & NaturalNumberLimbs.MASK);
+            long lo = (px & NaturalNumberLimbs.MASK)
+                    + (qy & NaturalNumberLimbs.MASK) + carry;
+            out[i] = (int) lo;
+            carry = (px >>> NaturalNumberLimbs.LIMB_BITS)
+                    + (qy >>> NaturalNumberLimbs.LIMB_BITS)
+                    + (lo >>> NaturalNumberLimbs.LIMB_BITS);
+        }
+    }
+
+    /**
+     * Performs one full Euclid step, (a, b) <- (b, a mod b), by shift and
+     * subtract, adding the matching multiples of |s_(i+1)| to |s_i|.
+     *
+     * @updates this
+     */
+    private void divisionStep() {
+        int shift = NaturalNumberLimbs.bitLength(this.a, this.aLen)
+                - NaturalNumberLimbs.bitLength(this.b, this.bLen);
+        shiftLeft(this.b, shift, this.shifted);
+        if (this.extended) {
+            shiftLeft(this.sb, shift, this.shiftedCofactor);
+        }
+        for (int k = shift; k >= 0; k--) {
+            if (NaturalNumberLimbs.compare(this.a, this.shifted,
+                    this.capacity) >= 0) {
+                NaturalNumberLimbs.subtract(this.a, this.shifted,
+                        this.capacity);
+                if (this.extended) {
+                    add(this.sa, this.shiftedCofactor);
+                }
+            }
+            shiftRightOne(this.shifted);
+            if (this.extended) {
+                shiftRightOne(this.shiftedCofactor);
+            }
+        }
+
+        /*
+         * a now holds a mod b: rotate so that (a, b) = (b, a mod b)
+         */
+        int[] t = this.a;
+        this.a = this.b;
+        this.b = t;
+        this.aLen = this.bLen;
+        this.bLen = NaturalNumberLimbs.significantLength(this.b,
+                this.capacity);
+        if (this.extended) {
+            int[] s = this.sa;
+            this.sa = this.sb;
+            this.sb = s;
+        }
+        this.index++;
+        OperationStats.countDivisions(1);
+    }
+
+    /**
+     * Sets out to x shifted left by the given number of bits.
+     *
+     * @param x
+     *            limbs
+     * @param bits
+     *            shift
+     * @param out
+     *            destination, same capacity as x
+     * @replaces out
+     */
+    private static void shiftLeft(int[] x, int bits, int[] out) {
+        int limbShift = bits >>> NaturalNumberLimbs.LOG_LIMB_BITS;
+        int bitShift = bits & (NaturalNumberLimbs.LIMB_BITS - 1);
+        for (int i = out.length - 1; i >= 0; i--) {
+            int src = i - limbShift;
+            int v = 0;
+            if (src >= 0) {
+                v = x[src] << bitShift;
+                if (bitShift != 0 && src >= 1) {
+                    v |= x[src - 1] >>> (NaturalNumberLimbs.LIMB_BITS
+                            - bitShift);
+                }
+            }
+            out[i] = v;
+        }
+    }
+
+    /**
+     * Shifts x right by one bit in place.
+     *
+     * @param x
+     *            limbs
+     * @updates x
+     */
+    private static void shiftRightOne(int[] x) {
+        for (int i = 0; i < x.length - 1; i++) {
+            x[i] = (x[i] >>> 1) | (x[i + 1] << (NaturalNumberLimbs.LIMB_BITS
+                    - 1));
+        }
+        x[x.length - 1] >>>= 1;
+    }
+
+    /**
+     * Adds y to x in place.
+     *
+     * @param x
+     *            augend, replaced by the sum
+     * @param y
+     *            addend, same capacity as x
+     * @updates x
+     */
+    private static void add(int[] x, int[] y) {
+        long carry = 0;
+        for (int i = 0; i < x.length; i++) {
+            long sum = (x[i] & NaturalNumberLimbs.MASK)
+                    + (y[i] & NaturalNumberLimbs.MASK) + carry;
+            x[i] = (int) sum;
+            carry = sum >>> NaturalNumberLimbs.LIMB_BITS;
+        }
+    }
+}
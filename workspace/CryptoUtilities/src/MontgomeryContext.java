@@ -0,0 +1,709 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber2;
+
+/**
+ * Reusable modular exponentiation context for a fixed odd modulus, using
+ * Montgomery multiplication and a sliding-window scan of the exponent.
+ *
+ * <p>
+ * All constants that depend only on the modulus (limb form, -m^-1 mod 2^32,
+ * R^2 mod m, R mod m) and all scratch storage are computed once at
+ * construction, so exponentiation itself performs no allocation and no
+ * division. Elements handled by the limb-level methods are arrays of
+ * {@link #limbCount()} limbs in Montgomery form (x * R mod m). Because the
+ * scratch storage is shared, a context must not be used by more than one
+ * thread at a time.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class MontgomeryContext {
+
+    /**
+     * Exponent bit lengths above which the next larger window size is used
+     * (window size is 1 + number of thresholds exceeded).
+     */
+    private static final int[] WINDOW_THRESHOLDS = {7, 25, 81, 241, 673};
+
+    /**
+     * Largest window size ever used.
+     */
+    private static final int MAX_WINDOW = WINDOW_THRESHOLDS.length + 1;
+
+    /**
+     * Number of Newton iterations needed to invert a limb modulo 2^32
+     * (each iteration doubles the number of correct low bits, 1 -> 32).
+     */
+    private static final int INVERSE_ITERATIONS = 5;
+
+    /**
+     * Limbs of the modulus, least significant first.
+     */
+    private final int[] modulus;
+
+    /**
+     * Number of limbs in the modulus (and in every element).
+     */
+    private final int limbCount;
+
+    /**
+     * -m^-1 mod 2^32.
+     */
+    private final int negInverse;
+
+    /**
+     * R^2 mod m, where R = 2^(32 * limbCount).
+     */
+    private final int[] rSquared;
+
+    /**
+     * Montgomery form of 2^(32 * (limbCount - 1)), the radix of the chunks in
+     * which long limb arrays are reduced; zero when limbCount is 1.
+     */
+    private final int[] chunkRadix;
+
+    /**
+     * Montgomery form of 1 (R mod m).
+     */
+    private final int[] one;
+
+    /**
+     * Montgomery form of m - 1.
+     */
+    private final int[] minusOne;
+
+    /**
+     * Limbs of m - 1, used as the Fermat exponent.
+     */
+    private final int[] modulusMinusOne;
+
+    /**
+     * Odd part d of m - 1 = 2^s * d.
+     */
+    private final int[] oddPart;
+
+    /**
+     * Exponent s of the largest power of two dividing m - 1.
+     */
+    private final int twoAdicity;
+
+    /**
+     * Scratch accumulator for the Montgomery product (limbCount + 2 limbs).
+     */
+    private final int[] product;
+
+    /**
+     * Scratch accumulator for exponentiation.
+     */
+    private final int[] accumulator;
+
+    /**
+     * Scratch element holding the square of the base during table setup.
+     */
+    private final int[] baseSquared;
+
+    /**
+     * Sliding-window table: window[i] = base^(2i + 1) in Montgomery form.
+     */
+    private final int[][] window;
+
+    /**
+     * Constructs a context for modulus m.
+     *
+     * @param m
+     *            the modulus
+     * @requires m > 1 and m is odd
+     */
+    public MontgomeryContext(NaturalNumber m) {
+        assert m.compareTo(new NaturalNumber2(1)) > 0 : "Violation of: m > 1";
+
+        int[] limbs = NaturalNumberLimbs.toLimbs(m, 1);
+        this.limbCount = NaturalNumberLimbs.significantLength(limbs,
+                limbs.length);
+        this.modulus = new int[this.limbCount];
+        System.arraycopy(limbs, 0, this.modulus, 0, this.limbCount);
+        assert (this.modulus[0] & 1) == 1 : "Violation of: m is odd";
+
+        /*
+         * Newton iteration for the inverse of m modulo 2^32: every step
+         * doubles the number of correct low-order bits
+         */
+        int inverse = this.modulus[0];
+        for (int i = 0; i < INVERSE_ITERATIONS; i++) {
+            inverse *= 2 - this.modulus[0] * inverse;
+        }
+        this.negInverse = -inverse;
+
+        this.product = new int[this.limbCount + 2];
+        this.accumulator = new int[this.limbCount];
+        this.baseSquared = new int[this.limbCount];
+        this.window = new int[1 << (MAX_WINDOW - 1)][this.limbCount];
+
+        /*
+         * R^2 mod m by doubling 1 modulo m 2 * 32 * limbCount times; this
+         * needs only shifts and subtractions
+         */
+        this.rSquared = new int[this.limbCount];
+        this.rSquared[0] = 1;
+        int doublings = 2 * NaturalNumberLimbs.LIMB_BITS * this.limbCount;
+        for (int i = 0; i < doublings; i++) {
+            this.doubleModulo(this.rSquared);
+        }
+
+        this.one = new int[this.limbCount];
+        int[] plainOne = new int[this.limbCount];
+        plainOne[0] = 1;
+        this.multiply(plainOne, this.rSquared, this.one);
+
+        this.chunkRadix = new int[this.limbCount];
+        if (this.limbCount > 1) {
+            int[] radix = new int[this.limbCount];
+            radix[this.limbCount - 1] = 1;
+            this.multiply(radix, this.rSquared, this.chunkRadix);
+        }
+
+        this.minusOne = new int[this.limbCount];
+        System.arraycopy(this.modulus, 0, this.minusOne, 0, this.limbCount);
+        NaturalNumberLimbs.subtract(this.minusOne, this.one, this.limbCount);
+
+        /*
+         * m - 1 = 2^s * d; m is odd so subtracting one only clears bit 0
+         */
+        this.modulusMinusOne = new int[this.limbCount];
+        System.arraycopy(this.modulus, 0, this.modulusMinusOne, 0,
+                this.limbCount);
+        this.modulusMinusOne[0] &= ~1;
+        int s = 0;
+        while (s < this.limbCount * NaturalNumberLimbs.LIMB_BITS
+                && !NaturalNumberLimbs.testBit(this.modulusMinusOne, s)) {
+            s++;
+        }
+        this.twoAdicity = s;
+        this.oddPart = new int[this.limbCount];
+        shiftRight(this.modulusMinusOne, s, this.oddPart);
+    }
+
+    /**
+     * Constructs a context for the same modulus as source, sharing its
+     * precomputed constants but with scratch storage of its own.
+     *
+     * @param source
+     *            context to copy
+     */
+    private MontgomeryContext(MontgomeryContext source) {
+        this.modulus = source.modulus;
+        this.limbCount = source.limbCount;
+        this.negInverse = source.negInverse;
+        this.rSquared = source.rSquared;
+        this.chunkRadix = source.chunkRadix;
+        this.one = source.one;
+        this.minusOne = source.minusOne;
+        this.modulusMinusOne = source.modulusMinusOne;
+        this.oddPart = source.oddPart;
+        this.twoAdicity = source.twoAdicity;
+
+        this.product = new int[this.limbCount + 2];
+        this.accumulator = new int[this.limbCount];
+        this.baseSquared = new int[this.limbCount];
+        this.window = new int[1 << (MAX_WINDOW - 1)][this.limbCount];
+    }
+
+    /**
+     * Returns a context for the same modulus that can be used on another
+     * thread; only the scratch storage is allocated again, the constants
+     * derived from the modulus are shared.
+     *
+     * @return a new context for the same modulus
+     */
+    public MontgomeryContext copy() {
+        return new MontgomeryContext(this);
+    }
+
+    /**
+     * Replaces a with 2a mod m.
+     *
+     * @param a
+     *            element with a < m
+     * @updates a
+     */
+    private void doubleModulo(int[] a) {
+        int carry = 0;
+        for (int i = 0; i < this.limbCount; i++) {
+            int next = a[i] >>> (NaturalNumberLimbs.LIMB_BITS - 1);
+            a[i] = (a[i] << 1) | carry;
+            carry = next;
+        }
+        if (carry != 0 || NaturalNumberLimbs.compare(a, this.modulus,
+                this.limbCount) >= 0) {
+            NaturalNumberLimbs.subtract(a, this.modulus, this.limbCount);
+        }
+    }
+
+    /**
+     * Sets out to a shifted right by the given number of bits.
+     *
+     * @param a
+     *            limbs to shift
+     * @param bits
+     *            number of bits to shift by
+     * @param out
+     *            destination, same length as a
+     * @replaces out
+     */
+    private static void shiftRight(int[] a, int bits, int[] out) {
+        int limbShift = bits >>> NaturalNumberLimbs.LOG_LIMB_BITS;
+        int bitShift = bits & (NaturalNumberLimbs.LIMB_BITS - 1);
+        for (int i = 0; i < out.length; i++) {
+            int src = i + limbShift;
+            int lo = 0;
+            if (src < a.length) {
+                lo = a[src] >>> bitShift;
+            }
+            if (bitShift != 0 && src + 1 < a.length) {
+                lo |= a[src + 1] << (NaturalNumberLimbs.LIMB_BITS - bitShift);
+            }
+            out[i] = lo;
+        }
+    }
+
+    /**
+     * Returns the number of limbs in each element of this context.
+     *
+     * @return limb count of the modulus
+     */
+    public int limbCount() {
+        return this.limbCount;
+    }
+
+    /**
+     * Returns a new element (initially zero) sized for this context.
+     *
+     * @return a new zero element
+     */
+    public int[] newElement() {
+        return new int[this.limbCount];
+    }
+
+    /**
+     * Returns the limbs of m - 1; callers must not modify the result.
+     *
+     * @return m - 1
+     */
+    int[] modulusMinusOne() {
+        return this.modulusMinusOne;
+    }
+
+    /**
+     * Returns the odd part d of m - 1 = 2^s * d; callers must not modify the
+     * result.
+     *
+     * @return d
+     */
+    int[] oddPart() {
+        return this.oddPart;
+    }
+
+    /**
+     * Returns s such that m - 1 = 2^s * d with d odd.
+     *
+     * @return s
+     */
+    public int twoAdicity() {
+        return this.twoAdicity;
+    }
+
+    /**
+     * Sets out to the Montgomery product a * b * R^-1 mod m. The output may be
+     * the same array as either input.
+     *
+     * @param a
+     *            one factor, in Montgomery form
+     * @param b
+     *            the other factor, in Montgomery form
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void multiply(int[] a, int[] b, int[] out) {
+        OperationStats.countMultiplications(1);
+        final int k = this.limbCount;
+        final long mask = NaturalNumberLimbs.MASK;
+        final int shift = NaturalNumberLimbs.LIMB_BITS;
+        int[] t = this.product;
+        Arrays.fill(t, 0);
+
+        /*
+         * CIOS (coarsely integrated operand scanning): interleave one row of
+         * the schoolbook product with one word of Montgomery reduction
+         */
+        for (int i = 0; i < k; i++) {
+            long ai = a[i] & mask;
+            long carry = 0;
+            for (int j = 0; j < k; j++) {
+                long sum = (t[j] & mask) + ai * (b[j] & mask) + carry;
+                t[j] = (int) sum;
+                carry = sum >>> shift;
+            }
+            long sum = (t[k] & mask) + carry;
+            t[k] = (int) sum;
+            t[k + 1] = (int) (sum >>> shift);
+
+            long u = (t[0] * this.negInverse) & mask;
+            sum = (t[0] & mask) + u * (this.modulus[0] & mask);
+            carry = sum >>> shift;
+            for (int j = 1; j < k; j++) {
+                sum = (t[j] & mask) + u * (this.modulus[j] & mask) + carry;
+                t[j - 1] = (int) sum;
+                carry = sum >>> shift;
+            }
+            sum = (t[k] & mask) + carry;
+            t[k - 1] = (int) sum;
+            t[k] = t[k + 1] + (int) (sum >>> shift);
+        }
+
+        if (t[k] != 0 || NaturalNumberLimbs.compare(t, this.modulus, k) >= 0) {
+            NaturalNumberLimbs.subtract(t, this.modulus, k);
+        }
+        System.arraycopy(t, 0, out, 0, k);
+    }
+
+    /**
+     * Sets out to a + b mod m. The output may be the same array as either
+     * input.
+     *
+     * @param a
+     *            one addend, in Montgomery form
+     * @param b
+     *            the other addend, in Montgomery form
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void add(int[] a, int[] b, int[] out) {
+        long carry = 0;
+        for (int i = 0; i < this.limbCount; i++) {
+            long sum = (a[i] & NaturalNumberLimbs.MASK)
+                    + (b[i] & NaturalNumberLimbs.MASK) + carry;
+            out[i] = (int) sum;
+            carry = sum >>> NaturalNumberLimbs.LIMB_BITS;
+        }
+        if (carry != 0 || NaturalNumberLimbs.compare(out, this.modulus,
+                this.limbCount) >= 0) {
+            NaturalNumberLimbs.subtract(out, this.modulus, this.limbCount);
+        }
+    }
+
+    /**
+     * Sets out to a - b mod m. The output may be the same array as either
+     * input.
+     *
+     * @param a
+     *            minuend, in Montgomery form
+     * @param b
+     *            subtrahend, in Montgomery form
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void subtract(int[] a, int[] b, int[] out) {
+        long borrow = 0;
+        for (int i = 0; i < this.limbCount; i++) {
+            long diff = (a[i] & NaturalNumberLimbs.MASK)
+                    - (b[i] & NaturalNumberLimbs.MASK) - borrow;
+            out[i] = (int) diff;
+            borrow = diff >>> (Long.SIZE - 1);
+        }
+        if (borrow != 0) {
+            /*
+             * Wrapped below zero: adding m back carries out of the top limb,
+             * which is dropped
+             */
+            long carry = 0;
+            for (int i = 0; i < this.limbCount; i++) {
+                long sum = (out[i] & NaturalNumberLimbs.MASK)
+                        + (this.modulus[i] & NaturalNumberLimbs.MASK) + carry;
+                out[i] = (int) sum;
+                carry = sum >>> NaturalNumberLimbs.LIMB_BITS;
+            }
+        }
+    }
+
+    /**
+     * Sets out to a / 2 mod m, i.e., a times the inverse of 2. The output may
+     * be the same array as a.
+     *
+     * @param a
+     *            element in Montgomery form
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void halve(int[] a, int[] out) {
+        /*
+         * m is odd, so exactly one of a and a + m is even
+         */
+        long carry = 0;
+        if ((a[0] & 1) != 0) {
+            for (int i = 0; i < this.limbCount; i++) {
+                long sum = (a[i] & NaturalNumberLimbs.MASK)
+                        + (this.modulus[i] & NaturalNumberLimbs.MASK) + carry;
+                out[i] = (int) sum;
+                carry = sum >>> NaturalNumberLimbs.LIMB_BITS;
+            }
+        } else if (out != a) {
+            System.arraycopy(a, 0, out, 0, this.limbCount);
+        }
+        for (int i = 0; i < this.limbCount - 1; i++) {
+            out[i] = (out[i] >>> 1)
+                    | (out[i + 1] << (NaturalNumberLimbs.LIMB_BITS - 1));
+        }
+        out[this.limbCount - 1] = (out[this.limbCount - 1] >>> 1)
+                | ((int) carry << (NaturalNumberLimbs.LIMB_BITS - 1));
+    }
+
+    /**
+     * Sets out to base^exp in Montgomery form, scanning exp left to right
+     * with a sliding window. The output may be the same array as base.
+     *
+     * @param base
+     *            base, in Montgomery form
+     * @param exp
+     *            exponent limbs, least significant first
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void power(int[] base, int[] exp, int[] out) {
+        this.power(base, exp, out, null);
+    }
+
+    /**
+     * Sets out to base^exp in Montgomery form, as
+     * {@link #power(int[], int[], int[])} does, unless stop is set first. The
+     * flag is read before every window of the exponent, so another thread can
+     * abandon an exponentiation that is no longer needed.
+     *
+     * @param base
+     *            base, in Montgomery form
+     * @param exp
+     *            exponent limbs, least significant first
+     * @param out
+     *            destination element
+     * @param stop
+     *            flag that abandons the exponentiation once set, or null
+     * @return true iff out was set; false if stop was seen set
+     * @updates out
+     */
+    boolean power(int[] base, int[] exp, int[] out, AtomicBoolean stop) {
+        int bits = NaturalNumberLimbs.bitLength(exp, exp.length);
+        int width = 1;
+        while (width < MAX_WINDOW && bits > WINDOW_THRESHOLDS[width - 1]) {
+            width++;
+        }
+
+        /*
+         * Precompute odd powers base^1, base^3, ..., base^(2^width - 1)
+         */
+        int tableSize = 1 << (width - 1);
+        System.arraycopy(base, 0, this.window[0], 0, this.limbCount);
+        if (tableSize > 1) {
+            this.multiply(base, base, this.baseSquared);
+            for (int i = 1; i < tableSize; i++) {
+                this.multiply(this.window[i - 1], this.baseSquared,
+                        this.window[i]);
+            }
+        }
+
+        int[] acc = this.accumulator;
+        System.arraycopy(this.one, 0, acc, 0, this.limbCount);
+        int i = bits - 1;
+        boolean stopped = false;
+        while (i >= 0 && !stopped) {
+            if (!NaturalNumberLimbs.testBit(exp, i)) {
+                this.multiply(acc, acc, acc);
+                i--;
+            } else {
+                /*
+                 * Take the longest window of at most width bits that starts
+                 * at bit i and ends on a set bit
+                 */
+                int low = Math.max(i - width + 1, 0);
+                while (!NaturalNumberLimbs.testBit(exp, low)) {
+                    low++;
+                }
+                int value = 0;
+                for (int j = i; j >= low; j--) {
+                    value = (value << 1);
+                    if (NaturalNumberLimbs.testBit(exp, j)) {
+                        value |= 1;
+                    }
+                    this.multiply(acc, acc, acc);
+                }
+                this.multiply(acc, this.window[value >>> 1], acc);
+                i = low - 1;
+            }
+            stopped = stop != null && stop.get();
+        }
+        if (!stopped) {
+            System.arraycopy(acc, 0, out, 0, this.limbCount);
+        }
+        return !stopped;
+    }
+
+    /**
+     * Reports whether a is the Montgomery form of 1.
+     *
+     * @param a
+     *            element in Montgomery form
+     * @return true iff a represents 1
+     */
+    public boolean isOne(int[] a) {
+        return NaturalNumberLimbs.compare(a, this.one, this.limbCount) == 0;
+    }
+
+    /**
+     * Reports whether a is the Montgomery form of m - 1.
+     *
+     * @param a
+     *            element in Montgomery form
+     * @return true iff a represents m - 1
+     */
+    public boolean isMinusOne(int[] a) {
+        return NaturalNumberLimbs.compare(a, this.minusOne,
+                this.limbCount) == 0;
+    }
+
+    /**
+     * Sets out to the Montgomery form of n mod m.
+     *
+     * @param n
+     *            number to convert
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void load(NaturalNumber n, int[] out) {
+        int[] limbs = NaturalNumberLimbs.toLimbs(n, 1);
+        this.load(limbs, limbs.length, out);
+    }
+
+    /**
+     * Sets out to the Montgomery form of a mod m, for a limb array a of any
+     * length, without a {@code NaturalNumber} division: a is read from the top
+     * in chunks of limbCount - 1 limbs, each already smaller than m, and
+     * folded in by Horner's rule.
+     *
+     * @param a
+     *            limbs to convert, least significant first
+     * @param length
+     *            number of limbs of a to read
+     * @param out
+     *            destination element, not a
+     * @replaces out
+     */
+    void load(int[] a, int length, int[] out) {
+        final int k = this.limbCount;
+        int len = NaturalNumberLimbs.significantLength(a, length);
+        int[] digit = new int[k];
+        if (len < k || (len == k
+                && NaturalNumberLimbs.compare(a, this.modulus, k) < 0)) {
+            System.arraycopy(a, 0, digit, 0, len);
+            this.multiply(digit, this.rSquared, out);
+        } else if (k == 1) {
+            long m = this.modulus[0] & NaturalNumberLimbs.MASK;
+            long rem = 0;
+            for (int i = len - 1; i >= 0; i--) {
+                long cur = (rem << NaturalNumberLimbs.LIMB_BITS)
+                        | (a[i] & NaturalNumberLimbs.MASK);
+                rem = Long.remainderUnsigned(cur, m);
+            }
+            digit[0] = (int) rem;
+            this.multiply(digit, this.rSquared, out);
+        } else {
+            final int chunk = k - 1;
+            Arrays.fill(out, 0);
+            for (int i = (len - 1) / chunk; i >= 0; i--) {
+                this.multiply(out, this.chunkRadix, out);
+                int from = i * chunk;
+                Arrays.fill(digit, 0);
+                System.arraycopy(a, from, digit, 0,
+                        Math.min(chunk, len - from));
+                this.multiply(digit, this.rSquared, digit);
+                this.add(out, digit, out);
+            }
+        }
+    }
+
+    /**
+     * Sets out to the Montgomery form of v mod m, for a small signed v.
+     *
+     * @param v
+     *            value to convert
+     * @param out
+     *            destination element
+     * @replaces out
+     */
+    public void load(int v, int[] out) {
+        long magnitude = Math.abs((long) v);
+        if (this.limbCount == 1) {
+            magnitude %= this.modulus[0] & NaturalNumberLimbs.MASK;
+        }
+        int[] limbs = this.newElement();
+        limbs[0] = (int) magnitude;
+        this.multiply(limbs, this.rSquared, out);
+        if (v < 0) {
+            this.subtract(this.newElement(), out, out);
+        }
+    }
+
+    /**
+     * Sets n to the value represented by element a.
+     *
+     * @param a
+     *            element in Montgomery form
+     * @param n
+     *            the number to set
+     * @replaces n
+     */
+    public void store(int[] a, NaturalNumber n) {
+        int[] plain = this.newElement();
+        this.store(a, plain);
+        NaturalNumberLimbs.fromLimbs(plain, this.limbCount, n);
+    }
+
+    /**
+     * Sets out to the limbs of the value represented by element a. The output
+     * may be the same array as the input.
+     *
+     * @param a
+     *            element in Montgomery form
+     * @param out
+     *            destination limbs
+     * @replaces out
+     */
+    void store(int[] a, int[] out) {
+        int[] plainOne = this.newElement();
+        plainOne[0] = 1;
+        this.multiply(a, plainOne, out);
+    }
+
+    /**
+     * Updates n to its p-th power modulo the modulus of this context.
+     *
+     * @param n
+     *            number to be raised to a power
+     * @param p
+     *            the power
+     * @updates n
+     * @ensures n = #n ^ (p) mod m
+     */
+    public void powerMod(NaturalNumber n, NaturalNumber p) {
+        int[] x = this.newElement();
+        this.load(n, x);
+        this.power(x, NaturalNumberLimbs.toLimbs(p, 1), x);
+        this.store(x, n);
+    }
+}
@@ -0,0 +1,324 @@
+import components.naturalnumber.NaturalNumber;
+
+/**
+ * Conversions between {@code NaturalNumber} and little-endian arrays of
+ * unsigned 32-bit limbs, plus the few in-place limb operations shared by the
+ * fixed-width arithmetic in this project.
+ *
+ * @author Lucas Xie
+ */
+final class NaturalNumberLimbs {
+
+    /**
+     * Private constructor so this utility class cannot be instantiated.
+     */
+    private NaturalNumberLimbs() {
+    }
+
+    /**
+     * Mask selecting the unsigned value of a limb widened to {@code long}.
+     */
+    static final long MASK = 0xFFFFFFFFL;
+
+    /**
+     * Number of bits per limb.
+     */
+    static final int LIMB_BITS = 32;
+
+    /**
+     * Base-2 logarithm of {@link #LIMB_BITS}, for converting bit indices to
+     * limb indices.
+     */
+    static final int LOG_LIMB_BITS = 5;
+
+    /**
+     * Largest power of ten that fits in a limb, used as the radix when
+     * converting to and from decimal.
+     */
+    private static final int CHUNK = 1_000_000_000;
+
+    /**
+     * Number of decimal digits in {@link #CHUNK}.
+     */
+    private static final int CHUNK_DIGITS = 9;
+
+    /**
+     * Numerator of an upper bound on log2(10) (3402 / 1024 > 3.3219).
+     */
+    private static final int LOG2_TEN_NUMERATOR = 3402;
+
+    /**
+     * Denominator of an upper bound on log2(10).
+     */
+    private static final int LOG2_TEN_DENOMINATOR = 1024;
+
+    /**
+     * Minimum number of bits consumed by each decimal chunk (10^9 > 2^29).
+     */
+    private static final int BITS_PER_CHUNK = 29;
+
+    /**
+     * Returns the limbs of n, least significant first, in an array of at least
+     * {@code minLength} entries.
+     *
+     * @param n
+     *            the number to convert
+     * @param minLength
+     *            minimum length of the returned array
+     * @return limbs of n
+     * @ensures <pre>
+     * [toLimbs is a zero-padded little-endian limb array whose value is n]
+     * </pre>
+     */
+    static int[] toLimbs(NaturalNumber n, int minLength) {
+        String digits = n.toString();
+        int length = digits.length() * LOG2_TEN_NUMERATOR
+                / LOG2_TEN_DENOMINATOR / LIMB_BITS + 1;
+        int[] a = new int[Math.max(length, minLength)];
+
+        int end = digits.length() % CHUNK_DIGITS;
+        if (end == 0) {
+            end = CHUNK_DIGITS;
+        }
+        int start = 0;
+        while (start < digits.length()) {
+            int chunk = Integer.parseInt(digits.substring(start, end));
+            multiplyAdd(a, CHUNK, chunk);
+            start = end;
+            end += CHUNK_DIGITS;
+        }
+        return a;
+    }
+
+    /**
+     * Sets n to the value of the first {@code length} limbs of a.
+     *
+     * @param a
+     *            limbs, least significant first
+     * @param length
+     *            number of limbs of a to read
+     * @param n
+     *            the number to set
+     * @replaces n
+     * @ensures n = [value of a[0, length)]
+     */
+    static void fromLimbs(int[] a, int length, NaturalNumber n) {
+        int len = significantLength(a, length);
+        if (len == 0) {
+            n.clear();
+        } else {
+            int[] rest = new int[len];
+            System.arraycopy(a, 0, rest, 0, len);
+            int[] chunks = new int[len * LIMB_BITS / BITS_PER_CHUNK + 1];
+            int chunkCount = 0;
+            while (len > 0) {
+                chunks[chunkCount] = divideInPlace(rest, len, CHUNK);
+                chunkCount++;
+                len = significantLength(rest, len);
+            }
+
+            StringBuilder digits = new StringBuilder(
+                    chunkCount * CHUNK_DIGITS);
+            digits.append(chunks[chunkCount - 1]);
+            for (int i = chunkCount - 2; i >= 0; i--) {
+                String chunk = Integer.toString(chunks[i]);
+                for (int pad = chunk.length(); pad < CHUNK_DIGITS; pad++) {
+                    digits.append('0');
+                }
+                digits.append(chunk);
+            }
+            n.setFromString(digits.toString());
+        }
+    }
+
+    /**
+     * Returns the number of limbs of a[0, length) up to and including the
+     * most significant non-zero limb.
+     *
+     * @param a
+     *            limbs, least significant first
+     * @param length
+     *            number of limbs of a to consider
+     * @return significant length of a[0, length)
+     */
+    static int significantLength(int[] a, int length) {
+        int len = length;
+        while (len > 0 && a[len - 1] == 0) {
+            len--;
+        }
+        return len;
+    }
+
+    /**
+     * Returns the number of bits of a[0, length), ignoring leading zeros.
+     *
+     * @param a
+     *            limbs, least significant first
+     * @param length
+     *            number of limbs of a to consider
+     * @return bit length of a[0, length)
+     */
+    static int bitLength(int[] a, int length) {
+        int len = significantLength(a, length);
+        int bits = 0;
+        if (len > 0) {
+            bits = (len - 1) * LIMB_BITS + LIMB_BITS
+                    - Integer.numberOfLeadingZeros(a[len - 1]);
+        }
+        return bits;
+    }
+
+    /**
+     * Reports whether bit i of a is set.
+     *
+     * @param a
+     *            limbs, least significant first
+     * @param i
+     *            bit index
+     * @return true iff bit i of a is 1
+     * @requires 0 <= i < |a| * 32
+     */
+    static boolean testBit(int[] a, int i) {
+        return ((a[i >>> LOG_LIMB_BITS] >>> i) & 1) != 0;
+    }
+
+    /**
+     * Compares a[0, length) with b[0, length) as unsigned numbers.
+     *
+     * @param a
+     *            one number
+     * @param b
+     *            the other number
+     * @param length
+     *            number of limbs to compare
+     * @return negative, zero, or positive as a is less than, equal to, or
+     *         greater than b
+     */
+    static int compare(int[] a, int[] b, int length) {
+        int result = 0;
+        for (int i = length - 1; i >= 0 && result == 0; i--) {
+            result = Integer.compareUnsigned(a[i], b[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Subtracts b[0, length) from a[0, length) in place.
+     *
+     * @param a
+     *            minuend, replaced by the difference
+     * @param b
+     *            subtrahend
+     * @param length
+     *            number of limbs to subtract
+     * @return the outgoing borrow (0 or 1)
+     * @updates a
+     */
+    static int subtract(int[] a, int[] b, int length) {
+        long borrow = 0;
+        for (int i = 0; i < length; i++) {
+            long diff = (a[i] & MASK) - (b[i] & MASK) - borrow;
+            a[i] = (int) diff;
+            borrow = (diff >>> (LIMB_BITS * 2 - 1));
+        }
+        return (int) borrow;
+    }
+
+    /**
+     * Adds the product a[0, aLength) * b[0, bLength) to acc.
+     *
+     * @param a
+     *            one factor
+     * @param aLength
+     *            number of limbs of a to read
+     * @param b
+     *            the other factor
+     * @param bLength
+     *            number of limbs of b to read
+     * @param acc
+     *            accumulator
+     * @updates acc
+     * @requires <pre>
+     * [acc has room for #acc + a * b, and at least aLength + bLength limbs]
+     * </pre>
+     */
+    static void multiplyAccumulate(int[] a, int aLength, int[] b,
+            int bLength, int[] acc) {
+        for (int i = 0; i < aLength; i++) {
+            long ai = a[i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < bLength; j++) {
+                long t = ai * (b[j] & MASK) + (acc[i + j] & MASK) + carry;
+                acc[i + j] = (int) t;
+                carry = t >>> LIMB_BITS;
+            }
+            for (int k = i + bLength; carry != 0; k++) {
+                long t = (acc[k] & MASK) + carry;
+                acc[k] = (int) t;
+                carry = t >>> LIMB_BITS;
+            }
+        }
+    }
+
+    /**
+     * Replaces a with a * multiplier + addend, discarding any carry out of the
+     * last limb.
+     *
+     * @param a
+     *            limbs, least significant first
+     * @param multiplier
+     *            non-negative small multiplier
+     * @param addend
+     *            non-negative small addend
+     * @updates a
+     */
+    static void multiplyAdd(int[] a, int multiplier, int addend) {
+        long carry = addend;
+        for (int i = 0; i < a.length; i++) {
+            long product = (a[i] & MASK) * multiplier + carry;
+            a[i] = (int) product;
+            carry = product >>> LIMB_BITS;
+        }
+    }
+
+    /**
+     * Returns a[0, length) mod divisor without modifying a.
+     *
+     * @param a
+     *            dividend
+     * @param length
+     *            number of limbs of a to read
+     * @param divisor
+     *            positive small divisor
+     * @return a mod divisor
+     */
+    static int remainder(int[] a, int length, int divisor) {
+        long rem = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            rem = ((rem << LIMB_BITS) | (a[i] & MASK)) % divisor;
+        }
+        return (int) rem;
+    }
+
+    /**
+     * Divides a[0, length) by divisor in place and returns the remainder.
+     *
+     * @param a
+     *            dividend, replaced by the quotient
+     * @param length
+     *            number of limbs of a to divide
+     * @param divisor
+     *            positive small divisor
+     * @return a mod divisor
+     * @updates a
+     */
+    static int divideInPlace(int[] a, int length, int divisor) {
+        long rem = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            long cur = (rem << LIMB_BITS) | (a[i] & MASK);
+            a[i] = (int) (cur / divisor);
+            rem = cur % divisor;
+        }
+        return (int) rem;
+    }
+}
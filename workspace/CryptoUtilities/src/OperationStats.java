@@ -0,0 +1,546 @@
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Operation counters for the hot paths of {@code CryptoUtilities}:
+ * multiplications, divisions, recursion depth, rejection retries and
+ * {@code NaturalNumber} instances created.
+ *
+ * <p>
+ * Counting is switched on for the life of the JVM with
+ * {@code -Dcryptoutilities.stats=true}. The switch is read into a
+ * {@code static final} field, so when it is off every counting call is a
+ * constant-false test and a read of the flag tests switch counting on with,
+ * a predictable branch that costs next to nothing. When it is on, counts go
+ * to plain fields of a per-thread tally; each instrumented operation
+ * ({@code powerMod}, {@code isWitnessToCompositeness}, {@code randomNumber},
+ * {@code reduceToGCD}) runs in a scope that, when it ends, adds what it
+ * counted (including nested operations) to the totals for its name and
+ * commits a {@code CryptoUtilities.Operation} JFR event, so a flight
+ * recording shows the counts of every slow call next to its duration.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class OperationStats {
+
+    /**
+     * System property that switches counting on.
+     */
+    public static final String PROPERTY = "cryptoutilities.stats";
+
+    /**
+     * Whether counting is on; fixed at class initialization.
+     */
+    static final boolean ENABLED = Boolean.getBoolean(PROPERTY);
+
+    /**
+     * Whether tests have switched counting on.
+     */
+    private static boolean enabledForTests;
+
+    /**
+     * Counts made so far on one thread.
+     */
+    private static final class Tally {
+
+        /**
+         * Multi-limb multiplications.
+         */
+        private long multiplications;
+
+        /**
+         * Divisions (including Euclid quotient steps).
+         */
+        private long divisions;
+
+        /**
+         * Rejection-sampling retries.
+         */
+        private long retries;
+
+        /**
+         * NaturalNumber instances created.
+         */
+        private long naturalNumbers;
+
+        /**
+         * Current recursion depth.
+         */
+        private int depth;
+
+        /**
+         * Largest recursion depth since the innermost open scope began.
+         */
+        private int maxDepth;
+    }
+
+    /**
+     * Totals for one operation name, across all threads.
+     */
+    private static final class Totals {
+
+        /**
+         * Completed calls.
+         */
+        private final LongAdder calls = new LongAdder();
+
+        /**
+         * Multi-limb multiplications.
+         */
+        private final LongAdder multiplications = new LongAdder();
+
+        /**
+         * Divisions.
+         */
+        private final LongAdder divisions = new LongAdder();
+
+        /**
+         * Rejection-sampling retries.
+         */
+        private final LongAdder retries = new LongAdder();
+
+        /**
+         * NaturalNumber instances created.
+         */
+        private final LongAdder naturalNumbers = new LongAdder();
+
+        /**
+         * Largest recursion depth reached by one call.
+         */
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max,
+                0);
+    }
+
+    /**
+     * JFR event committed at the end of every instrumented operation.
+     */
+    @Name("CryptoUtilities.Operation")
+    @Label("CryptoUtilities Operation")
+    @Category("CryptoUtilities")
+    @Description("Work counted during one call of an instrumented method")
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+
+        /**
+         * Name of the operation.
+         */
+        @Label("Operation")
+        private String operation;
+
+        /**
+         * Multi-limb multiplications.
+         */
+        @Label("Multiplications")
+        private long multiplications;
+
+        /**
+         * Divisions.
+         */
+        @Label("Divisions")
+        private long divisions;
+
+        /**
+         * Largest recursion depth.
+         */
+        @Label("Max Recursion Depth")
+        private int maxRecursionDepth;
+
+        /**
+         * Rejection-sampling retries.
+         */
+        @Label("Rejection Retries")
+        private long rejectionRetries;
+
+        /**
+         * NaturalNumber instances created.
+         */
+        @Label("NaturalNumbers Created")
+        private long naturalNumbersCreated;
+    }
+
+    /**
+     * One instrumented call in progress on the current thread.
+     */
+    static final class Scope {
+
+        /**
+         * Name of the operation.
+         */
+        private final String operation;
+
+        /**
+         * Tally of the thread running the operation.
+         */
+        private final Tally tally;
+
+        /**
+         * Multiplications counted on the thread when the scope began.
+         */
+        private final long multiplications;
+
+        /**
+         * Divisions counted on the thread when the scope began.
+         */
+        private final long divisions;
+
+        /**
+         * Retries counted on the thread when the scope began.
+         */
+        private final long retries;
+
+        /**
+         * NaturalNumber instances counted on the thread when the scope began.
+         */
+        private final long naturalNumbers;
+
+        /**
+         * Recursion depth when the scope began.
+         */
+        private final int depth;
+
+        /**
+         * Largest depth of the enclosing scope when this one began.
+         */
+        private final int outerMaxDepth;
+
+        /**
+         * The event, timed from the start of the scope.
+         */
+        private final OperationEvent event = new OperationEvent();
+
+        /**
+         * Opens a scope on tally.
+         *
+         * @param operation
+         *            name of the operation
+         * @param tally
+         *            tally of the current thread
+         */
+        private Scope(String operation, Tally tally) {
+            this.operation = operation;
+            this.tally = tally;
+            this.multiplications = tally.multiplications;
+            this.divisions = tally.divisions;
+            this.retries = tally.retries;
+            this.naturalNumbers = tally.naturalNumbers;
+            this.depth = tally.depth;
+            this.outerMaxDepth = tally.maxDepth;
+            tally.maxDepth = tally.depth;
+            this.event.begin();
+        }
+    }
+
+    /**
+     * Per-thread tallies.
+     */
+    private static final ThreadLocal<Tally> TALLY = ThreadLocal
+            .withInitial(Tally::new);
+
+    /**
+     * Totals by operation name.
+     */
+    private static final ConcurrentMap<String, Totals> TOTALS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * No instances.
+     */
+    private OperationStats() {
+    }
+
+    /**
+     * Reports whether counting is on.
+     *
+     * @return true iff the JVM was started with counting on, or tests have
+     *         switched it on
+     */
+    public static boolean isEnabled() {
+        return ENABLED || enabledForTests;
+    }
+
+    /**
+     * Switches counting on or off for tests, whatever the system property.
+     * Scopes must not be open on any thread when it changes, and threads
+     * other than the caller's may not see the change.
+     *
+     * @param on
+     *            whether to count
+     */
+    static void setEnabledForTests(boolean on) {
+        enabledForTests = on;
+    }
+
+    /**
+     * Starts counting a call of the named operation on the current thread.
+     *
+     * @param operation
+     *            name of the operation
+     * @return the scope to pass to {@link #end(Scope)}, or null when counting
+     *         is off
+     */
+    static Scope begin(String operation) {
+        Scope scope = null;
+        if (isEnabled()) {
+            scope = new Scope(operation, TALLY.get());
+        }
+        return scope;
+    }
+
+    /**
+     * Ends a scope started by {@link #begin(String)}, adding its counts to
+     * the totals for its operation and committing its JFR event.
+     *
+     * @param scope
+     *            the scope, or null when counting was off when it began
+     */
+    static void end(Scope scope) {
+        if (scope != null) {
+            Tally tally = scope.tally;
+            long multiplications = tally.multiplications
+                    - scope.multiplications;
+            long divisions = tally.divisions - scope.divisions;
+            long retries = tally.retries - scope.retries;
+            long naturalNumbers = tally.naturalNumbers - scope.naturalNumbers;
+            int maxDepth = tally.maxDepth - scope.depth;
+            tally.maxDepth = Math.max(scope.outerMaxDepth, tally.maxDepth);
+
+            Totals totals = TOTALS.computeIfAbsent(scope.operation,
+                    name -> new Totals());
+            totals.calls.increment();
+            totals.multiplications.add(multiplications);
+            totals.divisions.add(divisions);
+            totals.retries.add(retries);
+            totals.naturalNumbers.add(naturalNumbers);
+            totals.maxDepth.accumulate(maxDepth);
+
+            OperationEvent event = scope.event;
+            event.end();
+            if (event.shouldCommit()) {
+                event.operation = scope.operation;
+                event.multiplications = multiplications;
+                event.divisions = divisions;
+                event.maxRecursionDepth = maxDepth;
+                event.rejectionRetries = retries;
+                event.naturalNumbersCreated = naturalNumbers;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Counts k multi-limb multiplications.
+     *
+     * @param k
+     *            number of multiplications
+     */
+    static void countMultiplications(int k) {
+        if (isEnabled()) {
+            TALLY.get().multiplications += k;
+        }
+    }
+
+    /**
+     * Counts k divisions.
+     *
+     * @param k
+     *            number of divisions
+     */
+    static void countDivisions(int k) {
+        if (isEnabled()) {
+            TALLY.get().divisions += k;
+        }
+    }
+
+    /**
+     * Counts k rejection-sampling retries.
+     *
+     * @param k
+     *            number of retries
+     */
+    static void countRetries(int k) {
+        if (isEnabled()) {
+            TALLY.get().retries += k;
+        }
+    }
+
+    /**
+     * Counts k NaturalNumber instances created.
+     *
+     * @param k
+     *            number of instances
+     */
+    static void countNaturalNumbers(int k) {
+        if (isEnabled()) {
+            TALLY.get().naturalNumbers += k;
+        }
+    }
+
+    /**
+     * Records entry into one more level of recursion.
+     */
+    static void enterRecursion() {
+        if (isEnabled()) {
+            Tally tally = TALLY.get();
+            tally.depth++;
+            tally.maxDepth = Math.max(tally.maxDepth, tally.depth);
+        }
+    }
+
+    /**
+     * Records return from one level of recursion.
+     */
+    static void exitRecursion() {
+        if (isEnabled()) {
+            TALLY.get().depth--;
+        }
+    }
+
+    /**
+     * Totals for one operation at the time of a {@link #snapshot()}.
+     */
+    public static final class Snapshot {
+
+        /**
+         * Completed calls.
+         */
+        private final long calls;
+
+        /**
+         * Multi-limb multiplications.
+         */
+        private final long multiplications;
+
+        /**
+         * Divisions.
+         */
+        private final long divisions;
+
+        /**
+         * Largest recursion depth reached by one call.
+         */
+        private final long maxRecursionDepth;
+
+        /**
+         * Rejection-sampling retries.
+         */
+        private final long rejectionRetries;
+
+        /**
+         * NaturalNumber instances created.
+         */
+        private final long naturalNumbersCreated;
+
+        /**
+         * Reads the current values of totals.
+         *
+         * @param totals
+         *            totals to read
+         */
+        private Snapshot(Totals totals) {
+            this.calls = totals.calls.sum();
+            this.multiplications = totals.multiplications.sum();
+            this.divisions = totals.divisions.sum();
+            this.maxRecursionDepth = totals.maxDepth.get();
+            this.rejectionRetries = totals.retries.sum();
+            this.naturalNumbersCreated = totals.naturalNumbers.sum();
+        }
+
+        /**
+         * Returns the number of completed calls.
+         *
+         * @return calls
+         */
+        public long calls() {
+            return this.calls;
+        }
+
+        /**
+         * Returns the number of multi-limb multiplications.
+         *
+         * @return multiplications
+         */
+        public long multiplications() {
+            return this.multiplications;
+        }
+
+        /**
+         * Returns the number of divisions, counting each Euclid quotient.
+         *
+         * @return divisions
+         */
+        public long divisions() {
+            return this.divisions;
+        }
+
+        /**
+         * Returns the largest recursion depth reached by one call.
+         *
+         * @return max recursion depth
+         */
+        public long maxRecursionDepth() {
+            return this.maxRecursionDepth;
+        }
+
+        /**
+         * Returns the number of rejection-sampling retries.
+         *
+         * @return retries
+         */
+        public long rejectionRetries() {
+            return this.rejectionRetries;
+        }
+
+        /**
+         * Returns the number of NaturalNumber instances created.
+         *
+         * @return instances created
+         */
+        public long naturalNumbersCreated() {
+            return this.naturalNumbersCreated;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + this.calls + " multiplications="
+                    + this.multiplications + " divisions=" + this.divisions
+                    + " maxRecursionDepth=" + this.maxRecursionDepth
+                    + " rejectionRetries=" + this.rejectionRetries
+                    + " naturalNumbersCreated=" + this.naturalNumbersCreated;
+        }
+    }
+
+    /**
+     * Returns the totals counted so far, by operation name; counts of nested
+     * operations are included in the operations that called them. Empty when
+     * counting is off.
+     *
+     * @return unmodifiable map from operation name to totals
+     */
+    public static Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Totals> e : TOTALS.entrySet()) {
+            snapshot.put(e.getKey(), new Snapshot(e.getValue()));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Discards the totals counted so far.
+     */
+    public static void reset() {
+        TOTALS.clear();
+    }
+}
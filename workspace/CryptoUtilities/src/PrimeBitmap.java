@@ -0,0 +1,283 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Read-only, memory-mapped table of the primes below some limit of at most
+ * 2^32, answering primality queries with a single bit test.
+ *
+ * <p>
+ * The table stores one bit per odd number: bit (i mod 8) of byte (i / 8) is 1
+ * iff 2i + 1 is prime, so [0, 2^32) takes 256 MiB. It is built once by a
+ * segmented sieve whose segments are sieved concurrently and written to the
+ * file at their own offsets, and is then mapped read-only; every JVM on the
+ * host that maps the same file shares its pages through the page cache. Reads
+ * use absolute positions only, so one bitmap may be queried from any number
+ * of threads.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class PrimeBitmap {
+
+    /**
+     * Largest supported limit; odd primes below 2^16 sieve every number below
+     * it.
+     */
+    public static final long MAX_LIMIT = 1L << Integer.SIZE;
+
+    /**
+     * Exclusive upper bound on the sieving primes.
+     */
+    private static final int SIEVING_LIMIT = 1 << (Integer.SIZE / 2);
+
+    /**
+     * Number of odd numbers covered by one segment (32 KiB of bits).
+     */
+    private static final int SEGMENT_BITS = 1 << 18;
+
+    /**
+     * Number of concurrent sieving tasks; each sieves every
+     * {@code STRIPES}-th segment.
+     */
+    private static final int STRIPES = 64;
+
+    /**
+     * Number of numbers, odd and even, per byte of the table.
+     */
+    private static final int NUMBERS_PER_BYTE = 16;
+
+    /**
+     * Bits per byte.
+     */
+    private static final int BYTE_BITS = 8;
+
+    /**
+     * Base-2 logarithm of {@link #BYTE_BITS}.
+     */
+    private static final int LOG_BYTE_BITS = 3;
+
+    /**
+     * The mapped table.
+     */
+    private final MappedByteBuffer bits;
+
+    /**
+     * Exclusive upper bound on the numbers covered.
+     */
+    private final long limit;
+
+    /**
+     * Constructs a bitmap over a mapped table.
+     *
+     * @param bits
+     *            the mapped table
+     * @param limit
+     *            exclusive upper bound on the numbers covered
+     */
+    private PrimeBitmap(MappedByteBuffer bits, long limit) {
+        this.bits = bits;
+        this.limit = limit;
+    }
+
+    /**
+     * Maps an existing table file read-only.
+     *
+     * @param file
+     *            table file written by {@link #build}
+     * @return bitmap over file
+     * @throws IOException
+     *             if file cannot be mapped or does not hold a table
+     */
+    public static PrimeBitmap open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long limit = size * NUMBERS_PER_BYTE;
+            if (size == 0 || limit > MAX_LIMIT
+                    || limit % (2L * SEGMENT_BITS) != 0) {
+                throw new IOException("Not a prime bitmap: " + file);
+            }
+            /*
+             * The mapping stays valid after the channel is closed
+             */
+            return new PrimeBitmap(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, size),
+                    limit);
+        }
+    }
+
+    /**
+     * Writes the table of the primes below limit to file, replacing it
+     * atomically, with segments sieved as tasks on executor.
+     *
+     * @param file
+     *            destination file
+     * @param limit
+     *            exclusive upper bound on the numbers covered
+     * @param executor
+     *            runs the sieving tasks
+     * @throws IOException
+     *             if the table cannot be written
+     * @requires <pre>
+     * 0 < limit <= MAX_LIMIT  and  limit is a multiple of 2^19
+     * </pre>
+     */
+    public static void build(Path file, long limit, ExecutorService executor)
+            throws IOException {
+        assert 0 < limit && limit <= MAX_LIMIT
+                : "Violation of: 0 < limit <= MAX_LIMIT";
+        assert limit % (2L * SEGMENT_BITS) == 0
+                : "Violation of: limit is a multiple of 2^19";
+
+        int[] primes = CandidateSieve.oddPrimesBelow(SIEVING_LIMIT);
+        int segments = (int) (limit / (2L * SEGMENT_BITS));
+        Path partial = file.resolveSibling(file.getFileName() + ".partial");
+
+        try (FileChannel channel = FileChannel.open(partial,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                futures.add(executor.submit(
+                        sieveStripe(stripe, segments, primes, channel)));
+            }
+            try {
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+            }
+            channel.force(false);
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns a task that sieves segments stripe, stripe + STRIPES, ... and
+     * writes each one to channel at its own offset.
+     *
+     * @param stripe
+     *            first segment
+     * @param segments
+     *            total number of segments
+     * @param primes
+     *            odd sieving primes
+     * @param channel
+     *            destination, shared by all tasks
+     * @return the task
+     */
+    private static Callable<Void> sieveStripe(int stripe, int segments,
+            int[] primes, FileChannel channel) {
+        return () -> {
+            byte[] segment = new byte[SEGMENT_BITS / BYTE_BITS];
+            ByteBuffer buffer = ByteBuffer.wrap(segment);
+            for (int s = stripe; s < segments; s += STRIPES) {
+                long first = (long) s * SEGMENT_BITS;
+                sieveSegment(first, primes, segment);
+                buffer.clear();
+                long position = first / BYTE_BITS;
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Sets bit j of segment iff 2 * (first + j) + 1 is prime.
+     *
+     * @param first
+     *            index of the first odd number of the segment
+     * @param primes
+     *            odd primes up to the square root of the segment's end
+     * @param segment
+     *            bits of the segment
+     * @replaces segment
+     */
+    private static void sieveSegment(long first, int[] primes,
+            byte[] segment) {
+        Arrays.fill(segment, (byte) -1);
+        long low = 2 * first + 1;
+        long high = 2 * (first + SEGMENT_BITS);
+        if (first == 0) {
+            /*
+             * 1 is not prime
+             */
+            segment[0] &= ~1;
+        }
+        for (int k = 0; k < primes.length
+                && (long) primes[k] * primes[k] < high; k++) {
+            int p = primes[k];
+            long square = (long) p * p;
+            /*
+             * First odd multiple of p that is at least max(p^2, low); p itself
+             * and smaller multiples are left alone
+             */
+            long start = Math.max(square, (low + p - 1) / p * p);
+            if ((start & 1) == 0) {
+                start += p;
+            }
+            for (long j = (start - 1) / 2 - first; j < SEGMENT_BITS; j += p) {
+                segment[(int) (j >>> LOG_BYTE_BITS)] &= ~(1 << (j
+                        & (BYTE_BITS - 1)));
+            }
+        }
+    }
+
+    /**
+     * Returns the exclusive upper bound on the numbers this bitmap covers.
+     *
+     * @return limit of this
+     */
+    public long limit() {
+        return this.limit;
+    }
+
+    /**
+     * Reports whether n is a prime.
+     *
+     * @param n
+     *            number to be checked
+     * @return true iff n is a prime number
+     * @requires 0 <= n < limit()
+     * @ensures isPrime = [n is a prime number]
+     */
+    public boolean isPrime(long n) {
+        assert 0 <= n && n < this.limit : "Violation of: 0 <= n < limit()";
+        boolean isPrime;
+        if ((n & 1) == 0) {
+            isPrime = n == 2;
+        } else {
+            long i = n >>> 1;
+            isPrime = ((this.bits.get((int) (i >>> LOG_BYTE_BITS)) >>> (i
+                    & (BYTE_BITS - 1))) & 1) != 0;
+        }
+        return isPrime;
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import components.naturalnumber.NaturalNumber;
+
+/**
+ * Pool of pre-generated random likely primes, kept per bit length, so that key
+ * generation does not pay for {@code generateNextLikelyPrime} inline.
+ *
+ * <p>
+ * Each bit length has a bounded queue of primes. Whenever a queue falls below
+ * the low-water mark, a refill task is handed to the executor and generates
+ * primes with {@link CryptoUtilities#randomLikelyPrime(int,
+ * java.util.random.RandomGenerator)} until the queue is full again; at most
+ * one refill per bit length runs at a time. Handing out a prime is a queue
+ * poll; only when the queue is empty does the caller generate one inline
+ * (counted as a miss). All methods may be called from any thread.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class PrimePool {
+
+    /**
+     * Nanoseconds per second, for refill rates.
+     */
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    /**
+     * Primes kept, and refill bookkeeping, for one bit length.
+     */
+    private static final class Shelf {
+
+        /**
+         * Pre-generated primes.
+         */
+        private final BlockingQueue<NaturalNumber> primes;
+
+        /**
+         * Whether a refill task is scheduled or running.
+         */
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        /**
+         * Number of primes generated by refill tasks.
+         */
+        private final AtomicLong generated = new AtomicLong();
+
+        /**
+         * Total time spent by refill tasks generating primes.
+         */
+        private final AtomicLong refillNanos = new AtomicLong();
+
+        /**
+         * Number of requests that found the queue empty.
+         */
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Constructs an empty shelf.
+         *
+         * @param capacity
+         *            maximum number of primes kept
+         */
+        private Shelf(int capacity) {
+            this.primes = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+
+    /**
+     * Maximum number of primes kept per bit length.
+     */
+    private final int capacity;
+
+    /**
+     * Queue size below which a refill is started.
+     */
+    private final int lowWaterMark;
+
+    /**
+     * Runs the refill tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * Shelves by bit length, created on first use.
+     */
+    private final ConcurrentMap<Integer, Shelf> shelves =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty pool.
+     *
+     * @param capacity
+     *            maximum number of primes kept per bit length
+     * @param lowWaterMark
+     *            queue size below which a refill is started
+     * @param executor
+     *            runs the refill tasks, typically on background threads
+     * @requires 0 < lowWaterMark <= capacity
+     */
+    public PrimePool(int capacity, int lowWaterMark, Executor executor) {
+        assert 0 < lowWaterMark : "Violation of: 0 < lowWaterMark";
+        assert lowWaterMark <= capacity
+                : "Violation of: lowWaterMark <= capacity";
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the shelf for the given bit length, creating it if needed.
+     *
+     * @param bits
+     *            bit length
+     * @return shelf for bits
+     */
+    private Shelf shelf(int bits) {
+        return this.shelves.computeIfAbsent(bits,
+                b -> new Shelf(this.capacity));
+    }
+
+    /**
+     * Starts filling the queue for the given bit length in the background,
+     * unless a refill is already under way.
+     *
+     * @param bits
+     *            bit length
+     * @requires bits >= 2
+     */
+    public void warm(int bits) {
+        assert bits >= 2 : "Violation of: bits >= 2";
+        Shelf shelf = this.shelf(bits);
+        if (shelf.refilling.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(() -> this.refill(shelf, bits));
+            } catch (RejectedExecutionException e) {
+                /*
+                 * The executor is shut down; callers generate inline from now
+                 * on
+                 */
+                shelf.refilling.set(false);
+            }
+        }
+    }
+
+    /**
+     * Returns a random likely prime with exactly the given number of bits,
+     * taking it from the pool when one is available.
+     *
+     * @param bits
+     *            bit length of the prime
+     * @return random likely prime
+     * @requires bits >= 2
+     * @ensures <pre>
+     * 2^(bits-1) <= take < 2^bits  and
+     * [take is very likely a prime number]
+     * </pre>
+     */
+    public NaturalNumber take(int bits) {
+        assert bits >= 2 : "Violation of: bits >= 2";
+        Shelf shelf = this.shelf(bits);
+        NaturalNumber p = shelf.primes.poll();
+        if (shelf.primes.size() < this.lowWaterMark) {
+            this.warm(bits);
+        }
+        if (p == null) {
+            shelf.misses.incrementAndGet();
+            p = CryptoUtilities.randomLikelyPrime(bits, new SplittableRandom());
+        }
+        return p;
+    }
+
+    /**
+     * Refills shelf until it is full, then releases it; runs on the executor.
+     *
+     * @param shelf
+     *            shelf to refill
+     * @param bits
+     *            bit length of the primes on shelf
+     */
+    private void refill(Shelf shelf, int bits) {
+        SplittableRandom generator = new SplittableRandom();
+        try {
+            boolean full = false;
+            while (!full) {
+                long start = System.nanoTime();
+                NaturalNumber p = CryptoUtilities.randomLikelyPrime(bits,
+                        generator);
+                shelf.refillNanos.addAndGet(System.nanoTime() - start);
+                shelf.generated.incrementAndGet();
+                full = !shelf.primes.offer(p)
+                        || shelf.primes.remainingCapacity() == 0;
+            }
+        } finally {
+            /*
+             * Also after a failure, so a later take can start a new refill
+             */
+            shelf.refilling.set(false);
+        }
+
+        /*
+         * Primes taken after the last check but before the flag was cleared
+         * did not start a refill, so check once more
+         */
+        if (shelf.primes.size() < this.lowWaterMark) {
+            this.warm(bits);
+        }
+    }
+
+    /**
+     * Reports the number of primes currently pooled for the given bit length.
+     *
+     * @param bits
+     *            bit length
+     * @return pool depth for bits
+     */
+    public int depth(int bits) {
+        Shelf shelf = this.shelves.get(bits);
+        int depth = 0;
+        if (shelf != null) {
+            depth = shelf.primes.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Reports how many primes per second the refill tasks for the given bit
+     * length have generated, over the time they spent generating.
+     *
+     * @param bits
+     *            bit length
+     * @return refill rate for bits, or 0 if nothing has been generated yet
+     */
+    public double refillRate(int bits) {
+        Shelf shelf = this.shelves.get(bits);
+        double rate = 0;
+        if (shelf != null && shelf.refillNanos.get() > 0) {
+            rate = shelf.generated.get() * NANOS_PER_SECOND
+                    / shelf.refillNanos.get();
+        }
+        return rate;
+    }
+
+    /**
+     * Reports how many requests for the given bit length found the pool empty
+     * and generated their prime inline.
+     *
+     * @param bits
+     *            bit length
+     * @return number of misses for bits
+     */
+    public long misses(int bits) {
+        Shelf shelf = this.shelves.get(bits);
+        long misses = 0;
+        if (shelf != null) {
+            misses = shelf.misses.get();
+        }
+        return misses;
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import components.naturalnumber.NaturalNumber;
+import components.naturalnumber.NaturalNumber2;
+
+/**
+ * RSA private key in Chinese-remainder form, computing c^d mod p*q as two
+ * half-size exponentiations recombined with Garner's formula.
+ *
+ * <p>
+ * The key keeps p, q, dP = d mod (p - 1), dQ = d mod (q - 1) and qInv = q^-1
+ * mod p, plus a Montgomery context for each prime. Exponentiation cost grows
+ * with the cube of the size, so the two halves together cost about a quarter
+ * of one full-size {@code powerMod}, and they may run in parallel. The input
+ * is converted to limbs once and the result is assembled from limbs, so no
+ * {@code NaturalNumber} arithmetic is done per operation. Like
+ * {@link MontgomeryContext}, a key holds scratch storage and must not be used
+ * by more than one thread at a time.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class RsaPrivateKey {
+
+    /**
+     * The modulus p * q.
+     */
+    private final NaturalNumber modulus;
+
+    /**
+     * Limbs of the second prime factor q.
+     */
+    private final int[] q;
+
+    /**
+     * Limbs of d mod (p - 1).
+     */
+    private final int[] dP;
+
+    /**
+     * Limbs of d mod (q - 1).
+     */
+    private final int[] dQ;
+
+    /**
+     * q^-1 mod p, in Montgomery form for p.
+     */
+    private final int[] qInv;
+
+    /**
+     * Montgomery context for p.
+     */
+    private final MontgomeryContext pContext;
+
+    /**
+     * Montgomery context for q.
+     */
+    private final MontgomeryContext qContext;
+
+    /**
+     * Constructs the key with private exponent d for the modulus p * q.
+     *
+     * @param p
+     *            first prime factor
+     * @param q
+     *            second prime factor
+     * @param d
+     *            private exponent
+     * @requires p and q are distinct odd primes
+     */
+    public RsaPrivateKey(NaturalNumber p, NaturalNumber q, NaturalNumber d) {
+        assert !p.equals(q) : "Violation of: p and q are distinct";
+        this.modulus = new NaturalNumber2(p);
+        this.modulus.multiply(q);
+        this.pContext = new MontgomeryContext(p);
+        this.qContext = new MontgomeryContext(q);
+        this.q = NaturalNumberLimbs.toLimbs(q, this.qContext.limbCount());
+        this.dP = reducedExponent(d, p);
+        this.dQ = reducedExponent(d, q);
+
+        NaturalNumber inverse = new NaturalNumber2(q);
+        boolean invertible = CryptoUtilities.reduceToInverse(inverse, p);
+        assert invertible : "Violation of: p and q are distinct primes";
+        this.qInv = this.pContext.newElement();
+        this.pContext.load(inverse, this.qInv);
+    }
+
+    /**
+     * Returns the limbs of d mod (prime - 1), the exponent that gives the
+     * same result as d modulo prime (by Fermat's little theorem).
+     *
+     * @param d
+     *            private exponent
+     * @param prime
+     *            prime factor
+     * @return limbs of d mod (prime - 1)
+     */
+    private static int[] reducedExponent(NaturalNumber d, NaturalNumber prime) {
+        NaturalNumber primeDec = new NaturalNumber2(prime);
+        primeDec.decrement();
+        NaturalNumber remainder = new NaturalNumber2(d).divide(primeDec);
+        return NaturalNumberLimbs.toLimbs(remainder, 1);
+    }
+
+    /**
+     * Returns the modulus p * q.
+     *
+     * @return the modulus
+     */
+    public NaturalNumber modulus() {
+        return new NaturalNumber2(this.modulus);
+    }
+
+    /**
+     * Returns c^dP mod p, in Montgomery form for p.
+     *
+     * @param c
+     *            limbs of the input; not modified
+     * @return c^d mod p
+     */
+    private int[] pHalf(int[] c) {
+        int[] x = this.pContext.newElement();
+        this.pContext.load(c, c.length, x);
+        this.pContext.power(x, this.dP, x);
+        return x;
+    }
+
+    /**
+     * Returns the limbs of c^dQ mod q.
+     *
+     * @param c
+     *            limbs of the input; not modified
+     * @return c^d mod q
+     */
+    private int[] qHalf(int[] c) {
+        int[] y = this.qContext.newElement();
+        this.qContext.load(c, c.length, y);
+        this.qContext.power(y, this.dQ, y);
+        this.qContext.store(y, y);
+        return y;
+    }
+
+    /**
+     * Sets c to the number below p*q that is m1 mod p and m2 mod q, by
+     * Garner's formula: h = qInv * (m1 - m2) mod p, and c = m2 + h * q.
+     *
+     * @param c
+     *            the number to set
+     * @param m1
+     *            residue mod p, in Montgomery form for p; overwritten
+     * @param m2
+     *            limbs of the residue mod q
+     * @replaces c
+     */
+    private void recombine(NaturalNumber c, int[] m1, int[] m2) {
+        int[] h = this.pContext.newElement();
+        this.pContext.load(m2, m2.length, h);
+        this.pContext.subtract(m1, h, h);
+        this.pContext.multiply(h, this.qInv, h);
+        this.pContext.store(h, h);
+
+        int[] result = new int[h.length + this.q.length];
+        System.arraycopy(m2, 0, result, 0, m2.length);
+        NaturalNumberLimbs.multiplyAccumulate(h, h.length, this.q,
+                this.q.length, result);
+        NaturalNumberLimbs.fromLimbs(result, result.length, c);
+    }
+
+    /**
+     * Updates c to c^d mod p*q, computing both halves on the calling thread.
+     *
+     * @param c
+     *            message or ciphertext
+     * @updates c
+     * @requires c < p * q
+     * @ensures c = #c ^ (d) mod (p * q)
+     */
+    public void apply(NaturalNumber c) {
+        int[] limbs = NaturalNumberLimbs.toLimbs(c, 1);
+        int[] m1 = this.pHalf(limbs);
+        int[] m2 = this.qHalf(limbs);
+        this.recombine(c, m1, m2);
+    }
+
+    /**
+     * Updates c to c^d mod p*q, computing the q half on executor while the
+     * calling thread computes the p half.
+     *
+     * @param c
+     *            message or ciphertext
+     * @param executor
+     *            runs the q half
+     * @updates c
+     * @requires c < p * q
+     * @ensures c = #c ^ (d) mod (p * q)
+     */
+    public void apply(NaturalNumber c, ExecutorService executor) {
+        /*
+         * Both halves only read the limbs; each uses its own context
+         */
+        int[] limbs = NaturalNumberLimbs.toLimbs(c, 1);
+        Future<int[]> qFuture = executor.submit(() -> this.qHalf(limbs));
+        int[] m1 = this.pHalf(limbs);
+
+        int[] m2;
+        try {
+            m2 = qFuture.get();
+        } catch (InterruptedException e) {
+            qFuture.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        this.recombine(c, m1, m2);
+    }
+}
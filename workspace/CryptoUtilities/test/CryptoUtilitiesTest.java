@@ -1,17 +1,70 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.random.RandomGenerator;
+
 import org.junit.Test;
 
 import components.naturalnumber.NaturalNumber;
 import components.naturalnumber.NaturalNumber2;
+import components.sequence.Sequence;
+import components.sequence.Sequence1L;
 
 /**
  * Test fixture for testing CryptoUtilities implemented methods.
  */
 public class CryptoUtilitiesTest {
 
+    /**
+     * Tests randomNumber stays within a multi-limb bound and leaves it
+     * unchanged.
+     */
+    @Test
+    public void randomNumberTestMultiLimbRange() {
+        final int draws = 500;
+        final long seed = 7;
+        NaturalNumber n = new NaturalNumber2("1000000000000000000000000007");
+        SplittableRandom generator = new SplittableRandom(seed);
+
+        for (int i = 0; i < draws; i++) {
+            NaturalNumber r = CryptoUtilities.randomNumber(n, generator);
+            assertTrue(r.compareTo(n) <= 0);
+        }
+        assertEquals(n, new NaturalNumber2("1000000000000000000000000007"));
+    }
+
+    /**
+     * Tests randomNumber hits every value of a small interval about equally
+     * often.
+     */
+    @Test
+    public void randomNumberTestSmallUniform() {
+        final int top = 9;
+        final int draws = 10000;
+        final int expected = draws / (top + 1);
+        final int tolerance = expected / 5;
+        final long seed = 11;
+        NaturalNumber n = new NaturalNumber2(top);
+        SplittableRandom generator = new SplittableRandom(seed);
+
+        int[] counts = new int[top + 1];
+        for (int i = 0; i < draws; i++) {
+            counts[CryptoUtilities.randomNumber(n, generator).toInt()]++;
+        }
+        for (int count : counts) {
+            assertTrue(Math.abs(count - expected) < tolerance);
+        }
+    }
+
     /**
      * Tests reduceToGCD with large non-coprime values.
      */
@@ -82,6 +135,82 @@ public class CryptoUtilitiesTest {
         assertEquals(n2, new NaturalNumber2(0));
     }
 
+    /**
+     * Tests reduceToGCD with multi-limb values sharing the factor 2^127 - 1.
+     */
+    @Test
+    public void reduceToGCDTestMultiLimb() {
+        NaturalNumber n1 = new NaturalNumber2("1300080240648338469785798"
+                + "049654518577149626102099610004315064888209465");
+        NaturalNumber n2 = new NaturalNumber2("2663452730096260980449984"
+                + "9051216773419403512214124566822324530");
+
+        CryptoUtilities.reduceToGCD(n1, n2);
+
+        assertEquals(n1,
+                new NaturalNumber2("2552117751907038475975309555738261585905"));
+        assertEquals(n2, new NaturalNumber2(0));
+    }
+
+    /**
+     * Tests reduceToInverse with a small invertible value.
+     */
+    @Test
+    public void reduceToInverseTestSmall() {
+        NaturalNumber n = new NaturalNumber2(3);
+        NaturalNumber m = new NaturalNumber2(7);
+
+        boolean invertible = CryptoUtilities.reduceToInverse(n, m);
+
+        assertTrue(invertible);
+        assertEquals(n, new NaturalNumber2(5));
+        assertEquals(m, new NaturalNumber2(7));
+    }
+
+    /**
+     * Tests reduceToInverse with an RSA-style public exponent and totient.
+     */
+    @Test
+    public void reduceToInverseTestKeyGeneration() {
+        NaturalNumber n = new NaturalNumber2(65537);
+        NaturalNumber m = new NaturalNumber2("1053122916685571866979180"
+                + "27343388065396718691897889123547643641860");
+
+        boolean invertible = CryptoUtilities.reduceToInverse(n, m);
+
+        assertTrue(invertible);
+        assertEquals(n, new NaturalNumber2("5272443965907853354205087805"
+                + "6119532687363428290303798353933435053"));
+    }
+
+    /**
+     * Tests reduceToInverse with n > m, which is reduced first.
+     */
+    @Test
+    public void reduceToInverseTestLargerThanModulus() {
+        NaturalNumber n = new NaturalNumber2(31);
+        NaturalNumber m = new NaturalNumber2(10);
+
+        boolean invertible = CryptoUtilities.reduceToInverse(n, m);
+
+        assertTrue(invertible);
+        assertEquals(n, new NaturalNumber2(1));
+    }
+
+    /**
+     * Tests reduceToInverse with values that share a factor.
+     */
+    @Test
+    public void reduceToInverseTestNotInvertible() {
+        NaturalNumber n = new NaturalNumber2(42);
+        NaturalNumber m = new NaturalNumber2(90);
+
+        boolean invertible = CryptoUtilities.reduceToInverse(n, m);
+
+        assertFalse(invertible);
+        assertEquals(n, new NaturalNumber2(6));
+    }
+
     /**
      * Tests powerMod with routine values.
      */
@@ -138,6 +267,78 @@ public class CryptoUtilitiesTest {
         assertEquals(n1, new NaturalNumber2(10));
     }
 
+    /**
+     * Tests powerMod with multi-limb base, power and (odd) modulus.
+     */
+    @Test
+    public void powerModTestLarge() {
+        NaturalNumber n1 = new NaturalNumber2("123456789012345678901234567890");
+        NaturalNumber n2 = new NaturalNumber2("98765432109876543210");
+        NaturalNumber m = new NaturalNumber2(
+                "170141183460469231731687303715884105727");
+
+        CryptoUtilities.powerMod(n1, n2, m);
+
+        assertEquals(n1,
+                new NaturalNumber2("94100362589646508130024018693800009796"));
+    }
+
+    /**
+     * Tests powerMod with an even modulus.
+     */
+    @Test
+    public void powerModTestEvenModulus() {
+        NaturalNumber n1 = new NaturalNumber2(7);
+        NaturalNumber n2 = new NaturalNumber2(3);
+        NaturalNumber m = new NaturalNumber2(10);
+
+        CryptoUtilities.powerMod(n1, n2, m);
+
+        assertEquals(n1, new NaturalNumber2(3));
+    }
+
+    /**
+     * Tests MontgomeryContext reused across several exponentiations.
+     */
+    @Test
+    public void montgomeryContextTestReuse() {
+        MontgomeryContext context = new MontgomeryContext(
+                new NaturalNumber2(1000000007));
+        NaturalNumber n1 = new NaturalNumber2(12345);
+        NaturalNumber n2 = new NaturalNumber2(12345);
+
+        context.powerMod(n1, new NaturalNumber2("18446744073709551617"));
+        context.powerMod(n2, new NaturalNumber2(0));
+
+        assertEquals(n1, new NaturalNumber2(123256251));
+        assertEquals(n2, new NaturalNumber2(1));
+    }
+
+    /**
+     * Tests MontgomeryContext.power gives up without touching its output once
+     * its stop flag is set, and finishes while it is not.
+     */
+    @Test
+    public void montgomeryContextTestPowerStopped() {
+        MontgomeryContext context = new MontgomeryContext(
+                new NaturalNumber2(1000000007));
+        int[] x = context.newElement();
+        context.load(new NaturalNumber2(12345), x);
+        int[] exp = NaturalNumberLimbs.toLimbs(
+                new NaturalNumber2("18446744073709551617"), 1);
+        int[] out = context.newElement();
+        AtomicBoolean stop = new AtomicBoolean(true);
+
+        assertFalse(context.power(x, exp, out, stop));
+        assertArrayEquals(context.newElement(), out);
+
+        stop.set(false);
+        assertTrue(context.power(x, exp, out, stop));
+        NaturalNumber n = new NaturalNumber2();
+        context.store(out, n);
+        assertEquals(new NaturalNumber2(123256251), n);
+    }
+
     /**
      * Tests isEven with routine odd value.
      */
@@ -178,6 +379,42 @@ public class CryptoUtilitiesTest {
         assertFalse(CryptoUtilities.isEven(n));
     }
 
+    /**
+     * Tests remainder with small divisors of a multi-limb value, which is
+     * left unchanged.
+     */
+    @Test
+    public void remainderTestSmallDivisors() {
+        final int three = 3;
+        final int ten = 10;
+        final int fermat = 65537;
+        final int fermatResidue = 12601;
+        NaturalNumber n = new NaturalNumber2("1606938044258990275541962092341"
+                + "162602522202993782792835313721");
+
+        assertEquals(1, CryptoUtilities.remainder(n, three));
+        assertEquals(1, CryptoUtilities.remainder(n, ten));
+        assertEquals(fermatResidue, CryptoUtilities.remainder(n, fermat));
+        assertEquals(n, new NaturalNumber2("1606938044258990275541962092341"
+                + "162602522202993782792835313721"));
+    }
+
+    /**
+     * Tests remainder with the largest int divisor.
+     */
+    @Test
+    public void remainderTestMaxDivisor() {
+        final int residue = 28729;
+        NaturalNumber n = new NaturalNumber2("1606938044258990275541962092341"
+                + "162602522202993782792835313721");
+
+        assertEquals(residue, CryptoUtilities.remainder(n, Integer.MAX_VALUE));
+        assertEquals(n, new NaturalNumber2("1606938044258990275541962092341"
+                + "162602522202993782792835313721"));
+        assertEquals(0, CryptoUtilities.remainder(new NaturalNumber2(),
+                Integer.MAX_VALUE));
+    }
+
     /**
      * Tests isWitnessToComposite with routine values (composite).
      */
@@ -284,6 +521,95 @@ public class CryptoUtilitiesTest {
         assertTrue(CryptoUtilities.isPrime2(n));
     }
 
+    /**
+     * Tests isPrime2 with a prime spanning several limbs (2^127 - 1).
+     */
+    @Test
+    public void isPrime2TestMultiLimbPrime() {
+        NaturalNumber n = new NaturalNumber2(
+                "170141183460469231731687303715884105727");
+
+        assertTrue(CryptoUtilities.isPrime2(n));
+    }
+
+    /**
+     * Tests isPrime2 on an executor with a prime spanning several limbs.
+     */
+    @Test
+    public void isPrime2ExecutorTestMultiLimbPrime() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        NaturalNumber n = new NaturalNumber2(
+                "170141183460469231731687303715884105727");
+
+        boolean isPrime = CryptoUtilities.isPrime2(n, pool);
+        pool.shutdown();
+
+        assertTrue(isPrime);
+    }
+
+    /**
+     * Tests isPrime2 on an executor with a composite above the long range
+     * (2^64 + 1 = 274177 * 67280421310721).
+     */
+    @Test
+    public void isPrime2ExecutorTestComposite() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        NaturalNumber n = new NaturalNumber2("18446744073709551617");
+
+        boolean isPrime = CryptoUtilities.isPrime2(n, pool);
+        pool.shutdown();
+
+        assertFalse(isPrime);
+    }
+
+    /**
+     * Tests isPrimeBatch with a mix of small, long-range and multi-limb
+     * values, checking input order is kept and inputs are not modified.
+     */
+    @Test
+    public void isPrimeBatchTestMixed() {
+        Sequence<NaturalNumber> numbers = new Sequence1L<>();
+        numbers.add(0, new NaturalNumber2(2));
+        numbers.add(1, new NaturalNumber2(4));
+        numbers.add(2, new NaturalNumber2(97));
+        numbers.add(3, new NaturalNumber2(
+                "170141183460469231731687303715884105727"));
+        numbers.add(4, new NaturalNumber2("18446744073709551617"));
+        numbers.add(5, new NaturalNumber2(561));
+        Sequence<NaturalNumber> numbersCopy = new Sequence1L<>();
+        for (NaturalNumber n : numbers) {
+            numbersCopy.add(numbersCopy.length(), new NaturalNumber2(n));
+        }
+
+        boolean[] results = CryptoUtilities.isPrimeBatch(numbers);
+
+        assertArrayEquals(
+                new boolean[] {true, false, true, true, false, false},
+                results);
+        assertEquals(numbersCopy, numbers);
+    }
+
+    /**
+     * Tests isPrimeBatch with more entries than one fork-join leaf, on a
+     * dedicated pool.
+     */
+    @Test
+    public void isPrimeBatchTestSplit() {
+        final int count = 40;
+        Sequence<NaturalNumber> numbers = new Sequence1L<>();
+        boolean[] expected = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            numbers.add(i, new NaturalNumber2(i + 2));
+            expected[i] = CryptoUtilities.isPrime(i + 2);
+        }
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        boolean[] results = CryptoUtilities.isPrimeBatch(numbers, pool);
+        pool.shutdown();
+
+        assertArrayEquals(expected, results);
+    }
+
     /**
      * Tests generateNextLikelyPrime with n = 4 (largest manually-set value).
      */
@@ -319,6 +645,58 @@ public class CryptoUtilitiesTest {
         assertEquals(n, new NaturalNumber2(97));
     }
 
+    /**
+     * Tests generateNextLikelyPrime with an even value beyond the long fast
+     * path, so candidates come from the sieve.
+     */
+    @Test
+    public void generateNextLikelyPrimeTestSieved() {
+        NaturalNumber n = new NaturalNumber2("18446744073709551616");
+        CryptoUtilities.generateNextLikelyPrime(n);
+
+        assertEquals(n, new NaturalNumber2("18446744073709551629"));
+    }
+
+    /**
+     * Tests generateNextLikelyPrime with a 200-bit odd start.
+     */
+    @Test
+    public void generateNextLikelyPrimeTestSieveLarge() {
+        NaturalNumber n = new NaturalNumber2(
+                "1606938044258990275541962092341"
+                        + "162602522202993782792835313721");
+        CryptoUtilities.generateNextLikelyPrime(n);
+
+        assertEquals(n, new NaturalNumber2(
+                "1606938044258990275541962092341"
+                        + "162602522202993782792835313863"));
+    }
+
+    /**
+     * Tests CandidateSieve across several window slides: the number of odd
+     * candidates in [2^200 + 12345, 2^200 + 12345 + 65536) with no odd prime
+     * factor below 2^16 is 3270, the last at offset 65520.
+     */
+    @Test
+    public void candidateSieveTestSlides() {
+        CandidateSieve sieve = new CandidateSieve(new NaturalNumber2(
+                "1606938044258990275541962092341"
+                        + "162602522202993782792835313721"));
+        final int span = 65536;
+        int count = 0;
+        long last = -1;
+        long offset = sieve.nextSurvivor();
+        while (offset < span) {
+            assertTrue(offset > last);
+            count++;
+            last = offset;
+            offset = sieve.nextSurvivor();
+        }
+
+        assertEquals(3270, count);
+        assertEquals(65520, last);
+    }
+
     /**
      * Tests isPrime3 with a small prime value satisfying n ≤ 4 (manual).
      */
@@ -330,6 +708,53 @@ public class CryptoUtilitiesTest {
         assertTrue(CryptoUtilities.isPrime3(n, k));
     }
 
+    /**
+     * Tests isPrime4 with the Mersenne prime 2^127 - 1.
+     */
+    @Test
+    public void isPrime4TestMultiLimbPrime() {
+        NaturalNumber n = new NaturalNumber2(
+                "170141183460469231731687303715884105727");
+
+        assertTrue(CryptoUtilities.isPrime4(n));
+    }
+
+    /**
+     * Tests isPrime4 with a Carmichael number above 2^63 that is a strong
+     * pseudoprime to base 2, so only the Lucas test exposes it.
+     */
+    @Test
+    public void isPrime4TestStrongPseudoprimeBase2() {
+        NaturalNumber n = new NaturalNumber2("9275096661522257161");
+
+        assertFalse(CryptoUtilities.isPrime4(n));
+    }
+
+    /**
+     * Tests isPrime4 with the square of a prime, for which no Lucas parameter
+     * exists.
+     */
+    @Test
+    public void isPrime4TestSquare() {
+        NaturalNumber n = new NaturalNumber2("289480223093290488558927462521"
+                + "71976962977213799489202546401021394546514198529");
+
+        assertFalse(CryptoUtilities.isPrime4(n));
+    }
+
+    /**
+     * Tests isPrime4 with small values on the long path.
+     */
+    @Test
+    public void isPrime4TestSmall() {
+        final int carmichael = 561;
+        final int prime = 563;
+
+        assertFalse(CryptoUtilities.isPrime4(new NaturalNumber2(carmichael)));
+        assertTrue(CryptoUtilities.isPrime4(new NaturalNumber2(prime)));
+        assertTrue(CryptoUtilities.isPrime4(new NaturalNumber2(2)));
+    }
+
     /**
      * Tests isPrime3 with a small prime value satisfying n = 4 (largest
      * manually-set value).
@@ -353,4 +778,346 @@ public class CryptoUtilitiesTest {
 
         assertFalse(CryptoUtilities.isPrime3(n, k));
     }
+
+    /**
+     * Tests isPrime(long) with values at and below the fixed witnesses.
+     */
+    @Test
+    public void isPrimeLongTestSmall() {
+        assertFalse(CryptoUtilities.isPrime(0));
+        assertFalse(CryptoUtilities.isPrime(1));
+        assertTrue(CryptoUtilities.isPrime(2));
+        assertTrue(CryptoUtilities.isPrime(37));
+        assertFalse(CryptoUtilities.isPrime(35));
+    }
+
+    /**
+     * Tests isPrime(long) with a strong pseudoprime to bases 2 through 23,
+     * which only the larger fixed witnesses expose.
+     */
+    @Test
+    public void isPrimeLongTestStrongPseudoprime() {
+        assertFalse(CryptoUtilities.isPrime(3825123056546413051L));
+    }
+
+    /**
+     * Tests isPrime(long) with the largest prime below 2^63.
+     */
+    @Test
+    public void isPrimeLongTestLargestPrime() {
+        assertTrue(CryptoUtilities.isPrime(9223372036854775783L));
+        assertFalse(CryptoUtilities.isPrime(Long.MAX_VALUE));
+    }
+
+    /**
+     * Tests isPrime3 with a prime that fits in a long.
+     */
+    @Test
+    public void isPrime3TestLongPrime() {
+        NaturalNumber n = new NaturalNumber2("9223372036854775783");
+        NaturalNumber k = new NaturalNumber2(20);
+
+        assertTrue(CryptoUtilities.isPrime3(n, k));
+    }
+
+    /**
+     * Tests isPrime3 with a prime beyond the range of a long (2^127 - 1).
+     */
+    @Test
+    public void isPrime3TestLargePrime() {
+        NaturalNumber n = new NaturalNumber2(
+                "170141183460469231731687303715884105727");
+        NaturalNumber k = new NaturalNumber2(20);
+
+        assertTrue(CryptoUtilities.isPrime3(n, k));
+    }
+
+    /**
+     * Tests isPrime3 with a composite beyond the range of a long, the product
+     * of the primes 2^61 - 1 and 2^89 - 1.
+     */
+    @Test
+    public void isPrime3TestLargeComposite() {
+        NaturalNumber n = new NaturalNumber2(
+                "1427247692705959880439315947500961989719490561");
+        NaturalNumber k = new NaturalNumber2(20);
+
+        assertFalse(CryptoUtilities.isPrime3(n, k));
+    }
+
+    /**
+     * Tests randomLikelyPrime returns primes of exactly the requested bit
+     * length, on both the long and the sieved path.
+     */
+    @Test
+    public void randomLikelyPrimeTestBitLength() {
+        final int[] bitLengths = {2, 40, 64, 130};
+        final long seed = 9;
+        SplittableRandom generator = new SplittableRandom(seed);
+
+        for (int bits : bitLengths) {
+            NaturalNumber p = CryptoUtilities.randomLikelyPrime(bits,
+                    generator);
+            NaturalNumber low = new NaturalNumber2(2);
+            low.power(bits - 1);
+            NaturalNumber high = new NaturalNumber2(2);
+            high.power(bits);
+
+            assertTrue(p.compareTo(low) >= 0);
+            assertTrue(p.compareTo(high) < 0);
+            assertTrue(CryptoUtilities.isPrime2(p));
+        }
+    }
+
+    /**
+     * Tests PrimePool hands out pooled primes and refills below the low-water
+     * mark (refills run inline on the calling thread).
+     */
+    @Test
+    public void primePoolTestRefill() {
+        final int capacity = 4;
+        final int lowWaterMark = 2;
+        final int bits = 72;
+        PrimePool pool = new PrimePool(capacity, lowWaterMark, Runnable::run);
+
+        pool.warm(bits);
+        assertEquals(capacity, pool.depth(bits));
+
+        NaturalNumber p = pool.take(bits);
+        assertTrue(CryptoUtilities.isPrime2(p));
+        assertEquals(capacity - 1, pool.depth(bits));
+        pool.take(bits);
+        pool.take(bits);
+        assertEquals(capacity, pool.depth(bits));
+        assertEquals(0, pool.misses(bits));
+        assertTrue(pool.refillRate(bits) > 0);
+    }
+
+    /**
+     * Tests PrimePool generates inline, and counts a miss, while no refill
+     * has produced anything.
+     */
+    @Test
+    public void primePoolTestMiss() {
+        final int capacity = 4;
+        final int lowWaterMark = 2;
+        final int bits = 72;
+        PrimePool pool = new PrimePool(capacity, lowWaterMark, task -> {
+        });
+
+        NaturalNumber p = pool.take(bits);
+
+        assertTrue(CryptoUtilities.isPrime2(p));
+        assertEquals(0, pool.depth(bits));
+        assertEquals(1, pool.misses(bits));
+    }
+
+    /**
+     * Tests PrimeBitmap built below 2^20 counts the primes there and agrees
+     * with isPrime(long) near both ends.
+     *
+     * @throws IOException
+     *             if the table file cannot be written or mapped
+     */
+    @Test
+    public void primeBitmapTestSmallLimit() throws IOException {
+        final long limit = 1L << 20;
+        final int primesBelowLimit = 82025;
+        final int edge = 1000;
+        Path file = Files.createTempFile("primes", ".bin");
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            PrimeBitmap.build(file, limit, pool);
+            PrimeBitmap bitmap = PrimeBitmap.open(file);
+
+            assertEquals(limit, bitmap.limit());
+            int count = 0;
+            for (long n = 0; n < limit; n++) {
+                if (bitmap.isPrime(n)) {
+                    count++;
+                }
+            }
+            assertEquals(primesBelowLimit, count);
+            for (long n = 0; n < edge; n++) {
+                assertEquals(CryptoUtilities.isPrime(n), bitmap.isPrime(n));
+                assertEquals(CryptoUtilities.isPrime(limit - 1 - n),
+                        bitmap.isPrime(limit - 1 - n));
+            }
+        } finally {
+            pool.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Tests PrimeBitmap refuses to map a file that is not a table.
+     *
+     * @throws IOException
+     *             if the temporary file cannot be created
+     */
+    @Test(expected = IOException.class)
+    public void primeBitmapTestNotATable() throws IOException {
+        Path file = Files.createTempFile("primes", ".bin");
+        try {
+            PrimeBitmap.open(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Tests RsaPrivateKey on the textbook key p = 61, q = 53, d = 2753.
+     */
+    @Test
+    public void rsaPrivateKeyTestSmall() {
+        final int p = 61;
+        final int q = 53;
+        final int d = 2753;
+        final int ciphertext = 2790;
+        final int message = 65;
+        RsaPrivateKey key = new RsaPrivateKey(new NaturalNumber2(p),
+                new NaturalNumber2(q), new NaturalNumber2(d));
+        NaturalNumber c = new NaturalNumber2(ciphertext);
+
+        key.apply(c);
+
+        assertEquals(new NaturalNumber2(message), c);
+        assertEquals(new NaturalNumber2(p * q), key.modulus());
+    }
+
+    /**
+     * Tests RsaPrivateKey agrees with powerMod on a multi-limb key, computing
+     * the halves sequentially and in parallel.
+     */
+    @Test
+    public void rsaPrivateKeyTestAgreesWithPowerMod() {
+        final int bits = 130;
+        final int e = 65537;
+        final int messages = 20;
+        final long seed = 13;
+        SplittableRandom generator = new SplittableRandom(seed);
+        NaturalNumber p = CryptoUtilities.randomLikelyPrime(bits, generator);
+        NaturalNumber q = CryptoUtilities.randomLikelyPrime(bits, generator);
+        NaturalNumber phi = new NaturalNumber2(p);
+        phi.decrement();
+        NaturalNumber qDec = new NaturalNumber2(q);
+        qDec.decrement();
+        phi.multiply(qDec);
+        NaturalNumber d = new NaturalNumber2(e);
+        assertTrue(CryptoUtilities.reduceToInverse(d, phi));
+        RsaPrivateKey key = new RsaPrivateKey(p, q, d);
+        NaturalNumber m = key.modulus();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int i = 0; i < messages; i++) {
+                /*
+                 * randomNumber may return m itself; keep the remainder
+                 */
+                NaturalNumber c = CryptoUtilities.randomNumber(m, generator)
+                        .divide(m);
+                NaturalNumber expected = new NaturalNumber2(c);
+                CryptoUtilities.powerMod(expected, d, m);
+                NaturalNumber parallel = new NaturalNumber2(c);
+
+                key.apply(c);
+                key.apply(parallel, pool);
+
+                assertEquals(expected, c);
+                assertEquals(expected, parallel);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests OperationStats counts the work of powerMod on the fast-powering
+     * path when counting is on, and records nothing when it is off.
+     */
+    @Test
+    public void operationStatsTestPowerMod() {
+        final int base = 3;
+        final int exponent = 10;
+        final int modulus = 16;
+        final int result = 9;
+        final int multiplications = 4;
+        final int divisions = 7;
+        /*
+         * Each level of the recursion creates at most 6 NaturalNumbers: two
+         * copies, two for squaring and two for the reduction
+         */
+        final int naturalNumbersPerLevel = 6;
+        OperationStats.reset();
+        OperationStats.setEnabledForTests(true);
+        NaturalNumber n = new NaturalNumber2(base);
+        try {
+            CryptoUtilities.powerMod(n, new NaturalNumber2(exponent),
+                    new NaturalNumber2(modulus));
+        } finally {
+            OperationStats.setEnabledForTests(false);
+        }
+
+        assertEquals(new NaturalNumber2(result), n);
+        OperationStats.Snapshot powerMod = OperationStats.snapshot()
+                .get("powerMod");
+        assertEquals(1, powerMod.calls());
+        assertEquals(multiplications, powerMod.multiplications());
+        assertEquals(divisions, powerMod.divisions());
+        assertTrue(powerMod.maxRecursionDepth() > multiplications);
+        assertTrue(powerMod.naturalNumbersCreated() > 0);
+        assertTrue(powerMod.naturalNumbersCreated() <= naturalNumbersPerLevel
+                * powerMod.maxRecursionDepth());
+
+        if (!OperationStats.isEnabled()) {
+            OperationStats.reset();
+            CryptoUtilities.powerMod(n, new NaturalNumber2(exponent),
+                    new NaturalNumber2(modulus));
+            assertTrue(OperationStats.snapshot().isEmpty());
+        }
+    }
+
+    /**
+     * Tests OperationStats closes the scope of an operation that throws, so
+     * the call is still counted and later scopes on the thread are not
+     * skewed.
+     */
+    @Test
+    public void operationStatsTestScopeClosedOnException() {
+        final int bound = 1000;
+        final int base = 3;
+        final int exponent = 10;
+        final int modulus = 16;
+        RandomGenerator failing = () -> {
+            throw new IllegalStateException("no randomness");
+        };
+        Map<String, OperationStats.Snapshot> expected;
+        Map<String, OperationStats.Snapshot> stats;
+        boolean thrown = false;
+        OperationStats.setEnabledForTests(true);
+        try {
+            OperationStats.reset();
+            CryptoUtilities.powerMod(new NaturalNumber2(base),
+                    new NaturalNumber2(exponent), new NaturalNumber2(modulus));
+            expected = OperationStats.snapshot();
+            OperationStats.reset();
+
+            try {
+                CryptoUtilities.randomNumber(new NaturalNumber2(bound),
+                        failing);
+            } catch (IllegalStateException e) {
+                thrown = true;
+            }
+            CryptoUtilities.powerMod(new NaturalNumber2(base),
+                    new NaturalNumber2(exponent), new NaturalNumber2(modulus));
+            stats = OperationStats.snapshot();
+        } finally {
+            OperationStats.setEnabledForTests(false);
+        }
+
+        assertTrue(thrown);
+        assertEquals(1, stats.get("randomNumber").calls());
+        assertEquals(expected.get("powerMod").maxRecursionDepth(),
+                stats.get("powerMod").maxRecursionDepth());
+    }
 }
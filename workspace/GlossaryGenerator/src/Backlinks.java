@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Inverted index from each term to the terms whose definitions link to it
+ * (its referrers), over the term ids of a {@link TermLinker}.
+ *
+ * <p>
+ * Links are added per referrer as the definitions are linked, as pairs of
+ * ints in two growable arrays. {@link #build()} then sorts them by target
+ * with a counting sort into a compressed layout: one array of all referrer
+ * ids, grouped by target, and one of offsets into it, so the whole index is
+ * two int arrays no matter how many terms there are. Self-links and repeated
+ * links from one definition are dropped as they are added. Once built, the
+ * index is never modified and may be shared between threads.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class Backlinks {
+
+    /**
+     * Initial capacity of the link arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Referrer of each link added.
+     */
+    private int[] from = new int[INITIAL_CAPACITY];
+
+    /**
+     * Target of each link added.
+     */
+    private int[] to = new int[INITIAL_CAPACITY];
+
+    /**
+     * Number of links added.
+     */
+    private int links;
+
+    /**
+     * For each target, the last referrer a link to it was added for.
+     */
+    private int[] lastReferrer;
+
+    /**
+     * Start of each term's referrers in postings (one extra entry at the
+     * end); null until built.
+     */
+    private int[] offsets;
+
+    /**
+     * Referrer ids, grouped by target.
+     */
+    private int[] postings;
+
+    /**
+     * Constructs an empty index.
+     *
+     * @param termCount
+     *            number of term ids
+     */
+    Backlinks(int termCount) {
+        this.lastReferrer = new int[termCount];
+        Arrays.fill(this.lastReferrer, -1);
+    }
+
+    /**
+     * Adds the links of one definition.
+     *
+     * @param referrer
+     *            id of the term the definition belongs to
+     * @param targets
+     *            ids of the terms it links to, in any order and with any
+     *            repeats
+     * @requires the index is not built, and links of referrer are added at
+     *           most once
+     */
+    void add(int referrer, int[] targets) {
+        assert this.offsets == null : "Violation of: not built";
+
+        for (int target : targets) {
+            if (target != referrer && this.lastReferrer[target] != referrer) {
+                this.lastReferrer[target] = referrer;
+                if (this.links == this.from.length) {
+                    this.from = Arrays.copyOf(this.from, 2 * this.links);
+                    this.to = Arrays.copyOf(this.to, 2 * this.links);
+                }
+                this.from[this.links] = referrer;
+                this.to[this.links] = target;
+                this.links++;
+            }
+        }
+    }
+
+    /**
+     * Lays the links out by target; no more links may be added.
+     */
+    void build() {
+        int termCount = this.lastReferrer.length;
+        int[] start = new int[termCount + 1];
+        for (int k = 0; k < this.links; k++) {
+            start[this.to[k] + 1]++;
+        }
+        for (int t = 0; t < termCount; t++) {
+            start[t + 1] += start[t];
+        }
+        int[] next = Arrays.copyOf(start, termCount);
+        int[] grouped = new int[this.links];
+        for (int k = 0; k < this.links; k++) {
+            grouped[next[this.to[k]]] = this.from[k];
+            next[this.to[k]]++;
+        }
+        this.offsets = start;
+        this.postings = grouped;
+        this.from = null;
+        this.to = null;
+        this.lastReferrer = null;
+    }
+
+    /**
+     * Returns the ids of the terms whose definitions link to term.
+     *
+     * @param term
+     *            term id
+     * @return referrer ids, in the order they were added
+     * @requires the index is built
+     */
+    int[] referrers(int term) {
+        assert this.offsets != null : "Violation of: built";
+
+        return Arrays.copyOfRange(this.postings, this.offsets[term],
+                this.offsets[term + 1]);
+    }
+}
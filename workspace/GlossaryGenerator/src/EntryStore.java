@@ -0,0 +1,702 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Glossary entries held as UTF-8 in one growable byte array, with an
+ * open-addressing hash index from term to slot.
+ *
+ * <p>
+ * Entries are numbered (their slots) in the order they are added. Each is
+ * stored as its term's bytes immediately followed by its definition's, so
+ * per entry the store keeps only two offsets and a hash, in int arrays,
+ * instead of two {@code String}s and a map node. The hash index is an int
+ * table with linear probing, keyed by a hash of the term's bytes; a lookup
+ * encodes the term into the free end of the byte array, so it allocates
+ * nothing once the array has grown. Entries read by a {@link GlossaryInput}
+ * are copied into the array as they are, without being decoded at all.
+ * Entries are read back either by decoding into a caller's
+ * {@code StringBuilder}, which can be reused from one entry to the next, or
+ * by comparing their bytes with those of another store, so a pass over every
+ * entry creates no {@code String}s. A store must not be modified by one
+ * thread while another reads it.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class EntryStore {
+
+    /**
+     * Initial size of the byte array.
+     */
+    private static final int INITIAL_BYTES = 1 << 16;
+
+    /**
+     * Initial number of slots.
+     */
+    private static final int INITIAL_SLOTS = 1 << 10;
+
+    /**
+     * FNV-1a offset basis.
+     */
+    private static final int FNV_OFFSET = 0x811C9DC5;
+
+    /**
+     * FNV-1a prime.
+     */
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * Marks an empty cell of the hash table.
+     */
+    private static final int EMPTY = -1;
+
+    /**
+     * Largest byte value (as unsigned) of a one-byte UTF-8 sequence.
+     */
+    private static final int MAX_ONE_BYTE = 0x7F;
+
+    /**
+     * Mask selecting the lead byte marker of a two-byte sequence.
+     */
+    private static final int TWO_BYTE_MASK = 0xE0;
+
+    /**
+     * Lead byte marker of a two-byte sequence.
+     */
+    private static final int TWO_BYTE_LEAD = 0xC0;
+
+    /**
+     * Mask selecting the lead byte marker of a three-byte sequence.
+     */
+    private static final int THREE_BYTE_MASK = 0xF0;
+
+    /**
+     * Lead byte marker of a three-byte sequence.
+     */
+    private static final int THREE_BYTE_LEAD = 0xE0;
+
+    /**
+     * Payload bits of a two-byte lead byte.
+     */
+    private static final int TWO_BYTE_PAYLOAD = 0x1F;
+
+    /**
+     * Payload bits of a three-byte lead byte.
+     */
+    private static final int THREE_BYTE_PAYLOAD = 0x0F;
+
+    /**
+     * Payload bits of a four-byte lead byte.
+     */
+    private static final int FOUR_BYTE_PAYLOAD = 0x07;
+
+    /**
+     * Payload bits of a continuation byte.
+     */
+    private static final int PAYLOAD = 0x3F;
+
+    /**
+     * Bits of payload per continuation byte.
+     */
+    private static final int PAYLOAD_BITS = 6;
+
+    /**
+     * Length of a three-byte sequence.
+     */
+    private static final int THREE_BYTES = 3;
+
+    /**
+     * Number of continuation bytes after a four-byte lead byte.
+     */
+    private static final int FOUR_BYTE_CONTINUATIONS = 3;
+
+    /**
+     * Mask of an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * Smallest lead byte of a two-byte sequence that is not overlong.
+     */
+    private static final int MIN_TWO_BYTE_LEAD = 0xC2;
+
+    /**
+     * Lead byte of the three-byte sequences that encode surrogates (when
+     * their second byte is above MAX_SURROGATE_FREE_SECOND).
+     */
+    private static final int SURROGATE_LEAD = 0xED;
+
+    /**
+     * Largest second byte after SURROGATE_LEAD outside the surrogates.
+     */
+    private static final int MAX_SURROGATE_FREE_SECOND = 0x9F;
+
+    /**
+     * Smallest second byte after THREE_BYTE_LEAD that is not overlong.
+     */
+    private static final int MIN_THREE_BYTE_SECOND = 0xA0;
+
+    /**
+     * Lead byte of the four-byte sequences that may be overlong.
+     */
+    private static final int FOUR_BYTE_LEAD = 0xF0;
+
+    /**
+     * Smallest second byte after FOUR_BYTE_LEAD that is not overlong.
+     */
+    private static final int MIN_FOUR_BYTE_SECOND = 0x90;
+
+    /**
+     * Largest lead byte, that of the sequences up to U+10FFFF.
+     */
+    private static final int MAX_LEAD = 0xF4;
+
+    /**
+     * Largest second byte after MAX_LEAD within U+10FFFF.
+     */
+    private static final int MAX_LAST_LEAD_SECOND = 0x8F;
+
+    /**
+     * Smallest continuation byte.
+     */
+    private static final int MIN_CONTINUATION = 0x80;
+
+    /**
+     * Largest continuation byte.
+     */
+    private static final int MAX_CONTINUATION = 0xBF;
+
+    /**
+     * Encoder of terms and definitions; unpaired surrogates become '?', as
+     * {@code String.getBytes} does.
+     */
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * The entries, as UTF-8.
+     */
+    private byte[] bytes = new byte[INITIAL_BYTES];
+
+    /**
+     * Number of bytes in use.
+     */
+    private int used;
+
+    /**
+     * Start of each slot's term (at 2 * slot) and definition (at 2 * slot +
+     * 1); the definition ends where the next slot's term starts, or at used.
+     */
+    private int[] offsets = new int[2 * INITIAL_SLOTS];
+
+    /**
+     * Hash of each slot's term.
+     */
+    private int[] hashes = new int[INITIAL_SLOTS];
+
+    /**
+     * Number of slots in use.
+     */
+    private int slots;
+
+    /**
+     * Hash table of slots, or EMPTY; its size is a power of two at least
+     * twice the number of slots.
+     */
+    private int[] table = newTable(2 * INITIAL_SLOTS);
+
+    /**
+     * Returns an empty hash table.
+     *
+     * @param size
+     *            number of cells, a power of two
+     * @return the table
+     */
+    private static int[] newTable(int size) {
+        int[] cells = new int[size];
+        Arrays.fill(cells, EMPTY);
+        return cells;
+    }
+
+    /**
+     * Encodes s at the free end of the byte array, without taking the bytes
+     * into use.
+     *
+     * @param s
+     *            text to encode
+     * @return number of bytes encoded
+     */
+    private int encodeAtEnd(CharSequence s) {
+        CharBuffer in = CharBuffer.wrap(s);
+        ByteBuffer out = ByteBuffer.wrap(this.bytes, this.used,
+                this.bytes.length - this.used);
+        this.encoder.reset();
+        CoderResult result = this.encoder.encode(in, out, true);
+        if (!result.isOverflow()) {
+            result = this.encoder.flush(out);
+        }
+        while (result.isOverflow()) {
+            int written = out.position();
+            this.bytes = Arrays.copyOf(this.bytes, 2 * this.bytes.length);
+            out = ByteBuffer.wrap(this.bytes, written,
+                    this.bytes.length - written);
+            result = this.encoder.encode(in, out, true);
+            if (!result.isOverflow()) {
+                result = this.encoder.flush(out);
+            }
+        }
+        return out.position() - this.used;
+    }
+
+    /**
+     * Makes room for n more bytes at the free end of the byte array.
+     *
+     * @param n
+     *            number of bytes
+     */
+    private void reserve(int n) {
+        if (this.bytes.length - this.used < n) {
+            this.bytes = Arrays.copyOf(this.bytes,
+                    Math.max(2 * this.bytes.length, this.used + n));
+        }
+    }
+
+    /**
+     * Reports whether bytes[from, to) is well-formed UTF-8, which is what
+     * decoding it and encoding the result again gives back unchanged.
+     *
+     * @param from
+     *            first byte
+     * @param to
+     *            end of the bytes
+     * @return true iff the bytes are well-formed
+     */
+    private boolean wellFormed(int from, int to) {
+        byte[] b = this.bytes;
+        boolean ok = true;
+        int i = from;
+        while (ok && i < to) {
+            int c = b[i] & BYTE_MASK;
+            if (c <= MAX_ONE_BYTE) {
+                i++;
+            } else {
+                int continuations = 0;
+                if (c >= MIN_TWO_BYTE_LEAD && c < THREE_BYTE_LEAD) {
+                    continuations = 1;
+                } else if (c >= THREE_BYTE_LEAD && c < FOUR_BYTE_LEAD) {
+                    continuations = 2;
+                } else if (c >= FOUR_BYTE_LEAD && c <= MAX_LEAD) {
+                    continuations = FOUR_BYTE_CONTINUATIONS;
+                }
+                /*
+                 * The second byte's range is narrower after the leads that
+                 * could otherwise start an overlong sequence, a surrogate or
+                 * a code point past U+10FFFF
+                 */
+                int low = MIN_CONTINUATION;
+                int high = MAX_CONTINUATION;
+                if (c == THREE_BYTE_LEAD) {
+                    low = MIN_THREE_BYTE_SECOND;
+                } else if (c == SURROGATE_LEAD) {
+                    high = MAX_SURROGATE_FREE_SECOND;
+                } else if (c == FOUR_BYTE_LEAD) {
+                    low = MIN_FOUR_BYTE_SECOND;
+                } else if (c == MAX_LEAD) {
+                    high = MAX_LAST_LEAD_SECOND;
+                }
+                ok = continuations > 0 && i + continuations < to;
+                for (int k = 1; ok && k <= continuations; k++) {
+                    int d = b[i + k] & BYTE_MASK;
+                    ok = d >= low && d <= high;
+                    low = MIN_CONTINUATION;
+                    high = MAX_CONTINUATION;
+                }
+                i += continuations + 1;
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Returns the FNV-1a hash of bytes[from, to).
+     *
+     * @param from
+     *            first byte
+     * @param to
+     *            end of the bytes
+     * @return the hash
+     */
+    private int hash(int from, int to) {
+        int h = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            h = (h ^ (this.bytes[i] & BYTE_MASK)) * FNV_PRIME;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the end of the definition of slot.
+     *
+     * @param slot
+     *            the slot
+     * @return offset just after the definition
+     */
+    private int definitionEnd(int slot) {
+        int end = this.used;
+        if (slot + 1 < this.slots) {
+            end = this.offsets[2 * (slot + 1)];
+        }
+        return end;
+    }
+
+    /**
+     * Returns the hash table cell holding the term source[from, to) with the
+     * given hash, or the empty cell where it would go.
+     *
+     * @param source
+     *            array holding the term
+     * @param from
+     *            start of the term
+     * @param to
+     *            end of the term
+     * @param h
+     *            hash of the term
+     * @return the cell
+     */
+    private int cell(byte[] source, int from, int to, int h) {
+        int mask = this.table.length - 1;
+        int i = h & mask;
+        boolean found = false;
+        while (!found && this.table[i] != EMPTY) {
+            int slot = this.table[i];
+            found = this.hashes[slot] == h
+                    && Arrays.equals(this.bytes, this.offsets[2 * slot],
+                            this.offsets[2 * slot + 1], source, from, to);
+            if (!found) {
+                i = (i + 1) & mask;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Doubles the hash table and the slot arrays.
+     */
+    private void grow() {
+        int capacity = 2 * this.hashes.length;
+        this.offsets = Arrays.copyOf(this.offsets, 2 * capacity);
+        this.hashes = Arrays.copyOf(this.hashes, capacity);
+        this.table = newTable(2 * capacity);
+        int mask = this.table.length - 1;
+        for (int slot = 0; slot < this.slots; slot++) {
+            int i = this.hashes[slot] & mask;
+            while (this.table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            this.table[i] = slot;
+        }
+    }
+
+    /**
+     * Takes the term bytes[used, termEnd) into use as a new slot, whose
+     * definition starts at termEnd.
+     *
+     * @param termEnd
+     *            end of the term
+     * @param h
+     *            hash of the term
+     * @return the new slot
+     * @requires the term is not in the store
+     */
+    private int newSlot(int termEnd, int h) {
+        int termStart = this.used;
+        if (this.slots == this.hashes.length) {
+            this.grow();
+        }
+        int slot = this.slots;
+        this.slots++;
+        this.offsets[2 * slot] = termStart;
+        this.offsets[2 * slot + 1] = termEnd;
+        this.hashes[slot] = h;
+        this.table[this.cell(this.bytes, termStart, termEnd, h)] = slot;
+        this.used = termEnd;
+        return slot;
+    }
+
+    /**
+     * Adds an entry, unless its term is already in the store.
+     *
+     * @param term
+     *            entry term
+     * @param definition
+     *            entry definition
+     * @return the slot of term
+     */
+    int add(CharSequence term, CharSequence definition) {
+        int termStart = this.used;
+        int termEnd = termStart + this.encodeAtEnd(term);
+        int h = this.hash(termStart, termEnd);
+        int slot = this.table[this.cell(this.bytes, termStart, termEnd, h)];
+        if (slot == EMPTY) {
+            slot = this.newSlot(termEnd, h);
+            this.used += this.encodeAtEnd(definition);
+        }
+        return slot;
+    }
+
+    /**
+     * Adds the current entry of in, unless its term is already in the store,
+     * copying its bytes without decoding them.
+     *
+     * @param in
+     *            the input
+     * @return the slot of its term
+     * @requires in.next() returned true
+     */
+    int add(GlossaryInput in) {
+        this.reserve(in.termLength() + in.definitionLength());
+        int termStart = this.used;
+        int termEnd = termStart + in.copyTerm(this.bytes, termStart);
+        int definitionEnd = termEnd + in.copyDefinition(this.bytes, termEnd);
+        int slot;
+        if (this.wellFormed(termStart, termEnd)
+                && this.wellFormed(termEnd, definitionEnd)) {
+            int h = this.hash(termStart, termEnd);
+            slot = this.table[this.cell(this.bytes, termStart, termEnd, h)];
+            if (slot == EMPTY) {
+                slot = this.newSlot(termEnd, h);
+                this.used = definitionEnd;
+            }
+        } else {
+            /*
+             * Malformed bytes decode to U+FFFD, so store what decoding them
+             * gives, as the rest of the generator sees it
+             */
+            slot = this.add(in.term(), in.definition());
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the slot of term.
+     *
+     * @param term
+     *            the term
+     * @return its slot, or -1 if it is not in the store
+     */
+    int find(CharSequence term) {
+        int termEnd = this.used + this.encodeAtEnd(term);
+        int h = this.hash(this.used, termEnd);
+        return this.table[this.cell(this.bytes, this.used, termEnd, h)];
+    }
+
+    /**
+     * Returns the slot of the term of otherSlot in other.
+     *
+     * @param other
+     *            store holding the term
+     * @param otherSlot
+     *            slot of other
+     * @return the slot of the term here, or -1 if it is not in this store
+     * @requires 0 <= otherSlot < other.size()
+     */
+    int find(EntryStore other, int otherSlot) {
+        return this.table[this.cell(other.bytes, other.offsets[2 * otherSlot],
+                other.offsets[2 * otherSlot + 1], other.hashes[otherSlot])];
+    }
+
+    /**
+     * Adds the entries of other in slots [from, to), in order, copying their
+     * bytes in one block; stops at the first whose term is already in this
+     * store.
+     *
+     * @param other
+     *            store to copy from
+     * @param from
+     *            first slot of other
+     * @param to
+     *            end of the slots of other
+     * @return true iff every entry was added (if not, the store holds those
+     *         before the one whose term was already in it)
+     * @requires other is not this and 0 <= from <= to <= other.size()
+     */
+    boolean addAll(EntryStore other, int from, int to) {
+        boolean added = true;
+        if (from < to) {
+            int start = other.offsets[2 * from];
+            int length = other.definitionEnd(to - 1) - start;
+            this.reserve(length);
+            System.arraycopy(other.bytes, start, this.bytes, this.used,
+                    length);
+            int shift = this.used - start;
+            int slot = from;
+            while (added && slot < to) {
+                int termEnd = other.offsets[2 * slot + 1] + shift;
+                int h = other.hashes[slot];
+                added = this.table[this.cell(this.bytes, this.used, termEnd,
+                        h)] == EMPTY;
+                if (added) {
+                    this.newSlot(termEnd, h);
+                    this.used = other.definitionEnd(slot) + shift;
+                }
+                slot++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns the number of entries.
+     *
+     * @return number of slots in use
+     */
+    int size() {
+        return this.slots;
+    }
+
+    /**
+     * Appends the UTF-8 text bytes[from, to) to out.
+     *
+     * @param from
+     *            first byte
+     * @param to
+     *            end of the text
+     * @param out
+     *            destination
+     * @updates out
+     */
+    private void decode(int from, int to, StringBuilder out) {
+        byte[] b = this.bytes;
+        int i = from;
+        while (i < to) {
+            int c = b[i] & BYTE_MASK;
+            if (c <= MAX_ONE_BYTE) {
+                out.append((char) c);
+                i++;
+            } else if ((c & TWO_BYTE_MASK) == TWO_BYTE_LEAD) {
+                out.append((char) (((c & TWO_BYTE_PAYLOAD) << PAYLOAD_BITS)
+                        | (b[i + 1] & PAYLOAD)));
+                i += 2;
+            } else if ((c & THREE_BYTE_MASK) == THREE_BYTE_LEAD) {
+                out.append((char) (((c & THREE_BYTE_PAYLOAD) << (2
+                        * PAYLOAD_BITS))
+                        | ((b[i + 1] & PAYLOAD) << PAYLOAD_BITS)
+                        | (b[i + 2] & PAYLOAD)));
+                i += THREE_BYTES;
+            } else {
+                int cp = c & FOUR_BYTE_PAYLOAD;
+                for (int k = 1; k <= FOUR_BYTE_CONTINUATIONS; k++) {
+                    cp = (cp << PAYLOAD_BITS) | (b[i + k] & PAYLOAD);
+                }
+                out.appendCodePoint(cp);
+                i += FOUR_BYTE_CONTINUATIONS + 1;
+            }
+        }
+    }
+
+    /**
+     * Appends the definition of slot to out.
+     *
+     * @param slot
+     *            the slot
+     * @param out
+     *            destination
+     * @updates out
+     * @requires 0 <= slot < size()
+     */
+    void appendDefinition(int slot, StringBuilder out) {
+        this.decode(this.offsets[2 * slot + 1], this.definitionEnd(slot), out);
+    }
+
+    /**
+     * Returns the term of slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the term
+     * @requires 0 <= slot < size()
+     */
+    String term(int slot) {
+        int from = this.offsets[2 * slot];
+        return new String(this.bytes, from, this.offsets[2 * slot + 1] - from,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the definition of slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the definition
+     * @requires 0 <= slot < size()
+     */
+    String definition(int slot) {
+        int from = this.offsets[2 * slot + 1];
+        return new String(this.bytes, from, this.definitionEnd(slot) - from,
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the terms, in slot order.
+     *
+     * @return the terms
+     */
+    List<String> terms() {
+        List<String> terms = new ArrayList<>(this.slots);
+        for (int slot = 0; slot < this.slots; slot++) {
+            terms.add(this.term(slot));
+        }
+        return terms;
+    }
+
+    /**
+     * Reports whether the definition of slot contains pattern, as bytes.
+     *
+     * @param slot
+     *            the slot
+     * @param pattern
+     *            UTF-8 bytes to look for
+     * @return true iff pattern occurs in the definition
+     * @requires 0 <= slot < size() and |pattern| > 0
+     */
+    boolean definitionContains(int slot, byte[] pattern) {
+        int last = this.definitionEnd(slot) - pattern.length;
+        boolean found = false;
+        int i = this.offsets[2 * slot + 1];
+        while (!found && i <= last) {
+            found = this.bytes[i] == pattern[0]
+                    && Arrays.equals(this.bytes, i, i + pattern.length,
+                            pattern, 0, pattern.length);
+            i++;
+        }
+        return found;
+    }
+
+    /**
+     * Reports whether the definition of slot equals that of otherSlot in
+     * other.
+     *
+     * @param slot
+     *            slot of this store
+     * @param other
+     *            store to compare with
+     * @param otherSlot
+     *            slot of other
+     * @return true iff the definitions are equal
+     * @requires 0 <= slot < size() and 0 <= otherSlot < other.size()
+     */
+    boolean sameDefinition(int slot, EntryStore other, int otherSlot) {
+        return Arrays.equals(this.bytes, this.offsets[2 * slot + 1],
+                this.definitionEnd(slot), other.bytes,
+                other.offsets[2 * otherSlot + 1],
+                other.definitionEnd(otherSlot));
+    }
+}
@@ -1,5 +1,23 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
 import components.map.Map;
-import components.map.Map1L;
 import components.sequence.Sequence;
 import components.sequence.Sequence1L;
 import components.set.Set;
@@ -39,10 +57,81 @@ public class GlossaryGenerator {
             + "a { color: var(--palette-def); transition: all 0.15s; }\n"
             + "a:hover { color: var(--palette-active); }\n";
 
+    /**
+     * Name of the stylesheet term pages link to when styles are not inlined.
+     */
+    public static final String STYLESHEET_FILE = "glossary.css";
+
+    /**
+     * Index layout with every term on the one index page.
+     */
+    public static final int SINGLE_PAGE_INDEX = 0;
+
+    /**
+     * Index layout with one index page per leading character.
+     */
+    public static final int INDEX_BY_LEADING_CHARACTER = -1;
+
+    /**
+     * Charset of every page, as declared in its meta tag.
+     */
+    private static final Charset PAGE_CHARSET = StandardCharsets.UTF_8;
+
+    /**
+     * Number of writer threads in the write stage of parallel generation.
+     */
+    private static final int WRITER_THREADS = 2;
+
+    /**
+     * Rendered pages allowed to wait for the write stage, per render thread.
+     */
+    private static final int PAGES_PER_THREAD = 4;
+
+    /**
+     * Format of the generated pages, as recorded in the manifest; the leading
+     * version is raised whenever the page markup changes, so that pages
+     * rendered by an older generator are not kept.
+     */
+    private static final String PAGE_FORMAT = "2-"
+            + GlossaryManifest.fingerprint(SHARED_DEFAULT_STYLE
+                    + TERM_PAGE_DEFAULT_STYLE + INDEX_PAGE_DEFAULT_STYLE);
+
+    /**
+     * Marks the term in the sample page the entry template is compiled from.
+     */
+    private static final String TERM_HOLE = "\u0000term\u0000";
+
+    /**
+     * Marks the linked definition in the sample entry page.
+     */
+    private static final String DEFINITION_HOLE = "\u0000definition\u0000";
+
+    /**
+     * Marks the list of referring terms in the sample entry page.
+     */
+    private static final String REFERRERS_HOLE = "\u0000referrers\u0000";
+
+    /**
+     * Page buffer of each rendering thread.
+     */
+    private static final ThreadLocal<PageBuffer> BUFFERS = ThreadLocal
+            .withInitial(PageBuffer::new);
+
     /**
      * Map representing term and definition pairs extracted from input file.
      */
-    private final Map<String, String> entries;
+    private final VersionedMap<String, String> entries;
+
+    /**
+     * Linker over the entry terms, kept while they are unchanged; null until
+     * first needed.
+     */
+    private TermLinker entryLinker;
+
+    /**
+     * Version of entries the entry linker was compiled for.
+     */
+    private long entryLinkerVersion;
 
     /**
      * Filepaths for input and output locations.
@@ -50,7 +139,30 @@ public class GlossaryGenerator {
     private final String outputDirPath, inputFilePath;
 
     /**
-     * Constructor with input and output filepaths.
+     * Whether term pages link to STYLESHEET_FILE instead of inlining styles.
+     */
+    private final boolean linkedStylesheet;
+
+    /**
+     * Template of every term page.
+     */
+    private final PageTemplate entryTemplate;
+
+    /**
+     * Index layout: SINGLE_PAGE_INDEX, INDEX_BY_LEADING_CHARACTER, or the
+     * number of terms per index page.
+     */
+    private int indexLayout = SINGLE_PAGE_INDEX;
+
+    /**
+     * Whether every file is also written gzip-compressed, with ".gz"
+     * appended to its name.
+     */
+    private boolean gzipSiblings;
+
+    /**
+     * Constructor with input and output filepaths; term pages inline their
+     * styles.
      *
      * @param inPath
      *            {@code String} representing input file filepath
@@ -58,8 +170,40 @@ public class GlossaryGenerator {
      *            {@code String} representing output folder filepath
      */
     public GlossaryGenerator(String inPath, String outPath) {
-        this.entries = new Map1L<>();
+        this(inPath, outPath, false);
+    }
+
+    /**
+     * Constructor with input and output filepaths, choosing whether term pages
+     * inline their styles or link to a stylesheet. A linked stylesheet is
+     * written once, as {@code STYLESHEET_FILE} in the output directory, instead
+     * of being repeated in every term page; the index page always inlines its
+     * own styles.
+     *
+     * @param inPath
+     *            {@code String} representing input file filepath
+     * @param outPath
+     *            {@code String} representing output folder filepath
+     * @param linkedStylesheet
+     *            whether term pages link to {@code STYLESHEET_FILE}
+     */
+    public GlossaryGenerator(String inPath, String outPath,
+            boolean linkedStylesheet) {
+        this.entries = new VersionedMap<>();
         this.inputFilePath = inPath;
+        this.linkedStylesheet = linkedStylesheet;
+
+        String head;
+        if (linkedStylesheet) {
+            head = "<link rel='stylesheet' href='" + STYLESHEET_FILE + "'>\n";
+        } else {
+            head = "<style>\n" + SHARED_DEFAULT_STYLE + TERM_PAGE_DEFAULT_STYLE
+                    + "</style>\n";
+        }
+        this.entryTemplate = new PageTemplate(
+                renderPage(TERM_HOLE, head,
+                        entryBody(TERM_HOLE, DEFINITION_HOLE, REFERRERS_HOLE)),
+                TERM_HOLE, DEFINITION_HOLE, REFERRERS_HOLE);
 
         /*
          * Append directory indicator (/) if not present
@@ -71,6 +215,41 @@ public class GlossaryGenerator {
         }
     }
 
+    /**
+     * Sets how the index is laid out by {@code generateIndexPage()} and
+     * {@code generateGlossary}. With a layout other than SINGLE_PAGE_INDEX,
+     * the terms are split over index pages {@code index-1.html},
+     * {@code index-2.html}, ..., each with a navigation header, and
+     * {@code index.html} lists those pages and has a search box that looks up
+     * terms in a compact search index written alongside.
+     *
+     * @param layout
+     *            SINGLE_PAGE_INDEX, INDEX_BY_LEADING_CHARACTER, or the number
+     *            of terms per index page
+     * @requires layout >= INDEX_BY_LEADING_CHARACTER
+     */
+    public void setIndexLayout(int layout) {
+        assert layout >= INDEX_BY_LEADING_CHARACTER : "Violation of: "
+                + "layout >= INDEX_BY_LEADING_CHARACTER";
+
+        this.indexLayout = layout;
+    }
+
+    /**
+     * Sets whether every page, the stylesheet and the search index are also
+     * written gzip-compressed, each to a sibling file with ".gz" appended to
+     * its name, for static hosts that serve pre-compressed files. Pages are
+     * compressed at the highest level, once, so the host need not compress
+     * them on every request. Deleting a page deletes its sibling too, but
+     * turning this off does not delete siblings written earlier.
+     *
+     * @param gzipSiblings
+     *            whether to write gzip-compressed siblings
+     */
+    public void setGzipSiblings(boolean gzipSiblings) {
+        this.gzipSiblings = gzipSiblings;
+    }
+
     /**
      * Purely for unit testing purposes; returns entries map.
      *
@@ -80,10 +259,45 @@ public class GlossaryGenerator {
         return this.entries;
     }
 
+    /**
+     * Returns the terms of the entry map, without changing it.
+     *
+     * @return the entry terms, in no particular order
+     */
+    private List<String> entryTerms() {
+        List<String> terms = new ArrayList<>(this.entries.size());
+        for (Map.Pair<String, String> entry : this.entries) {
+            terms.add(entry.key());
+        }
+        return terms;
+    }
+
+    /**
+     * Returns a linker compiled over the terms of the entry map, compiling
+     * it only if the map changed since the last one was.
+     *
+     * @return the linker
+     */
+    private TermLinker entryLinker() {
+        if (this.entryLinker == null
+                || this.entryLinkerVersion != this.entries.version()) {
+            this.entryLinker = new TermLinker(this.entryTerms());
+            this.entryLinkerVersion = this.entries.version();
+        }
+        return this.entryLinker;
+    }
+
     /**
      * Extracts terms and definitions from input file and loads them into the
      * entry map.
      *
+     * <p>
+     * The file is read as UTF-8 through a memory mapping (see
+     * {@code GlossaryInput}); lines of a definition are joined with spaces. A
+     * term given more than once keeps its first definition, as in every
+     * other way of reading the input.
+     * </p>
+     *
      * @updates entries
      * @requires inputFilePath is valid filepath to entry file formatted with
      *           term and definitions separated by line breaks
@@ -94,33 +308,26 @@ public class GlossaryGenerator {
      * </pre>
      */
     public void extractEntries() {
-        SimpleReader in = new SimpleReader1L(this.inputFilePath);
-
-        while (!in.atEOS()) {
-            String termName = in.nextLine();
-
-            StringBuilder termDef = new StringBuilder();
-            String line;
-
-            do {
-                line = in.nextLine();
-                termDef.append(line);
-                /*
-                 * Effectively replace all line breaks with space character (<p>
-                 * tag ensures text wrapping)
-                 */
-                termDef.append(' ');
-            } while (!line.isEmpty());
-
-            this.entries.add(termName, termDef.toString().trim());
+        try (GlossaryInput in = new GlossaryInput(
+                Paths.get(this.inputFilePath))) {
+            while (in.next()) {
+                String term = in.term();
+                if (!this.entries.hasKey(term)) {
+                    this.entries.add(term, in.definition());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        in.close();
     }
 
     /**
      * Parses entry (adding hyperlinks in definition to associated entries if
      * present) and writes entry to new HTML file at specified output directory.
+     * Links with a {@code TermLinker} compiled over all entry terms, which is
+     * kept until the entry map changes, so a call takes time proportional to
+     * the length of the definition. The page lists no referring terms, as
+     * only the other definitions would tell which those are.
      *
      * @param term
      *            entry term
@@ -130,83 +337,357 @@ public class GlossaryGenerator {
      * @ensures <pre>
      *     [an HTMl file with default CSS stylings is generated at output directory of
      *     name x.html such that x is the value of {@code term}, with definition parsed
-     *     with hyperlinks to other entry HTML files if entry term value is present
-     *     verbatim and footer with hyperlink to index page]
+     *     with hyperlinks to other entry HTML files wherever an entry term
+     *     (which may span several words) is present verbatim as whole words
+     *     and footer with hyperlink to index page]
      * </pre>
      */
     public void parseEntry(String term, String definition) {
         assert !term.isEmpty() : "Violation of: |term| > 0";
         assert !definition.isEmpty() : "Violation of: |definition| > 0";
 
-        StringBuilder bodyContent = new StringBuilder();
+        this.parseEntry(term, definition, this.entryLinker(), null);
+    }
 
-        bodyContent.append("<h2>").append(term).append("</h2>\n");
-        bodyContent.append("<hr>\n");
-        bodyContent.append("<p>\n");
+    /**
+     * Parses entry with the given linker and writes entry to new HTML file at
+     * specified output directory.
+     *
+     * @param term
+     *            entry term
+     * @param definition
+     *            entry definition
+     * @param linker
+     *            linker compiled over all entry terms
+     * @param backlinks
+     *            referrers of every term, by id of linker, or null to list
+     *            none
+     * @requires |term| > 0 && |definition| > 0
+     * @ensures <pre>
+     *     [as parseEntry(term, definition), with a footer listing the terms
+     *     whose definitions link to term]
+     * </pre>
+     */
+    private void parseEntry(String term, String definition,
+            TermLinker linker, Backlinks backlinks) {
+        PageBuffer page = this.renderEntry(term, definition, linker,
+                backlinks);
+        try {
+            page.writeTo(Paths.get(this.outputDirPath + term + ".html"),
+                    this.gzipSiblings);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        int charIndex = 0;
-        char c;
-        StringBuilder wordStrb = new StringBuilder();
+    /**
+     * Renders the page of an entry into the current thread's page buffer.
+     *
+     * @param term
+     *            entry term
+     * @param definition
+     *            entry definition
+     * @param linker
+     *            linker compiled over all entry terms
+     * @param backlinks
+     *            referrers of every term, by id of linker, or null to list
+     *            none
+     * @return the buffer holding the page
+     */
+    private PageBuffer renderEntry(String term, String definition,
+            TermLinker linker, Backlinks backlinks) {
+        PageBuffer page = BUFFERS.get();
+        /*
+         * One pass over the definition links every term occurrence
+         */
+        StringBuilder linked = page.text();
+        linker.link(definition, linked);
+        StringBuilder referencedBy = new StringBuilder();
+        if (backlinks != null) {
+            List<String> referrers = referrerTerms(term, linker, backlinks);
+            if (!referrers.isEmpty()) {
+                referencedBy.append("<p>Referenced by: ");
+                for (int i = 0; i < referrers.size(); i++) {
+                    if (i > 0) {
+                        referencedBy.append(", ");
+                    }
+                    referencedBy.append("<a href='").append(referrers.get(i))
+                            .append(".html'>").append(referrers.get(i))
+                            .append("</a>");
+                }
+                referencedBy.append("</p>\n");
+            }
+        }
+        page.clear();
+        this.entryTemplate.render(page, term, linked, referencedBy);
+        return page;
+    }
 
-        do {
-            /*
-             * For the purposes of checking last word in definition string,
-             * simply set it to a non-alpha character to guarantee check.
-             */
-            if (charIndex == definition.length()) {
-                c = ' ';
-            } else {
-                c = definition.charAt(charIndex);
+    /**
+     * Returns the terms whose definitions link to term, in natural order.
+     *
+     * @param term
+     *            entry term
+     * @param linker
+     *            linker compiled over all entry terms
+     * @param backlinks
+     *            referrers of every term, by id of linker
+     * @return the referring terms
+     */
+    static List<String> referrerTerms(String term, TermLinker linker,
+            Backlinks backlinks) {
+        List<String> referrers = new ArrayList<>();
+        int id = linker.idOf(term);
+        if (id >= 0) {
+            for (int referrer : backlinks.referrers(id)) {
+                referrers.add(linker.term(referrer));
             }
+            Collections.sort(referrers);
+        }
+        return referrers;
+    }
 
-            if (!String.valueOf(c).matches("[a-zA-Z]")) {
-                String word = wordStrb.toString();
+    /**
+     * Returns the terms with the given ids.
+     *
+     * @param ids
+     *            term ids
+     * @param linker
+     *            linker the ids belong to
+     * @return the terms, in the order of ids
+     */
+    static List<String> termsOf(int[] ids, TermLinker linker) {
+        List<String> terms = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            terms.add(linker.term(id));
+        }
+        return terms;
+    }
 
-                if (this.entries.hasKey(word)) {
-                    bodyContent.append("<a href='").append(word)
-                            .append(".html'>");
-                    bodyContent.append(word);
-                    bodyContent.append("</a>");
-                } else {
-                    bodyContent.append(word);
-                }
+    /**
+     * Returns the body content of an entry page.
+     *
+     * @param term
+     *            entry term
+     * @param linkedDefinition
+     *            entry definition, with hyperlinks to the entries whose terms
+     *            it contains
+     * @param referencedBy
+     *            paragraph linking the entries whose definitions link to
+     *            term, or empty
+     * @return body of the page for term
+     * @ensures <pre>
+     *     [entryBody is the heading, the linked definition, and the footer
+     *     with referencedBy and a link to the index]
+     * </pre>
+     */
+    private static String entryBody(String term, String linkedDefinition,
+            String referencedBy) {
+        StringBuilder bodyContent = new StringBuilder();
 
-                bodyContent.append(c);
-                wordStrb.delete(0, wordStrb.length());
-            } else {
-                wordStrb.append(c);
-            }
-            charIndex++;
+        bodyContent.append("<h2>").append(term).append("</h2>\n");
+        bodyContent.append("<hr>\n");
+        bodyContent.append("<p>\n");
 
-        } while (charIndex <= definition.length());
+        /*
+         * The definition has always been followed by a single space
+         */
+        bodyContent.append(linkedDefinition).append(' ');
 
         bodyContent.append("</p>\n");
         bodyContent.append("<footer>\n");
+        bodyContent.append(referencedBy);
         bodyContent.append("<a href='index.html'>").append("→ Return to index")
                 .append("</a>\n");
         bodyContent.append("</footer>\n");
 
-        writeHTMLFile(this.outputDirPath + term + ".html", term,
-                SHARED_DEFAULT_STYLE + TERM_PAGE_DEFAULT_STYLE,
-                bodyContent.toString());
+        return bodyContent.toString();
     }
 
     /**
-     * Parses all entries within the entry map.
+     * Hands entries, one at a time and on the calling thread, to an action.
+     */
+    interface EntrySource {
+
+        /**
+         * Calls action with the term and definition of every entry.
+         *
+         * @param action
+         *            receives each entry
+         */
+        void forEach(BiConsumer<String, String> action);
+    }
+
+    /**
+     * Parses all entries within the entry map, compiling the term linker once.
+     * Each page lists the terms whose definitions link to it.
      *
      * @ensures <pre>
      *     [every entry within the entry map is parsed]
      * </pre>
      */
     public void parseAvailableEntries() {
+        this.parseAvailableEntries(1);
+    }
+
+    /**
+     * Parses all entries within the entry map in parallel: pages are rendered
+     * on a pool of the given number of threads and handed to a bounded write
+     * stage, which writes them while rendering continues. The files written
+     * are byte-identical to those of {@code parseAvailableEntries()}.
+     *
+     * @param threads
+     *            number of render threads
+     * @requires threads > 0
+     * @ensures <pre>
+     *     [every entry within the entry map is parsed]
+     * </pre>
+     */
+    public void parseAvailableEntries(int threads) {
+        assert threads > 0 : "Violation of: threads > 0";
+
+        TermLinker linker = this.entryLinker();
+        /*
+         * Every page's referrers must be known before it is rendered, so the
+         * links are first found in one pass over all definitions
+         */
+        Backlinks backlinks = new Backlinks(linker.termCount());
         for (Map.Pair<String, String> entry : this.entries) {
-            this.parseEntry(entry.key(), entry.value());
+            backlinks.add(linker.idOf(entry.key()),
+                    linker.linkedTermIds(entry.value()));
+        }
+        backlinks.build();
+        /*
+         * The entry map cannot be read from several threads, but the source
+         * is only iterated on the calling thread
+         */
+        this.writeEntryPages(action -> {
+            for (Map.Pair<String, String> entry : this.entries) {
+                action.accept(entry.key(), entry.value());
+            }
+        }, linker, backlinks, threads);
+    }
+
+    /**
+     * Renders and writes the pages of the entries of source, on the calling
+     * thread if threads = 1, and writes the stylesheet if term pages link to
+     * it.
+     *
+     * @param source
+     *            the entries whose pages are written
+     * @param linker
+     *            linker compiled over all entry terms
+     * @param backlinks
+     *            referrers of every term, by id of linker
+     * @param threads
+     *            number of render threads
+     * @requires threads > 0
+     * @ensures <pre>
+     *     [the page of every entry of source is written as by parseEntry,
+     *     with the referrers of backlinks]
+     * </pre>
+     */
+    void writeEntryPages(EntrySource source, TermLinker linker,
+            Backlinks backlinks, int threads) {
+        if (this.linkedStylesheet) {
+            byte[] stylesheet = (SHARED_DEFAULT_STYLE + TERM_PAGE_DEFAULT_STYLE)
+                    .getBytes(PAGE_CHARSET);
+            try {
+                PageBuffer.write(
+                        Paths.get(this.outputDirPath + STYLESHEET_FILE),
+                        stylesheet, stylesheet.length, this.gzipSiblings);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (threads == 1) {
+            source.forEach((term, definition) -> this.parseEntry(term,
+                    definition, linker, backlinks));
+        } else {
+            this.writeEntryPagesInParallel(source, linker, backlinks,
+                    threads);
+        }
+    }
+
+    /**
+     * Renders the pages of the entries of source on a pool of the given
+     * number of threads and hands them to a bounded write stage, which writes
+     * them while rendering continues.
+     *
+     * <p>
+     * The pool's queue is bounded like the write stage's: when both are full,
+     * the thread reading source renders the next page itself, so only a fixed
+     * number of entries are in memory at once however many source has.
+     * </p>
+     *
+     * @param source
+     *            the entries whose pages are written
+     * @param linker
+     *            linker compiled over all entry terms
+     * @param backlinks
+     *            referrers of every term, by id of linker
+     * @param threads
+     *            number of render threads
+     * @requires threads > 1
+     * @ensures <pre>
+     *     [the page of every entry of source is written as by parseEntry,
+     *     with the referrers of backlinks]
+     * </pre>
+     */
+    private void writeEntryPagesInParallel(EntrySource source,
+            TermLinker linker, Backlinks backlinks, int threads) {
+        ThreadPoolExecutor renderers = new ThreadPoolExecutor(threads,
+                threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PAGES_PER_THREAD * threads),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        PageWriter writer = new PageWriter(PAGES_PER_THREAD * threads,
+                WRITER_THREADS, this.gzipSiblings);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try {
+            source.forEach((term, definition) -> {
+                RuntimeException earlier = failure.get();
+                if (earlier != null) {
+                    throw earlier;
+                }
+                renderers.execute(() -> {
+                    try {
+                        byte[] page = this.renderEntry(term, definition,
+                                linker, backlinks).toByteArray();
+                        writer.submit(
+                                Paths.get(this.outputDirPath + term + ".html"),
+                                page);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        failure.compareAndSet(null,
+                                new IllegalStateException(e));
+                    } catch (RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    }
+                });
+            });
+            renderers.shutdown();
+            renderers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            /*
+             * Stop the renderers first, so that none is left waiting on a
+             * full queue once the writers stop
+             */
+            renderers.shutdownNow();
+            writer.close();
+        }
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
         }
     }
 
     /**
      * Generate index HTML page with hyperlinks to all other entry HTML files in
-     * alphabetical natural order at specified output directory.
+     * alphabetical natural order at specified output directory, laid out as
+     * set by {@code setIndexLayout}.
      *
      * @ensures <pre>
      *     [an HTML file with default CSS stylings is generated at output
@@ -215,19 +696,114 @@ public class GlossaryGenerator {
      * </pre>
      */
     public void generateIndexPage() {
+        this.writeIndex(this.entryTerms());
+    }
+
+    /**
+     * Generate index HTML page with hyperlinks to all other entry HTML files,
+     * ordered by the given collator, at specified output directory. Only the
+     * single-page layout can be ordered by a collator, as the search box of a
+     * sharded index relies on natural order; the index pages and search
+     * index of a sharded index written before are deleted.
+     *
+     * @param collator
+     *            locale-aware ordering of the terms, or null for alphabetical
+     *            natural order
+     * @requires the index layout is SINGLE_PAGE_INDEX
+     * @ensures <pre>
+     *     [an HTML file with default CSS stylings is generated at output
+     *     directory of name index.html with hyperlinks to associated
+     *     entry pages sorted by collator]
+     * </pre>
+     */
+    public void generateIndexPage(Collator collator) {
+        assert this.indexLayout == SINGLE_PAGE_INDEX : "Violation of: "
+                + "the index layout is SINGLE_PAGE_INDEX";
+
+        this.writeIndexPage(this.entryTerms(), collator);
+    }
+
+    /**
+     * Writes the index for the given terms, laid out as set by
+     * {@code setIndexLayout}.
+     *
+     * @param terms
+     *            all entry terms
+     * @ensures <pre>
+     *     [the index is written at output directory as by generateIndexPage()
+     *     for an entry map with the given terms]
+     * </pre>
+     */
+    void writeIndex(Iterable<String> terms) {
+        if (this.indexLayout == SINGLE_PAGE_INDEX) {
+            this.writeIndexPage(terms, null);
+        } else {
+            /*
+             * The index pages and the search index are written in one pass
+             * over the sorted terms
+             */
+            int pageSize = Math.max(0, this.indexLayout);
+            try (ShardedIndex index = new ShardedIndex(
+                    Paths.get(this.outputDirPath), pageSize,
+                    SHARED_DEFAULT_STYLE + INDEX_PAGE_DEFAULT_STYLE,
+                    this.gzipSiblings)) {
+                for (String term : SortedTermIndex.of(terms)) {
+                    index.add(term);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Reports whether the output directory holds every file of an index laid
+     * out as set by {@code setIndexLayout}; an index written under another
+     * layout (by {@code generateIndexPage} in between runs, say) lacks some.
+     *
+     * @param hasTerms
+     *            whether there are entry terms, so a sharded index has pages
+     * @return true iff index.html and, for a sharded index, the search index
+     *         and the first index page exist
+     */
+    boolean indexWritten(boolean hasTerms) {
+        Path dir = Paths.get(this.outputDirPath);
+        boolean written = Files.exists(dir.resolve("index.html"));
+        if (this.indexLayout != SINGLE_PAGE_INDEX) {
+            written = written
+                    && Files.exists(dir.resolve(ShardedIndex.SEARCH_INDEX_FILE))
+                    && (!hasTerms || Files
+                            .exists(dir.resolve(ShardedIndex.shardFile(1))));
+        }
+        return written;
+    }
+
+    /**
+     * Writes the single-page index for the given terms.
+     *
+     * @param terms
+     *            all entry terms
+     * @param collator
+     *            ordering of the terms, or null for natural order
+     * @ensures <pre>
+     *     [index.html is written at output directory as by
+     *     generateIndexPage(collator) for an entry map with the given terms,
+     *     and the pages of a sharded index written before are deleted]
+     * </pre>
+     */
+    private void writeIndexPage(Iterable<String> terms, Collator collator) {
         StringBuilder bodyContent = new StringBuilder();
         /*
-         * getSortedStrSet ensures output sequence is naturally ordered, which
-         * is alphabetical natural order.
+         * Sorted once into an array, so each term is then read in constant
+         * time
          */
-        Sequence<String> sortedTerms = getSortedStrSet(getKeySet(this.entries));
+        SortedTermIndex sortedTerms = SortedTermIndex.of(terms, collator);
 
         bodyContent.append("<h2>Glossary</h2>\n");
         bodyContent.append("<hr>\n");
         bodyContent.append("<ul>\n");
 
-        for (int i = 0; i < sortedTerms.length(); i++) {
-            String term = sortedTerms.entry(i);
+        for (String term : sortedTerms) {
             bodyContent.append("<li><a href='").append(term).append(".html'>")
                     .append(term).append("</a></li>\n");
         }
@@ -236,12 +812,21 @@ public class GlossaryGenerator {
 
         writeHTMLFile(this.outputDirPath + "index.html", "Glossary",
                 SHARED_DEFAULT_STYLE + INDEX_PAGE_DEFAULT_STYLE,
-                bodyContent.toString());
+                bodyContent.toString(), this.gzipSiblings);
+
+        Path dir = Paths.get(this.outputDirPath);
+        try {
+            ShardedIndex.deleteShards(dir, 1);
+            PageBuffer.delete(dir.resolve(ShardedIndex.SEARCH_INDEX_FILE));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Performs all necessary operations to fully generate a glossary (for the
-     * purposes of encapsulation).
+     * Performs all necessary operations to generate a glossary (for the
+     * purposes of encapsulation), rewriting only what changed since the
+     * previous run as described for {@code generateGlossary(int)}.
      *
      * @requires inputFilePath and outputDirPath are valid filepaths to entry
      *           file and output directory respectively
@@ -250,9 +835,155 @@ public class GlossaryGenerator {
      * </pre>
      */
     public void generateGlossary() {
-        this.extractEntries();
-        this.parseAvailableEntries();
-        this.generateIndexPage();
+        this.generateGlossary(1);
+    }
+
+    /**
+     * Generates a glossary as {@code generateGlossary()} does, rendering and
+     * writing the entry pages in parallel.
+     *
+     * <p>
+     * Generation is incremental: a manifest in the output directory records,
+     * for every term, a hash of its definition, of the set of terms it links
+     * to and of the set of terms linking to it. Only the pages whose hashes
+     * differ from the previous run's (or whose files are missing) are
+     * rewritten, which includes the pages that gain or lose a link or a
+     * referrer because a term was added or removed; pages of removed terms
+     * are deleted, and the index is rewritten only when the set of terms
+     * changes or some of its files are missing.
+     * </p>
+     *
+     * <p>
+     * The input is streamed rather than loaded into the entry map: one pass
+     * reads the terms, a second finds the links of every definition (which
+     * gives both the manifest's link hashes and the referrers of every
+     * term), and a third hands each entry to the renderers as it is read, so
+     * the heap needed does not grow with the size of the definitions. A term
+     * given more than once keeps its first definition: later entries for it
+     * are skipped in every pass, so they reach neither the pages nor the
+     * index nor the manifest.
+     * </p>
+     *
+     * @param threads
+     *            number of render threads
+     * @requires inputFilePath and outputDirPath are valid filepaths to entry
+     *           file and output directory respectively, and threads > 0
+     * @ensures <pre>
+     *     [index and entry HTML pages are generated at specified output
+     *     directory]
+     * </pre>
+     */
+    public void generateGlossary(int threads) {
+        assert threads > 0 : "Violation of: threads > 0";
+
+        Path input = Paths.get(this.inputFilePath);
+        Path manifestFile = Paths.get(this.outputDirPath,
+                GlossaryManifest.FILE_NAME);
+        try {
+            /*
+             * The linker and the index need every term up front, so a first
+             * pass reads only the terms (and marks the entries that repeat a
+             * term, by position); the definitions are read in two more
+             * passes, to find the links and then to render
+             */
+            List<String> terms = new ArrayList<>();
+            BitSet repeats = new BitSet();
+            try (GlossaryInput in = new GlossaryInput(input)) {
+                HashSet<String> seen = new HashSet<>();
+                int entry = 0;
+                while (in.next()) {
+                    String term = in.term();
+                    if (seen.add(term)) {
+                        terms.add(term);
+                    } else {
+                        repeats.set(entry);
+                    }
+                    entry++;
+                }
+            }
+            TermLinker linker = new TermLinker(terms);
+            String format = this.manifestFormat();
+            GlossaryManifest previous = GlossaryManifest.read(manifestFile,
+                    format);
+            GlossaryManifest current = new GlossaryManifest(format);
+
+            /*
+             * The referrers of a page come from the other definitions, so
+             * they are all collected before any page is rendered
+             */
+            Backlinks backlinks = new Backlinks(linker.termCount());
+            try (GlossaryInput in = new GlossaryInput(input)) {
+                for (int entry = 0; in.next(); entry++) {
+                    if (!repeats.get(entry)) {
+                        String term = in.term();
+                        String definition = in.definition();
+                        int[] linked = linker.linkedTermIds(definition);
+                        current.record(term, definition,
+                                termsOf(linked, linker));
+                        backlinks.add(linker.idOf(term), linked);
+                    }
+                }
+            }
+            backlinks.build();
+
+            try (GlossaryInput in = new GlossaryInput(input)) {
+                this.writeEntryPages(action -> {
+                    for (int entry = 0; in.next(); entry++) {
+                        if (!repeats.get(entry)) {
+                            String term = in.term();
+                            current.recordReferrers(term,
+                                    referrerTerms(term, linker, backlinks));
+                            Path page = Paths
+                                    .get(this.outputDirPath + term + ".html");
+                            if (!current.sameInputs(previous, term)
+                                    || !Files.exists(page)) {
+                                action.accept(term, in.definition());
+                            }
+                        }
+                    }
+                }, linker, backlinks, threads);
+            }
+
+            for (String term : previous.terms()) {
+                if (!current.contains(term)) {
+                    PageBuffer.delete(
+                            Paths.get(this.outputDirPath + term + ".html"));
+                }
+            }
+            if (!current.sameTerms(previous)
+                    || !this.indexWritten(!terms.isEmpty())) {
+                this.writeIndex(terms);
+            }
+
+            /*
+             * Written last, so that a run that fails part-way leaves the old
+             * manifest and the next run redoes whatever it did not finish
+             */
+            current.write(manifestFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the format of the pages this generator writes, as recorded in
+     * the manifest: the page markup and styles, and the options that change
+     * the pages.
+     *
+     * @return the manifest format
+     */
+    String manifestFormat() {
+        String format = PAGE_FORMAT;
+        if (this.linkedStylesheet) {
+            format += "-linked";
+        }
+        if (this.indexLayout != SINGLE_PAGE_INDEX) {
+            format += "-index" + this.indexLayout;
+        }
+        if (this.gzipSiblings) {
+            format += "-gzip";
+        }
+        return format;
     }
 
     /**
@@ -275,22 +1006,93 @@ public class GlossaryGenerator {
      */
     public static void writeHTMLFile(String filepath, String title,
             String styleContent, String bodyContent) {
-        SimpleWriter out = new SimpleWriter1L(filepath);
-        out.println("<!DOCTYPE html>");
-        out.println("<html lang='en'>");
-        out.println("<head>");
-        out.println("<meta charset='UTF-8'>");
-        out.println("<title>" + title + "</title>");
-        out.println("<style>");
-        out.print(styleContent);
-        out.println("</style>");
-        out.println("</head>");
+        writeHTMLFile(filepath, title, styleContent, bodyContent, false);
+    }
+
+    /**
+     * Writes (or overwrites) valid HTML file at specified filepath as
+     * {@code writeHTMLFile(filepath, title, styleContent, bodyContent)} does,
+     * and its gzip-compressed sibling if asked to.
+     *
+     * @param filepath
+     *            absolute or relative filepath of output file
+     * @param title
+     *            title of HTML page
+     * @param styleContent
+     *            internal CSS of HTML page
+     * @param bodyContent
+     *            body content of HTML page
+     * @param gzipSibling
+     *            whether to also write the file gzip-compressed, with ".gz"
+     *            appended to its name
+     */
+    static void writeHTMLFile(String filepath, String title,
+            String styleContent, String bodyContent, boolean gzipSibling) {
+        /*
+         * Encoded explicitly rather than in the platform charset, so the bytes
+         * match the UTF-8 the page declares
+         */
+        byte[] page = renderHTMLPage(title, styleContent, bodyContent)
+                .getBytes(PAGE_CHARSET);
+        try {
+            PageBuffer.write(Paths.get(filepath), page, page.length,
+                    gzipSibling);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-        out.println("\n<body>");
-        out.println(bodyContent);
-        out.println("</body>");
-        out.println("</html>");
-        out.close();
+    /**
+     * Returns the text of a valid HTML page, exactly as
+     * {@code writeHTMLFile} writes it.
+     *
+     * @param title
+     *            title of HTML page
+     * @param styleContent
+     *            internal CSS of HTML page
+     * @param bodyContent
+     *            body content of HTML page
+     * @return the page
+     * @requires styleContent and bodyContent represent valid CSS and HTML
+     *           snippets respectively
+     * @ensures <pre>
+     *     [renderHTMLPage is a valid HTML page with specified internal CSS
+     *     stylings/body content and title]
+     * </pre>
+     */
+    public static String renderHTMLPage(String title, String styleContent,
+            String bodyContent) {
+        return renderPage(title, "<style>\n" + styleContent + "</style>\n",
+                bodyContent);
+    }
+
+    /**
+     * Returns the text of a valid HTML page with the given head content.
+     *
+     * @param title
+     *            title of HTML page
+     * @param headContent
+     *            elements of the head after the title (styles or links)
+     * @param bodyContent
+     *            body content of HTML page
+     * @return the page
+     */
+    private static String renderPage(String title, String headContent,
+            String bodyContent) {
+        StringBuilder page = new StringBuilder();
+        page.append("<!DOCTYPE html>\n");
+        page.append("<html lang='en'>\n");
+        page.append("<head>\n");
+        page.append("<meta charset='UTF-8'>\n");
+        page.append("<title>").append(title).append("</title>\n");
+        page.append(headContent);
+        page.append("</head>\n");
+
+        page.append("\n<body>\n");
+        page.append(bodyContent).append('\n');
+        page.append("</body>\n");
+        page.append("</html>\n");
+        return page.toString();
     }
 
     /**
@@ -308,22 +1110,32 @@ public class GlossaryGenerator {
     public static Sequence<String> getSortedStrSet(Set<String> set) {
         assert set != null : "Violation of: set is not null";
 
-        Set<String> temp = new Set1L<>();
-        temp.transferFrom(set);
-
-        Sequence<String> seq = new Sequence1L<>();
-
-        while (temp.size() > 0) {
-            int seqIndex = 0;
-            String item = temp.removeAny();
-            set.add(item);
+        return getSortedStrSet(set, null);
+    }
 
-            while (seqIndex < seq.length()
-                    && seq.entry(seqIndex).compareTo(item) < 0) {
-                seqIndex++;
-            }
+    /**
+     * Generates a sequence ordered by the given collator for a set of type
+     * {@code String}, in O(n log n) time and without modifying the set.
+     *
+     * @param set
+     *            set of type {@code String}
+     * @param collator
+     *            locale-aware ordering, or null for natural ordering
+     * @return sequence of type {@code String} sorted by collator
+     * @requires set != null
+     * @ensures <pre>
+     *     [returns a sequence of type {@code String} sorted by collator, ties
+     *     between strings the collator considers equal broken by natural
+     *     ordering]
+     * </pre>
+     */
+    public static Sequence<String> getSortedStrSet(Set<String> set,
+            Collator collator) {
+        assert set != null : "Violation of: set is not null";
 
-            seq.add(seqIndex, item);
+        Sequence<String> seq = new Sequence1L<>();
+        for (String item : SortedTermIndex.of(set, collator)) {
+            seq.add(seq.length(), item);
         }
 
         return seq;
@@ -0,0 +1,410 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Cursor over the entries of a glossary input file, read through a memory
+ * mapping or from a copy of its contents.
+ *
+ * <p>
+ * The input is a sequence of entries, each a term on one line followed by the
+ * lines of its definition and ended by a blank line (or the end of the file).
+ * The file is mapped a window at a time and scanned for line breaks byte by
+ * byte, which is safe for UTF-8 because no byte of a multi-byte character is
+ * a line break. Nothing is decoded until asked for: {@link #term()} and
+ * {@link #definition()} decode only the current entry, so a pass that only
+ * needs the terms skips the definitions at the cost of the scan, and at most
+ * one window and one entry are held in memory however large the file is.
+ * The current entry can also be copied out as UTF-8 bytes, without decoding
+ * it at all.
+ * As with {@code extractEntries}, the lines of a definition are joined with
+ * spaces and the result is trimmed.
+ * </p>
+ *
+ * <p>
+ * A mapping reflects later writes to the file, and reading a mapped page the
+ * file has since been truncated past fails with an {@code InternalError}, so
+ * a reader that must cope with the file changing under it (as
+ * {@code GlossaryWatcher} does) reads the file into an array first and scans
+ * that instead, as one window.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class GlossaryInput implements AutoCloseable {
+
+    /**
+     * Size of the mapped window; grown when one entry does not fit.
+     */
+    private static final int WINDOW_SIZE = 1 << 26;
+
+    /**
+     * Largest window that can be mapped.
+     */
+    private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Mask of an unsigned byte.
+     */
+    private static final int BYTE_MASK = 0xFF;
+
+    /**
+     * The input file, or null when reading a copy of its contents.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of the input file.
+     */
+    private final long size;
+
+    /**
+     * The mapped window, or the whole copy.
+     */
+    private ByteBuffer window;
+
+    /**
+     * File offset of the start of the window.
+     */
+    private long windowStart;
+
+    /**
+     * Size of the window to map next.
+     */
+    private int windowSize = WINDOW_SIZE;
+
+    /**
+     * Window offset of the next unread byte.
+     */
+    private int position;
+
+    /**
+     * Window offsets of the current term: start, end (exclusive).
+     */
+    private int termStart, termEnd;
+
+    /**
+     * Window offsets of the current definition's lines: start, end
+     * (exclusive, before the final line break).
+     */
+    private int definitionStart, definitionEnd;
+
+    /**
+     * Opens file for reading, positioned before the first entry.
+     *
+     * @param file
+     *            the input file
+     * @throws IOException
+     *             if the file cannot be opened
+     */
+    GlossaryInput(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = this.channel.size();
+        this.map(0);
+    }
+
+    /**
+     * Opens a copy of the contents of an input file for reading, positioned
+     * before the first entry.
+     *
+     * @param contents
+     *            the contents of the input file
+     */
+    GlossaryInput(byte[] contents) {
+        this(contents, 0);
+    }
+
+    /**
+     * Opens a copy of the contents of an input file for reading, positioned
+     * before the entry that starts at offset from.
+     *
+     * @param contents
+     *            the contents of the input file
+     * @param from
+     *            offset of the start of an entry, as returned by
+     *            {@link #offset()}
+     * @requires 0 <= from <= |contents|
+     */
+    GlossaryInput(byte[] contents, int from) {
+        this.channel = null;
+        this.size = contents.length;
+        this.window = ByteBuffer.wrap(contents);
+        this.position = from;
+    }
+
+    /**
+     * Maps the window starting at file offset start.
+     *
+     * @param start
+     *            file offset
+     */
+    private void map(long start) {
+        long length = Math.min(this.windowSize, this.size - start);
+        try {
+            this.window = this.channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.windowStart = start;
+        this.position = 0;
+    }
+
+    /**
+     * Reports whether the window ends before the file does.
+     *
+     * @return true iff bytes follow the window
+     */
+    private boolean windowTruncated() {
+        return this.windowStart + this.window.limit() < this.size;
+    }
+
+    /**
+     * Returns the window offset of the line break (or end of window) that
+     * ends the line starting at from.
+     *
+     * @param from
+     *            window offset of the start of a line
+     * @return window offset of the end of the line
+     */
+    private int lineEnd(int from) {
+        int limit = this.window.limit();
+        int i = from;
+        while (i < limit && this.window.get(i) != '\n'
+                && this.window.get(i) != '\r') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the window offset just past the line break at end, which is one
+     * of "\n", "\r\n" or "\r", or end itself at the end of the window.
+     *
+     * @param end
+     *            window offset of the end of a line
+     * @return window offset of the start of the next line
+     */
+    private int nextLine(int end) {
+        int next = end;
+        if (next < this.window.limit()) {
+            if (this.window.get(next) == '\r' && next + 1 < this.window.limit()
+                    && this.window.get(next + 1) == '\n') {
+                next++;
+            }
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * Tries to scan the entry starting at the current position.
+     *
+     * @return true iff the entry ends within the window (or the file ends)
+     */
+    private boolean scanEntry() {
+        int limit = this.window.limit();
+        /*
+         * Blank lines before a term are skipped
+         */
+        int start = this.position;
+        int end = this.lineEnd(start);
+        while (end == start && end < limit) {
+            start = this.nextLine(end);
+            end = this.lineEnd(start);
+        }
+        this.termStart = start;
+        this.termEnd = end;
+        int line = this.nextLine(end);
+        this.definitionStart = line;
+        this.definitionEnd = line;
+        boolean blank = false;
+        while (!blank && line < limit) {
+            end = this.lineEnd(line);
+            if (end == line) {
+                blank = true;
+            } else {
+                this.definitionEnd = end;
+            }
+            line = this.nextLine(end);
+        }
+        this.position = line;
+        /*
+         * A break at the very end of the window may be the first half of a
+         * "\r\n" pair, so the entry is only complete if it was followed by
+         * more bytes of the window, or the window is the end of the file
+         */
+        return (blank && line < limit) || !this.windowTruncated();
+    }
+
+    /**
+     * Advances to the next entry.
+     *
+     * @return false iff there are no more entries
+     * @throws UncheckedIOException
+     *             if the file cannot be mapped
+     */
+    boolean next() {
+        int entryStart = this.position;
+        while (!this.scanEntry()) {
+            /*
+             * The entry runs past the window: map a new window starting with
+             * it, larger if the entry already filled a whole window
+             */
+            if (entryStart == 0) {
+                if (this.windowSize == MAX_WINDOW_SIZE) {
+                    throw new IllegalStateException(
+                            "Entry too large to map at offset "
+                                    + this.windowStart);
+                }
+                this.windowSize = (int) Math.min(2L * this.windowSize,
+                        MAX_WINDOW_SIZE);
+            }
+            this.map(this.windowStart + entryStart);
+            entryStart = 0;
+        }
+        return this.termEnd > this.termStart
+                || this.definitionEnd > this.definitionStart;
+    }
+
+    /**
+     * Returns the file offset just past the current entry (and the blank
+     * line that ends it), where scanning for the next entry starts.
+     *
+     * @return offset of the next unread byte
+     */
+    long offset() {
+        return this.windowStart + this.position;
+    }
+
+    /**
+     * Returns the term of the current entry.
+     *
+     * @return the term
+     * @requires next() returned true
+     */
+    String term() {
+        byte[] bytes = new byte[this.termEnd - this.termStart];
+        this.window.get(this.termStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the definition of the current entry, its lines joined with
+     * spaces and trimmed.
+     *
+     * @return the definition
+     * @requires next() returned true
+     */
+    String definition() {
+        int length = Math.max(0, this.definitionEnd - this.definitionStart);
+        byte[] bytes = new byte[length];
+        int n = 0;
+        int i = this.definitionStart;
+        while (i < this.definitionEnd) {
+            byte b = this.window.get(i);
+            if (b == '\r' || b == '\n') {
+                bytes[n] = ' ';
+                i = this.nextLine(i);
+            } else {
+                bytes[n] = b;
+                i++;
+            }
+            n++;
+        }
+        return new String(bytes, 0, n, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Returns the length of the term of the current entry, in bytes.
+     *
+     * @return length of its UTF-8 encoding
+     * @requires next() returned true
+     */
+    int termLength() {
+        return this.termEnd - this.termStart;
+    }
+
+    /**
+     * Copies the UTF-8 bytes of the term of the current entry into dest.
+     *
+     * @param dest
+     *            destination
+     * @param offset
+     *            index in dest of the first byte
+     * @return number of bytes copied, termLength()
+     * @updates dest
+     * @requires next() returned true and offset + termLength() <= |dest|
+     */
+    int copyTerm(byte[] dest, int offset) {
+        int length = this.termLength();
+        this.window.get(this.termStart, dest, offset, length);
+        return length;
+    }
+
+    /**
+     * Returns the number of bytes of the current entry's definition lines,
+     * line breaks included, which bounds the length of its definition.
+     *
+     * @return at least the length of the definition's UTF-8 encoding
+     * @requires next() returned true
+     */
+    int definitionLength() {
+        return Math.max(0, this.definitionEnd - this.definitionStart);
+    }
+
+    /**
+     * Copies the UTF-8 bytes of the definition of the current entry into
+     * dest, its lines joined with spaces and trimmed, exactly as
+     * {@link #definition()} would encode.
+     *
+     * @param dest
+     *            destination
+     * @param offset
+     *            index in dest of the first byte
+     * @return number of bytes copied
+     * @updates dest
+     * @requires next() returned true and offset + definitionLength() <=
+     *           |dest|
+     */
+    int copyDefinition(byte[] dest, int offset) {
+        int n = offset;
+        int i = this.definitionStart;
+        while (i < this.definitionEnd) {
+            byte b = this.window.get(i);
+            if (b == '\r' || b == '\n') {
+                dest[n] = ' ';
+                i = this.nextLine(i);
+            } else {
+                dest[n] = b;
+                i++;
+            }
+            n++;
+        }
+        /*
+         * As String.trim, drop characters up to ' ' at both ends; in UTF-8
+         * those are exactly the bytes up to ' ', as every byte of a
+         * multi-byte character is at least 0x80
+         */
+        int start = offset;
+        while (start < n && (dest[start] & BYTE_MASK) <= ' ') {
+            start++;
+        }
+        while (n > start && (dest[n - 1] & BYTE_MASK) <= ' ') {
+            n--;
+        }
+        System.arraycopy(dest, start, dest, offset, n - start);
+        return n - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,413 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Record of the inputs each entry page of a generated glossary was rendered
+ * from, kept in the output directory so that a later run only rewrites the
+ * pages whose inputs changed.
+ *
+ * <p>
+ * An entry page is determined by its term, its definition, the set of terms
+ * its definition links to and the set of terms whose definitions link to it:
+ * a change elsewhere in the glossary can only change a page by changing one
+ * of those sets. So for every term the manifest keeps a hash of the
+ * definition and hashes of the two sorted sets. The header line holds a
+ * format string that covers everything else a page depends on (markup and
+ * styles); a manifest with a different format is treated as empty, so every
+ * page is rewritten.
+ * </p>
+ *
+ * <p>
+ * The file is plain UTF-8 text: the header, then one line per term holding
+ * the three hashes in hex and the term, separated by single spaces. A
+ * long-running generator that changes a few pages at a time appends the
+ * lines of the terms it changed instead of writing the whole file again, and
+ * marks a removed term with a line of three {@code -} in place of the hashes;
+ * when the file is read, a later line for a term replaces an earlier one. A
+ * last line without a line break was cut short by an interrupted append; it
+ * is ignored, and dropped by the next append.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class GlossaryManifest {
+
+    /**
+     * Name of the manifest file in the output directory.
+     */
+    static final String FILE_NAME = ".glossary-manifest";
+
+    /**
+     * First word of the header line.
+     */
+    private static final String HEADER = "glossary-manifest";
+
+    /**
+     * Number of bytes of each SHA-256 hash kept.
+     */
+    private static final int HASH_BYTES = 16;
+
+    /**
+     * Number of hashes kept per term.
+     */
+    private static final int HASHES = 3;
+
+    /**
+     * Hashes of a line that removes its term.
+     */
+    private static final String REMOVED = "- - -";
+
+    /**
+     * Format of the pages the manifest describes.
+     */
+    private final String format;
+
+    /**
+     * Hashes ("definition links referrers") by term.
+     */
+    private final Map<String, String> hashes = new HashMap<>();
+
+    /**
+     * Digest used by {@link #record}.
+     */
+    private final MessageDigest digest = newDigest();
+
+    /**
+     * Constructs an empty manifest.
+     *
+     * @param format
+     *            format of the pages; must not contain line breaks
+     */
+    GlossaryManifest(String format) {
+        this.format = format;
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     *
+     * @return the digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            /*
+             * Every Java platform is required to support SHA-256
+             */
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the (truncated) SHA-256 hash of text, in hex.
+     *
+     * @param digest
+     *            digest to use
+     * @param text
+     *            text to hash
+     * @return hash of the UTF-8 encoding of text
+     */
+    private static String hash(MessageDigest digest, String text) {
+        byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(bytes, 0, HASH_BYTES);
+    }
+
+    /**
+     * Returns a short fingerprint of text, suitable as part of a format.
+     *
+     * @param text
+     *            text to fingerprint
+     * @return hash of text, in hex
+     */
+    static String fingerprint(String text) {
+        return hash(newDigest(), text);
+    }
+
+    /**
+     * Reads the manifest in file, or returns an empty one if there is none or
+     * it was written for a different format.
+     *
+     * @param file
+     *            the manifest file
+     * @param format
+     *            format of the pages about to be generated
+     * @return the manifest read
+     * @throws IOException
+     *             if the file exists but cannot be read
+     */
+    static GlossaryManifest read(Path file, String format) throws IOException {
+        GlossaryManifest manifest = new GlossaryManifest(format);
+        try {
+            String text = Files.readString(file, StandardCharsets.UTF_8);
+            int lineEnd = text.indexOf('\n');
+            if (lineEnd >= 0 && (HEADER + " " + format)
+                    .equals(line(text, 0, lineEnd))) {
+                /*
+                 * Only lines ended by a line break are complete
+                 */
+                int lineStart = lineEnd + 1;
+                lineEnd = text.indexOf('\n', lineStart);
+                while (lineEnd >= 0) {
+                    manifest.readLine(line(text, lineStart, lineEnd));
+                    lineStart = lineEnd + 1;
+                    lineEnd = text.indexOf('\n', lineStart);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            /*
+             * No earlier run: nothing is up to date
+             */
+        }
+        return manifest;
+    }
+
+    /**
+     * Returns the line text[start, end), without the '\r' of a "\r\n" line
+     * break.
+     *
+     * @param text
+     *            text of the file
+     * @param start
+     *            start of the line
+     * @param end
+     *            position of the '\n' ending the line
+     * @return the line
+     */
+    private static String line(String text, int start, int end) {
+        int lineEnd = end;
+        if (lineEnd > start && text.charAt(lineEnd - 1) == '\r') {
+            lineEnd--;
+        }
+        return text.substring(start, lineEnd);
+    }
+
+    /**
+     * Applies one term line of a manifest file to this manifest.
+     *
+     * @param line
+     *            the line, without its line break
+     */
+    private void readLine(String line) {
+        int end = line.indexOf(' ');
+        for (int k = 1; k < HASHES && end >= 0; k++) {
+            end = line.indexOf(' ', end + 1);
+        }
+        if (end > 0) {
+            String term = line.substring(end + 1);
+            String recorded = line.substring(0, end);
+            if (recorded.equals(REMOVED)) {
+                this.hashes.remove(term);
+            } else {
+                this.hashes.put(term, recorded);
+            }
+        }
+    }
+
+    /**
+     * Records the inputs of the page for term read from its own entry; the
+     * referrers are recorded afterwards by {@link #recordReferrers}.
+     *
+     * @param term
+     *            entry term; must not contain line breaks
+     * @param definition
+     *            entry definition
+     * @param linkedTerms
+     *            the terms the definition links to, in any order and with
+     *            any repeats
+     */
+    void record(String term, String definition,
+            Collection<String> linkedTerms) {
+        String links = String.join("\n", new TreeSet<>(linkedTerms));
+        this.hashes.put(term, hash(this.digest, definition) + " "
+                + hash(this.digest, links));
+    }
+
+    /**
+     * Completes the inputs of the page for term with the terms that link to
+     * it, replacing the referrers recorded before for term, if any.
+     *
+     * @param term
+     *            entry term
+     * @param referrers
+     *            the terms whose definitions link to term, in any order and
+     *            with any repeats
+     * @requires record has been called for term
+     */
+    void recordReferrers(String term, Collection<String> referrers) {
+        String links = String.join("\n", new TreeSet<>(referrers));
+        String recorded = this.hashes.get(term);
+        int end = recorded.indexOf(' ', recorded.indexOf(' ') + 1);
+        if (end >= 0) {
+            recorded = recorded.substring(0, end);
+        }
+        this.hashes.put(term, recorded + " " + hash(this.digest, links));
+    }
+
+    /**
+     * Reports whether term was recorded here with the same inputs as in
+     * other.
+     *
+     * @param other
+     *            manifest to compare with
+     * @param term
+     *            the term
+     * @return true iff both manifests hold term with equal hashes
+     */
+    boolean sameInputs(GlossaryManifest other, String term) {
+        String mine = this.hashes.get(term);
+        return mine != null && mine.equals(other.hashes.get(term));
+    }
+
+    /**
+     * Copies the inputs recorded in changes into this manifest, replacing
+     * those recorded here for the same terms.
+     *
+     * @param changes
+     *            manifest of the same format
+     */
+    void update(GlossaryManifest changes) {
+        this.hashes.putAll(changes.hashes);
+    }
+
+    /**
+     * Removes term from this manifest, if it is recorded.
+     *
+     * @param term
+     *            the term
+     */
+    void remove(String term) {
+        this.hashes.remove(term);
+    }
+
+    /**
+     * Reports whether term is recorded here.
+     *
+     * @param term
+     *            the term
+     * @return true iff term is in this manifest
+     */
+    boolean contains(String term) {
+        return this.hashes.containsKey(term);
+    }
+
+    /**
+     * Reports whether this manifest and other hold the same terms.
+     *
+     * @param other
+     *            manifest to compare with
+     * @return true iff the term sets are equal
+     */
+    boolean sameTerms(GlossaryManifest other) {
+        return this.hashes.keySet().equals(other.hashes.keySet());
+    }
+
+    /**
+     * Returns the number of recorded terms.
+     *
+     * @return number of terms
+     */
+    int size() {
+        return this.hashes.size();
+    }
+
+    /**
+     * Returns the recorded terms.
+     *
+     * @return unmodifiable view of the terms
+     */
+    Collection<String> terms() {
+        return Collections.unmodifiableSet(this.hashes.keySet());
+    }
+
+    /**
+     * Writes this manifest to file, replacing it in one step so that an
+     * interrupted run leaves the previous manifest in place.
+     *
+     * @param file
+     *            the manifest file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    void write(Path file) throws IOException {
+        List<String> terms = new ArrayList<>(this.hashes.keySet());
+        Collections.sort(terms);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp,
+                StandardCharsets.UTF_8)) {
+            out.write(HEADER + " " + this.format);
+            out.newLine();
+            for (String term : terms) {
+                out.write(this.hashes.get(term));
+                out.write(' ');
+                out.write(term);
+                out.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends the inputs recorded here, and the removal of the terms in
+     * removed, to the manifest in file, so that reading it gives the manifest
+     * it held updated with this one.
+     *
+     * @param file
+     *            manifest file of the same format, written by {@link #write}
+     * @param removed
+     *            terms to remove; none is recorded here
+     * @return number of lines appended
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    int append(Path file, Collection<String> removed) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Map.Entry<String, String> e : this.hashes.entrySet()) {
+            lines.append(e.getValue()).append(' ').append(e.getKey())
+                    .append('\n');
+        }
+        for (String term : removed) {
+            lines.append(REMOVED).append(' ').append(term).append('\n');
+        }
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            /*
+             * An interrupted append may have left a line without its break,
+             * which is dropped so that it does not run into the first line
+             * appended now
+             */
+            long end = out.size();
+            ByteBuffer last = ByteBuffer.allocate(1);
+            while (end > 0 && out.read(last.clear(), end - 1) == 1
+                    && last.get(0) != '\n') {
+                end--;
+            }
+            out.truncate(end);
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(
+                    CharBuffer.wrap(lines));
+            while (bytes.hasRemaining()) {
+                end += out.write(bytes, end);
+            }
+        }
+        return this.hashes.size() + removed.size();
+    }
+}
@@ -0,0 +1,820 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import components.simplereader.SimpleReader;
+import components.simplereader.SimpleReader1L;
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Long-running glossary generator that watches its input file and, whenever
+ * the file changes, brings the generated glossary up to date by rewriting
+ * only the pages the change affects.
+ *
+ * <p>
+ * The entries (compactly, in an {@link EntryStore}), the term linker, the
+ * terms each definition links to, their referrers and the manifest of the
+ * generated pages are kept in memory between updates. An update reads a
+ * snapshot of the input (cheap next to linking it, and unaffected by the
+ * file being rewritten meanwhile) and compares it byte by byte with the one
+ * before: the entries before the first changed byte and after the last are
+ * copied over as they are, and only the entries in between are scanned
+ * again. Every term keeps its linker id for as long as it is in the input,
+ * so the links of the other definitions stay valid when terms are added or
+ * removed. Only the definitions that changed, the definitions that linked a
+ * removed term and the definitions holding an added term are linked again,
+ * and only their pages and the pages of the terms they linked or now link
+ * (whose referrers may have changed) are checked against the manifest.
+ * Changed manifest lines are appended to the manifest file, which is only
+ * written whole when the appended lines outnumber its terms, so a later
+ * {@code GlossaryGenerator.generateGlossary} run on the same directory stays
+ * incremental.
+ * </p>
+ *
+ * <p>
+ * So an edit costs time in proportion to the entries it touches and the
+ * pages it changes, plus a few passes over flat arrays (comparing the
+ * snapshots, copying the entry store and rebuilding the referrer index).
+ * Adding or removing a term also compiles the linker again and rewrites the
+ * index, both in proportion to the number of terms, and an input that gives
+ * a term more than once is scanned whole on every update, since which of its
+ * entries counts depends on all of them.
+ * </p>
+ *
+ * <p>
+ * Changes are picked up with a {@link WatchService} on the input's directory.
+ * Editors and scripts often write a file in several steps, so after the
+ * first change an update waits until no further change has been seen for a
+ * debounce window, and a whole burst of changes causes one update.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+public final class GlossaryWatcher implements AutoCloseable {
+
+    /**
+     * Default quiet time, in milliseconds, to wait for after a change before
+     * updating.
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+    /**
+     * Nanoseconds per millisecond.
+     */
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /**
+     * Most terms added in one update that are looked for in every
+     * definition; when more are added, every definition is linked again.
+     */
+    private static final int MAX_TERMS_SEARCHED = 16;
+
+    /**
+     * Number of bytes compared at a time when looking for the end of a
+     * change.
+     */
+    private static final int COMPARE_BLOCK = 1 << 12;
+
+    /**
+     * Initial capacity of the entry end offsets.
+     */
+    private static final int INITIAL_ENDS = 16;
+
+    /**
+     * Generator whose pages are kept up to date.
+     */
+    private final GlossaryGenerator generator;
+
+    /**
+     * The input file.
+     */
+    private final Path input;
+
+    /**
+     * The output directory.
+     */
+    private final Path outputDir;
+
+    /**
+     * Render threads per update.
+     */
+    private final int threads;
+
+    /**
+     * Quiet time to wait for after a change, in milliseconds.
+     */
+    private final long debounceMillis;
+
+    /**
+     * Watch service on the input's directory.
+     */
+    private final WatchService watchService;
+
+    /**
+     * Inputs of the pages in the output directory.
+     */
+    private final GlossaryManifest manifest;
+
+    /**
+     * Whether an update has completed.
+     */
+    private boolean updated;
+
+    /**
+     * The input as last read.
+     */
+    private byte[] contents = new byte[0];
+
+    /**
+     * Entries as last read, in input order.
+     */
+    private EntryStore entries = new EntryStore();
+
+    /**
+     * Offset in contents just past the entry of each slot; kept only while
+     * repeats is false.
+     */
+    private int[] ends = new int[0];
+
+    /**
+     * Whether the input as last read gives a term more than once.
+     */
+    private boolean repeats;
+
+    /**
+     * Id in linker of the term of each slot.
+     */
+    private int[] ids = new int[0];
+
+    /**
+     * Terms by id, with the empty string at the ids of removed terms.
+     */
+    private List<String> terms = new ArrayList<>();
+
+    /**
+     * Ids of removed terms, free to be given to added ones.
+     */
+    private Deque<Integer> freeIds = new ArrayDeque<>();
+
+    /**
+     * Linker over terms.
+     */
+    private TermLinker linker = new TermLinker(this.terms);
+
+    /**
+     * Ids of the terms each definition links to, by id of its term, or null
+     * at free ids.
+     */
+    private int[][] links = new int[0][];
+
+    /**
+     * Referrers of every term, by id.
+     */
+    private Backlinks backlinks = new Backlinks(0);
+
+    /**
+     * Number of lines appended to the manifest file since it was last written
+     * whole.
+     */
+    private int journalLines;
+
+    /**
+     * Entries of a new snapshot of the input and how they line up with the
+     * entries kept: the slots before from, and the slots from newTo on, hold
+     * the same entries as the kept slots before from and from oldTo on.
+     */
+    private static final class Snapshot {
+
+        /**
+         * The entries, in input order.
+         */
+        private final EntryStore entries = new EntryStore();
+
+        /**
+         * Offset in the input just past the entry of each slot.
+         */
+        private int[] ends = new int[INITIAL_ENDS];
+
+        /**
+         * Whether the input gives a term more than once.
+         */
+        private boolean repeats;
+
+        /**
+         * First slot scanned again.
+         */
+        private int from;
+
+        /**
+         * End of the slots scanned again.
+         */
+        private int newTo;
+
+        /**
+         * End of the kept slots they replace.
+         */
+        private int oldTo;
+
+        /**
+         * Records the end offset of slot.
+         *
+         * @param slot
+         *            the slot
+         * @param end
+         *            offset just past its entry
+         */
+        private void setEnd(int slot, int end) {
+            if (slot == this.ends.length) {
+                this.ends = Arrays.copyOf(this.ends, 2 * slot);
+            }
+            this.ends[slot] = end;
+        }
+    }
+
+    /**
+     * Constructs a watcher keeping the glossary generated from the file at
+     * inPath up to date in the folder at outPath. Nothing is generated until
+     * the first {@code update} or {@code watch}.
+     *
+     * @param inPath
+     *            {@code String} representing input file filepath
+     * @param outPath
+     *            {@code String} representing output folder filepath
+     * @param threads
+     *            number of render threads
+     * @param debounceMillis
+     *            quiet time to wait for after a change, in milliseconds
+     * @requires threads > 0 and debounceMillis >= 0
+     */
+    public GlossaryWatcher(String inPath, String outPath, int threads,
+            long debounceMillis) {
+        assert threads > 0 : "Violation of: threads > 0";
+        assert debounceMillis >= 0 : "Violation of: debounceMillis >= 0";
+
+        this.generator = new GlossaryGenerator(inPath, outPath);
+        this.input = Paths.get(inPath).toAbsolutePath();
+        this.outputDir = Paths.get(outPath);
+        this.threads = threads;
+        this.debounceMillis = debounceMillis;
+        this.backlinks.build();
+        try {
+            this.manifest = GlossaryManifest.read(
+                    this.outputDir.resolve(GlossaryManifest.FILE_NAME),
+                    this.generator.manifestFormat());
+            this.watchService = this.input.getFileSystem().newWatchService();
+            this.input.getParent().register(this.watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the page of term.
+     *
+     * @param term
+     *            entry term
+     * @return path of the page
+     */
+    private Path page(String term) {
+        return this.outputDir.resolve(term + ".html");
+    }
+
+    /**
+     * Scans the whole input.
+     *
+     * @param newContents
+     *            the input
+     * @return its entries, all of them scanned again
+     */
+    private Snapshot scan(byte[] newContents) {
+        Snapshot snapshot = new Snapshot();
+        EntryStore newEntries = snapshot.entries;
+        try (GlossaryInput in = new GlossaryInput(newContents)) {
+            while (in.next()) {
+                int size = newEntries.size();
+                int slot = newEntries.add(in);
+                if (slot == size) {
+                    snapshot.setEnd(slot, (int) in.offset());
+                } else {
+                    snapshot.repeats = true;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        snapshot.newTo = newEntries.size();
+        snapshot.oldTo = this.entries.size();
+        return snapshot;
+    }
+
+    /**
+     * Returns the first kept slot whose entry is scanned from the same bytes
+     * as the one in the new input that starts at position, if the rest of the
+     * new input is the same as the rest of the old one from there.
+     *
+     * @param position
+     *            offset in the new input of the start of an entry
+     * @param shift
+     *            length of the new input less that of the old one
+     * @param suffixStart
+     *            offset in the new input from which both inputs end alike
+     * @return the kept slot, or -1 if there is none
+     */
+    private int resumeSlot(int position, int shift, int suffixStart) {
+        int slot = -1;
+        if (position >= suffixStart) {
+            int oldPosition = position - shift;
+            if (oldPosition == 0) {
+                slot = 0;
+            } else {
+                int k = Arrays.binarySearch(this.ends, 0, this.entries.size(),
+                        oldPosition);
+                if (k >= 0) {
+                    slot = k + 1;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Reads the entries of newContents by scanning only those in the part
+     * that differs from the input as last read, copying the others from the
+     * entries kept.
+     *
+     * @param newContents
+     *            the input
+     * @return its entries, or null if a term given more than once was met (so
+     *         the input must be scanned whole)
+     * @requires the input as last read gives no term more than once
+     */
+    private Snapshot splice(byte[] newContents) {
+        byte[] old = this.contents;
+        int oldSize = this.entries.size();
+        int prefix = Arrays.mismatch(old, newContents);
+        if (prefix < 0) {
+            prefix = old.length;
+        }
+        /*
+         * The common suffix is found a block at a time, which is as fast as
+         * the mismatch that found the prefix, then byte by byte
+         */
+        int most = Math.min(old.length, newContents.length) - prefix;
+        int suffix = 0;
+        while (suffix + COMPARE_BLOCK <= most && Arrays.equals(old,
+                old.length - suffix - COMPARE_BLOCK, old.length - suffix,
+                newContents, newContents.length - suffix - COMPARE_BLOCK,
+                newContents.length - suffix)) {
+            suffix += COMPARE_BLOCK;
+        }
+        while (suffix < most && old[old.length - 1 - suffix]
+                == newContents[newContents.length - 1 - suffix]) {
+            suffix++;
+        }
+        int shift = newContents.length - old.length;
+
+        /*
+         * Scanning an entry reads up to the byte just past it, so the entries
+         * before that byte reaches the first change are the same
+         */
+        Snapshot snapshot = new Snapshot();
+        EntryStore newEntries = snapshot.entries;
+        int from = 0;
+        while (from < oldSize && this.ends[from] < prefix) {
+            snapshot.setEnd(from, this.ends[from]);
+            from++;
+        }
+        snapshot.from = from;
+        newEntries.addAll(this.entries, 0, from);
+        int position = 0;
+        if (from > 0) {
+            position = this.ends[from - 1];
+        }
+        int suffixStart = newContents.length - suffix;
+        int oldTo = this.resumeSlot(position, shift, suffixStart);
+        boolean distinct = true;
+        try (GlossaryInput in = new GlossaryInput(newContents, position)) {
+            while (distinct && oldTo < 0 && in.next()) {
+                int size = newEntries.size();
+                distinct = newEntries.add(in) == size;
+                position = (int) in.offset();
+                snapshot.setEnd(size, position);
+                oldTo = this.resumeSlot(position, shift, suffixStart);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (oldTo < 0) {
+            oldTo = oldSize;
+        }
+        snapshot.newTo = newEntries.size();
+        snapshot.oldTo = oldTo;
+        distinct = distinct && newEntries.addAll(this.entries, oldTo, oldSize);
+        if (distinct) {
+            for (int slot = oldTo; slot < oldSize; slot++) {
+                snapshot.setEnd(slot - oldTo + snapshot.newTo,
+                        this.ends[slot] + shift);
+            }
+        } else {
+            snapshot = null;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the input and rewrites the pages whose inputs changed since the
+     * last update (or, on the first, since the manifest was written),
+     * deleting the pages of removed terms and rewriting the index if the set
+     * of terms changed. If the input cannot be read or a page cannot be
+     * written, the state kept is left as it was, so the next update starts
+     * again from the last one that completed.
+     *
+     * @return number of entry pages written
+     * @throws UncheckedIOException
+     *             if the input cannot be read or the output cannot be written
+     * @ensures <pre>
+     *     [the output directory holds the glossary generateGlossary would
+     *     generate from the input as read]
+     * </pre>
+     */
+    int update() {
+        /*
+         * Read a snapshot rather than map the file: it may be rewritten while
+         * it is scanned, and a mapping truncated under the scan fails with an
+         * InternalError instead of an IOException
+         */
+        byte[] newContents;
+        try {
+            newContents = Files.readAllBytes(this.input);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int pages = 0;
+        if (!this.updated || !Arrays.equals(newContents, this.contents)) {
+            Snapshot snapshot = null;
+            if (!this.repeats) {
+                snapshot = this.splice(newContents);
+            }
+            if (snapshot == null) {
+                snapshot = this.scan(newContents);
+            }
+            pages = this.update(newContents, snapshot);
+        }
+        return pages;
+    }
+
+    /**
+     * Brings the glossary and the state kept up to date with a new snapshot
+     * of the input.
+     *
+     * @param newContents
+     *            the input
+     * @param snapshot
+     *            its entries
+     * @return number of entry pages written
+     * @throws UncheckedIOException
+     *             if the output cannot be written
+     */
+    private int update(byte[] newContents, Snapshot snapshot) {
+        EntryStore newEntries = snapshot.entries;
+        int size = newEntries.size();
+        int oldSize = this.entries.size();
+
+        /*
+         * Terms kept keep their ids; added terms take free ids, removed terms
+         * free theirs only after this update, so that no id means two terms
+         * within it
+         */
+        List<String> newTerms = new ArrayList<>(this.terms);
+        Deque<Integer> newFreeIds = new ArrayDeque<>(this.freeIds);
+        int[] newIds = new int[size];
+        System.arraycopy(this.ids, 0, newIds, 0, snapshot.from);
+        System.arraycopy(this.ids, snapshot.oldTo, newIds, snapshot.newTo,
+                oldSize - snapshot.oldTo);
+        boolean[] relink = new boolean[size];
+        List<Integer> added = new ArrayList<>();
+        for (int slot = snapshot.from; slot < snapshot.newTo; slot++) {
+            int oldSlot = this.entries.find(newEntries, slot);
+            if (oldSlot >= 0) {
+                newIds[slot] = this.ids[oldSlot];
+                relink[slot] = !newEntries.sameDefinition(slot, this.entries,
+                        oldSlot);
+            } else {
+                String term = newEntries.term(slot);
+                if (newFreeIds.isEmpty()) {
+                    newIds[slot] = newTerms.size();
+                    newTerms.add(term);
+                } else {
+                    newIds[slot] = newFreeIds.pop();
+                    newTerms.set(newIds[slot], term);
+                }
+                relink[slot] = true;
+                added.add(slot);
+            }
+        }
+        List<Integer> removedIds = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        for (int oldSlot = snapshot.from; oldSlot < snapshot.oldTo; oldSlot++) {
+            if (newEntries.find(this.entries, oldSlot) < 0) {
+                int id = this.ids[oldSlot];
+                newTerms.set(id, "");
+                removedIds.add(id);
+                removed.add(this.entries.term(oldSlot));
+            }
+        }
+        if (!this.updated) {
+            /*
+             * Pages of terms removed before this watcher started
+             */
+            for (String term : this.manifest.terms()) {
+                if (newEntries.find(term) < 0) {
+                    removed.add(term);
+                }
+            }
+        }
+        newFreeIds.addAll(removedIds);
+        int[] slotOf = new int[newTerms.size()];
+        Arrays.fill(slotOf, -1);
+        for (int slot = 0; slot < size; slot++) {
+            slotOf[newIds[slot]] = slot;
+        }
+
+        /*
+         * A definition's links can only change if it changed, linked a
+         * removed term or holds an added one
+         */
+        TermLinker newLinker = this.linker;
+        if (!added.isEmpty() || !removedIds.isEmpty()) {
+            newLinker = new TermLinker(newTerms);
+        }
+        for (int id : removedIds) {
+            for (int referrer : this.backlinks.referrers(id)) {
+                if (slotOf[referrer] >= 0) {
+                    relink[slotOf[referrer]] = true;
+                }
+            }
+        }
+        if (added.size() > MAX_TERMS_SEARCHED) {
+            Arrays.fill(relink, true);
+        } else {
+            for (int addedSlot : added) {
+                byte[] term = newEntries.term(addedSlot)
+                        .getBytes(StandardCharsets.UTF_8);
+                for (int slot = 0; slot < size; slot++) {
+                    relink[slot] = relink[slot]
+                            || newEntries.definitionContains(slot, term);
+                }
+            }
+        }
+
+        int[][] newLinks = Arrays.copyOf(this.links, newTerms.size());
+        boolean[] affected = new boolean[newTerms.size()];
+        boolean linksChanged = !removedIds.isEmpty();
+        for (int id : removedIds) {
+            /*
+             * The terms it linked lost it as a referrer
+             */
+            for (int target : this.links[id]) {
+                affected[target] = true;
+            }
+            newLinks[id] = null;
+        }
+        StringBuilder definition = new StringBuilder();
+        for (int slot = 0; slot < size; slot++) {
+            if (relink[slot]) {
+                int id = newIds[slot];
+                definition.setLength(0);
+                newEntries.appendDefinition(slot, definition);
+                int[] targets = newLinker.linkedTermIds(definition);
+                /*
+                 * The terms it linked and the terms it links now may have
+                 * lost or gained it as a referrer
+                 */
+                if (id < this.links.length && this.links[id] != null) {
+                    for (int target : this.links[id]) {
+                        affected[target] = true;
+                    }
+                }
+                for (int target : targets) {
+                    affected[target] = true;
+                }
+                affected[id] = true;
+                newLinks[id] = targets;
+                linksChanged = true;
+            }
+        }
+        Backlinks newBacklinks = this.backlinks;
+        if (linksChanged) {
+            newBacklinks = new Backlinks(newTerms.size());
+            for (int slot = 0; slot < size; slot++) {
+                newBacklinks.add(newIds[slot], newLinks[newIds[slot]]);
+            }
+            newBacklinks.build();
+        }
+
+        GlossaryManifest changes = new GlossaryManifest(
+                this.generator.manifestFormat());
+        List<Integer> stale = new ArrayList<>();
+        boolean termsAdded = false;
+        for (int id = 0; id < affected.length; id++) {
+            if (affected[id] && slotOf[id] >= 0) {
+                int slot = slotOf[id];
+                String term = newEntries.term(slot);
+                changes.record(term, newEntries.definition(slot),
+                        GlossaryGenerator.termsOf(newLinks[id], newLinker));
+                changes.recordReferrers(term, GlossaryGenerator
+                        .referrerTerms(term, newLinker, newBacklinks));
+                termsAdded = termsAdded || !this.manifest.contains(term);
+                if (!changes.sameInputs(this.manifest, term)
+                        || !Files.exists(this.page(term))) {
+                    stale.add(slot);
+                }
+            }
+        }
+        this.generator.writeEntryPages(action -> {
+            for (int slot : stale) {
+                action.accept(newEntries.term(slot),
+                        newEntries.definition(slot));
+            }
+        }, newLinker, newBacklinks, this.threads);
+
+        int journal = this.journalLines;
+        try {
+            for (String term : removed) {
+                PageBuffer.delete(this.page(term));
+            }
+            if (termsAdded || !removed.isEmpty()
+                    || !this.generator.indexWritten(size > 0)) {
+                this.generator.writeIndex(newEntries.terms());
+            }
+            for (String term : removed) {
+                this.manifest.remove(term);
+            }
+            this.manifest.update(changes);
+            Path file = this.outputDir.resolve(GlossaryManifest.FILE_NAME);
+            int lines = changes.size() + removed.size();
+            if (!this.updated || journal + lines > this.manifest.size()) {
+                this.manifest.write(file);
+                journal = 0;
+            } else if (!stale.isEmpty() || !removed.isEmpty()) {
+                journal += changes.append(file, removed);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.updated = true;
+        this.contents = newContents;
+        this.entries = newEntries;
+        this.ends = snapshot.ends;
+        this.repeats = snapshot.repeats;
+        this.ids = newIds;
+        this.terms = newTerms;
+        this.freeIds = newFreeIds;
+        this.linker = newLinker;
+        this.links = newLinks;
+        this.backlinks = newBacklinks;
+        this.journalLines = journal;
+        return stale.size();
+    }
+
+    /**
+     * Reports whether the events of key include a change to the input (or
+     * may have, if events were lost), and resets key.
+     *
+     * @param key
+     *            signalled key of the input's directory
+     * @return true iff the input may have changed
+     * @updates key
+     */
+    private boolean inputChanged(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed = changed
+                    || event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || this.input.getFileName().equals(event.context());
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * Updates the glossary and reports the outcome to out; an input that
+     * cannot be read (for instance while it is being replaced) is reported
+     * and left for the next change.
+     *
+     * @param out
+     *            the output stream
+     * @updates out
+     */
+    private void updateAndReport(SimpleWriter out) {
+        long start = System.nanoTime();
+        try {
+            int pages = this.update();
+            long millis = (System.nanoTime() - start) / NANOS_PER_MILLI;
+            out.println("Updated " + pages + " page(s) in " + millis
+                    + " ms.");
+        } catch (UncheckedIOException e) {
+            out.println("Could not update glossary: "
+                    + e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * Brings the glossary up to date, then updates it after every change to
+     * the input until this watcher is closed or the thread is interrupted,
+     * reporting every update to out.
+     *
+     * @param out
+     *            the output stream
+     * @updates out
+     */
+    public void watch(SimpleWriter out) {
+        this.updateAndReport(out);
+        boolean watching = true;
+        while (watching) {
+            try {
+                boolean changed = this.inputChanged(this.watchService.take());
+                if (changed) {
+                    /*
+                     * Wait for a quiet window, so a burst of writes causes a
+                     * single update
+                     */
+                    WatchKey more = this.watchService.poll(this.debounceMillis,
+                            TimeUnit.MILLISECONDS);
+                    while (more != null) {
+                        this.inputChanged(more);
+                        more = this.watchService.poll(this.debounceMillis,
+                                TimeUnit.MILLISECONDS);
+                    }
+                    this.updateAndReport(out);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                watching = false;
+            } catch (ClosedWatchServiceException e) {
+                watching = false;
+            }
+        }
+    }
+
+    /**
+     * Stops watching; a thread in {@code watch} returns.
+     */
+    @Override
+    public void close() {
+        try {
+            this.watchService.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Main method. Takes the input file and output folder as arguments, or
+     * prompts for them, and keeps the glossary up to date until stopped.
+     *
+     * @param args
+     *            the input filepath and the output folder filepath, or none
+     */
+    public static void main(String[] args) {
+        SimpleWriter consoleOut = new SimpleWriter1L();
+        String inputPath;
+        String outputPath;
+        if (args.length == 2) {
+            inputPath = args[0];
+            outputPath = args[1];
+        } else {
+            SimpleReader consoleIn = new SimpleReader1L();
+            consoleOut.println("Input filepath of input file.");
+            inputPath = consoleIn.nextLine();
+            consoleOut.println("Input filepath of output folder.");
+            outputPath = consoleIn.nextLine();
+            consoleIn.close();
+        }
+
+        try (GlossaryWatcher watcher = new GlossaryWatcher(inputPath,
+                outputPath, 1, DEFAULT_DEBOUNCE_MILLIS)) {
+            consoleOut.println("Watching " + inputPath + ".");
+            watcher.watch(consoleOut);
+        }
+        consoleOut.close();
+    }
+}
@@ -0,0 +1,380 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Growable byte buffer a page is assembled in, reused from one page to the
+ * next so that rendering a page allocates nothing once the buffer has grown
+ * to the largest page.
+ *
+ * <p>
+ * Text is encoded to UTF-8 straight into the buffer, and a finished page is
+ * written to its file with a single channel write. A buffer also carries a
+ * scratch {@code StringBuilder} for text that is built before it is encoded.
+ * A buffer must not be used by more than one thread at a time.
+ * </p>
+ *
+ * <p>
+ * A page may also be written gzip-compressed, to a sibling file with
+ * {@code .gz} appended to its name, for hosts that serve pre-compressed
+ * files. Each thread compresses with its own {@link Deflater}, reset from one
+ * page to the next, into its own buffer, and writes the gzip header and
+ * trailer itself; {@code GZIPOutputStream} would allocate a new deflater
+ * (and its native memory) and a new stream for every page.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class PageBuffer {
+
+    /**
+     * Initial capacity, enough for a typical page.
+     */
+    private static final int INITIAL_CAPACITY = 4096;
+
+    /**
+     * Largest number of bytes one UTF-16 unit can encode to.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Marks the lead byte of a two-byte UTF-8 sequence.
+     */
+    private static final int TWO_BYTE_LEAD = 0xC0;
+
+    /**
+     * Marks the lead byte of a three-byte UTF-8 sequence.
+     */
+    private static final int THREE_BYTE_LEAD = 0xE0;
+
+    /**
+     * Marks the lead byte of a four-byte UTF-8 sequence.
+     */
+    private static final int FOUR_BYTE_LEAD = 0xF0;
+
+    /**
+     * Marks a continuation byte.
+     */
+    private static final int CONTINUATION = 0x80;
+
+    /**
+     * Payload bits of a continuation byte.
+     */
+    private static final int PAYLOAD = 0x3F;
+
+    /**
+     * Bits of payload per continuation byte.
+     */
+    private static final int PAYLOAD_BITS = 6;
+
+    /**
+     * Largest code point encoded in one byte.
+     */
+    private static final int MAX_ONE_BYTE = 0x7F;
+
+    /**
+     * Largest code point encoded in two bytes.
+     */
+    private static final int MAX_TWO_BYTES = 0x7FF;
+
+    /**
+     * Suffix of the gzip-compressed sibling of a file.
+     */
+    static final String GZIP_SUFFIX = ".gz";
+
+    /**
+     * Gzip header: magic, deflate method, no flags or time, maximum
+     * compression, unknown operating system.
+     */
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0,
+        0, 0, 2, (byte) 0xff};
+
+    /**
+     * Free space to make before each call to the deflater.
+     */
+    private static final int DEFLATE_CHUNK = 8192;
+
+    /**
+     * Deflater of each thread, producing raw deflate data for gzip.
+     */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal
+            .withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+
+    /**
+     * Checksum of each thread, for the gzip trailer.
+     */
+    private static final ThreadLocal<CRC32> CHECKSUMS = ThreadLocal
+            .withInitial(CRC32::new);
+
+    /**
+     * Buffer of each thread that compressed files are assembled in.
+     */
+    private static final ThreadLocal<PageBuffer> GZIP_BUFFERS = ThreadLocal
+            .withInitial(PageBuffer::new);
+
+    /**
+     * The bytes.
+     */
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Number of bytes in use.
+     */
+    private int length;
+
+    /**
+     * Scratch text.
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Empties the buffer.
+     */
+    void clear() {
+        this.length = 0;
+    }
+
+    /**
+     * Returns the scratch text, emptied.
+     *
+     * @return the scratch builder
+     */
+    StringBuilder text() {
+        this.text.setLength(0);
+        return this.text;
+    }
+
+    /**
+     * Makes room for n more bytes.
+     *
+     * @param n
+     *            number of bytes about to be added
+     */
+    private void reserve(int n) {
+        if (this.length + n > this.bytes.length) {
+            this.bytes = Arrays.copyOf(this.bytes,
+                    Math.max(2 * this.bytes.length, this.length + n));
+        }
+    }
+
+    /**
+     * Appends bytes.
+     *
+     * @param fragment
+     *            bytes to append
+     */
+    void put(byte[] fragment) {
+        this.reserve(fragment.length);
+        System.arraycopy(fragment, 0, this.bytes, this.length,
+                fragment.length);
+        this.length += fragment.length;
+    }
+
+    /**
+     * Appends value as four bytes, least significant first.
+     *
+     * @param value
+     *            the value
+     */
+    private void putIntLittleEndian(int value) {
+        this.reserve(Integer.BYTES);
+        for (int k = 0; k < Integer.BYTES; k++) {
+            this.bytes[this.length] = (byte) (value >>> (k * Byte.SIZE));
+            this.length++;
+        }
+    }
+
+    /**
+     * Appends the UTF-8 encoding of s; an unpaired surrogate is encoded as
+     * '?', as {@code String.getBytes} does.
+     *
+     * @param s
+     *            text to append
+     */
+    void putUtf8(CharSequence s) {
+        int n = s.length();
+        this.reserve(MAX_BYTES_PER_CHAR * n);
+        byte[] b = this.bytes;
+        int k = this.length;
+        int i = 0;
+        while (i < n) {
+            char c = s.charAt(i);
+            if (c <= MAX_ONE_BYTE) {
+                b[k] = (byte) c;
+                k++;
+            } else if (c <= MAX_TWO_BYTES) {
+                b[k] = (byte) (TWO_BYTE_LEAD | (c >> PAYLOAD_BITS));
+                b[k + 1] = (byte) (CONTINUATION | (c & PAYLOAD));
+                k += 2;
+            } else if (!Character.isSurrogate(c)) {
+                b[k] = (byte) (THREE_BYTE_LEAD | (c >> (2 * PAYLOAD_BITS)));
+                b[k + 1] = (byte) (CONTINUATION
+                        | ((c >> PAYLOAD_BITS) & PAYLOAD));
+                b[k + 2] = (byte) (CONTINUATION | (c & PAYLOAD));
+                k += MAX_BYTES_PER_CHAR;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                /*
+                 * A pair takes two units and encodes to four bytes, which is
+                 * within the room reserved for two units
+                 */
+                int cp = Character.toCodePoint(c, s.charAt(i + 1));
+                b[k] = (byte) (FOUR_BYTE_LEAD
+                        | (cp >> (MAX_BYTES_PER_CHAR * PAYLOAD_BITS)));
+                b[k + 1] = (byte) (CONTINUATION
+                        | ((cp >> (2 * PAYLOAD_BITS)) & PAYLOAD));
+                b[k + 2] = (byte) (CONTINUATION
+                        | ((cp >> PAYLOAD_BITS) & PAYLOAD));
+                b[k + MAX_BYTES_PER_CHAR] = (byte) (CONTINUATION
+                        | (cp & PAYLOAD));
+                k += MAX_BYTES_PER_CHAR + 1;
+                i++;
+            } else {
+                b[k] = '?';
+                k++;
+            }
+            i++;
+        }
+        this.length = k;
+    }
+
+    /**
+     * Returns a copy of the bytes in use.
+     *
+     * @return the contents
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(this.bytes, this.length);
+    }
+
+    /**
+     * Writes the bytes in use to file, replacing its contents, and to its
+     * gzip sibling if asked to.
+     *
+     * @param file
+     *            destination file
+     * @param gzipSibling
+     *            whether to also write the gzip-compressed sibling
+     * @throws IOException
+     *             if a file cannot be written
+     */
+    void writeTo(Path file, boolean gzipSibling) throws IOException {
+        write(file, this.bytes, this.length, gzipSibling);
+    }
+
+    /**
+     * Returns the gzip-compressed sibling of file.
+     *
+     * @param file
+     *            a file
+     * @return the file with {@code GZIP_SUFFIX} appended to its name
+     */
+    static Path gzipSibling(Path file) {
+        return file.resolveSibling(file.getFileName() + GZIP_SUFFIX);
+    }
+
+    /**
+     * Writes the first length bytes of contents to file as by
+     * {@code write(file, contents, length)}, and to its gzip sibling if asked
+     * to.
+     *
+     * @param file
+     *            destination file
+     * @param contents
+     *            the bytes
+     * @param length
+     *            number of bytes to write
+     * @param gzipSibling
+     *            whether to also write the gzip-compressed sibling
+     * @throws IOException
+     *             if a file cannot be written
+     */
+    static void write(Path file, byte[] contents, int length,
+            boolean gzipSibling) throws IOException {
+        write(file, contents, length);
+        if (gzipSibling) {
+            writeGzip(gzipSibling(file), contents, length);
+        }
+    }
+
+    /**
+     * Writes the first length bytes of contents, gzip-compressed, to file,
+     * with the current thread's deflater.
+     *
+     * @param file
+     *            destination file
+     * @param contents
+     *            the bytes
+     * @param length
+     *            number of bytes to compress
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    static void writeGzip(Path file, byte[] contents, int length)
+            throws IOException {
+        Deflater deflater = DEFLATERS.get();
+        CRC32 checksum = CHECKSUMS.get();
+        PageBuffer out = GZIP_BUFFERS.get();
+        out.clear();
+        out.put(GZIP_HEADER);
+        deflater.reset();
+        deflater.setInput(contents, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+            out.reserve(DEFLATE_CHUNK);
+            out.length += deflater.deflate(out.bytes, out.length,
+                    out.bytes.length - out.length);
+        }
+        checksum.reset();
+        checksum.update(contents, 0, length);
+        out.putIntLittleEndian((int) checksum.getValue());
+        out.putIntLittleEndian(length);
+        write(file, out.bytes, out.length);
+    }
+
+    /**
+     * Deletes file and its gzip sibling, if they exist.
+     *
+     * @param file
+     *            the file
+     * @return true iff file existed
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    static boolean delete(Path file) throws IOException {
+        Files.deleteIfExists(gzipSibling(file));
+        return Files.deleteIfExists(file);
+    }
+
+    /**
+     * Writes the first length bytes of contents to file, replacing its
+     * contents, with one channel write (looping only if the channel writes
+     * less).
+     *
+     * @param file
+     *            destination file
+     * @param contents
+     *            the bytes
+     * @param length
+     *            number of bytes to write
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    static void write(Path file, byte[] contents, int length)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(contents, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
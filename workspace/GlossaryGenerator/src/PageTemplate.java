@@ -0,0 +1,89 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page with holes, compiled once into its fixed fragments (already encoded
+ * to UTF-8) and the holes between them.
+ *
+ * <p>
+ * A template is compiled from a sample page in which every hole is written as
+ * one of the given placeholder strings; the page is split at the
+ * placeholders. Rendering then appends each fragment's bytes to a
+ * {@link PageBuffer} and encodes only the values filling the holes, so the
+ * markup and styles common to every page are neither rebuilt nor re-encoded.
+ * A template is never modified and may be shared between threads.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class PageTemplate {
+
+    /**
+     * Fixed fragments, one more than there are holes.
+     */
+    private final byte[][] fragments;
+
+    /**
+     * Index (into the placeholders) of the value filling each hole.
+     */
+    private final int[] holes;
+
+    /**
+     * Compiles page, with a hole at every occurrence of a placeholder.
+     *
+     * @param page
+     *            sample page
+     * @param placeholders
+     *            distinct, non-empty strings marking the holes; none may
+     *            occur in page except as a hole
+     */
+    PageTemplate(String page, String... placeholders) {
+        List<byte[]> fixed = new ArrayList<>();
+        List<Integer> found = new ArrayList<>();
+        int from = 0;
+        boolean done = false;
+        while (!done) {
+            int next = page.length();
+            int which = -1;
+            for (int p = 0; p < placeholders.length; p++) {
+                int at = page.indexOf(placeholders[p], from);
+                if (at >= 0 && at < next) {
+                    next = at;
+                    which = p;
+                }
+            }
+            fixed.add(page.substring(from, next)
+                    .getBytes(StandardCharsets.UTF_8));
+            if (which < 0) {
+                done = true;
+            } else {
+                found.add(which);
+                from = next + placeholders[which].length();
+            }
+        }
+        this.fragments = fixed.toArray(new byte[fixed.size()][]);
+        this.holes = new int[found.size()];
+        for (int i = 0; i < this.holes.length; i++) {
+            this.holes[i] = found.get(i);
+        }
+    }
+
+    /**
+     * Appends the page with its holes filled to out.
+     *
+     * @param out
+     *            destination
+     * @param values
+     *            the value for each placeholder, in the order the
+     *            placeholders were given
+     * @updates out
+     */
+    void render(PageBuffer out, CharSequence... values) {
+        out.put(this.fragments[0]);
+        for (int i = 0; i < this.holes.length; i++) {
+            out.putUtf8(values[this.holes[i]]);
+            out.put(this.fragments[i + 1]);
+        }
+    }
+}
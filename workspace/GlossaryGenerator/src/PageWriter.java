@@ -0,0 +1,191 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Bounded asynchronous write stage for rendered pages.
+ *
+ * <p>
+ * Pages are handed over as finished byte arrays and queued; a fixed number of
+ * writer threads take them off the queue and write each one to its file (and,
+ * if asked to, its gzip sibling, compressed on the writer thread). The
+ * queue is bounded, so when the disk falls behind, {@link #submit} blocks the
+ * renderers instead of letting rendered pages pile up in memory. The first
+ * write that fails stops further submissions and is rethrown by
+ * {@link #close()}.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class PageWriter implements AutoCloseable {
+
+    /**
+     * A page waiting to be written.
+     */
+    private static final class Page {
+
+        /**
+         * Destination file.
+         */
+        private final Path file;
+
+        /**
+         * File contents.
+         */
+        private final byte[] contents;
+
+        /**
+         * Constructs a pending page.
+         *
+         * @param file
+         *            destination file
+         * @param contents
+         *            file contents
+         */
+        private Page(Path file, byte[] contents) {
+            this.file = file;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * Queued after the last page, once per writer thread, to stop it.
+     */
+    private static final Page END = new Page(null, null);
+
+    /**
+     * Pages waiting to be written.
+     */
+    private final BlockingQueue<Page> queue;
+
+    /**
+     * The writer threads.
+     */
+    private final Thread[] writers;
+
+    /**
+     * Whether gzip siblings are written.
+     */
+    private final boolean gzipSiblings;
+
+    /**
+     * First write failure, if any.
+     */
+    private final AtomicReference<IOException> failure =
+            new AtomicReference<>();
+
+    /**
+     * Starts a write stage.
+     *
+     * @param capacity
+     *            maximum number of pages waiting to be written
+     * @param writerCount
+     *            number of writer threads
+     * @param gzipSiblings
+     *            whether each page is also written gzip-compressed
+     * @requires capacity > 0 and writerCount > 0
+     */
+    PageWriter(int capacity, int writerCount, boolean gzipSiblings) {
+        assert capacity > 0 : "Violation of: capacity > 0";
+        assert writerCount > 0 : "Violation of: writerCount > 0";
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.gzipSiblings = gzipSiblings;
+        this.writers = new Thread[writerCount];
+        for (int i = 0; i < writerCount; i++) {
+            this.writers[i] = new Thread(this::drain, "page-writer-" + i);
+            this.writers[i].setDaemon(true);
+            this.writers[i].start();
+        }
+    }
+
+    /**
+     * Writes pages until the end marker is taken; runs on each writer thread.
+     */
+    private void drain() {
+        boolean done = false;
+        while (!done) {
+            Page page = null;
+            try {
+                page = this.queue.take();
+            } catch (InterruptedException e) {
+                /*
+                 * Only the end marker stops a writer, so that close() can
+                 * always hand one over
+                 */
+            }
+            if (page == END) {
+                done = true;
+            } else if (page != null && this.failure.get() == null) {
+                try {
+                    PageBuffer.write(page.file, page.contents,
+                            page.contents.length, this.gzipSiblings);
+                } catch (IOException e) {
+                    this.failure.compareAndSet(null, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues a page for writing, waiting while the queue is full.
+     *
+     * @param file
+     *            destination file
+     * @param contents
+     *            file contents; must not be modified afterwards
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     * @throws UncheckedIOException
+     *             if an earlier write has failed
+     */
+    void submit(Path file, byte[] contents) throws InterruptedException {
+        IOException e = this.failure.get();
+        if (e != null) {
+            throw new UncheckedIOException(e);
+        }
+        this.queue.put(new Page(file, contents));
+    }
+
+    /**
+     * Writes every queued page, then stops the writer threads.
+     *
+     * @throws UncheckedIOException
+     *             if any write failed
+     */
+    @Override
+    public void close() {
+        boolean interrupted = false;
+        for (int i = 0; i < this.writers.length; i++) {
+            boolean queued = false;
+            while (!queued) {
+                try {
+                    this.queue.put(END);
+                    queued = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (Thread writer : this.writers) {
+            boolean joined = false;
+            while (!joined) {
+                try {
+                    writer.join();
+                    joined = true;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        IOException e = this.failure.get();
+        if (e != null) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
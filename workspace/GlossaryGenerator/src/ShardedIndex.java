@@ -0,0 +1,381 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writer of a glossary index split over several pages, built in one pass over
+ * the terms in sorted order.
+ *
+ * <p>
+ * Terms are split into shards either by leading character or into pages of a
+ * fixed number of terms. Each shard is written as {@code index-<n>.html} as
+ * soon as the first term of the next shard is seen, with a navigation header
+ * linking the previous and next shards and the main index, so only one shard
+ * is held in memory. The main {@code index.html}, written last, lists the
+ * shards and has a search box. The search box is backed by a compact term
+ * index written alongside: the sorted terms, front-coded (each term as the
+ * length of the prefix it shares with the previous term and the rest), as
+ * JSON assigned to a script variable so the page can load it from the local
+ * file system. The page decodes it once and finds the terms with a typed
+ * prefix by binary search, which relies on the terms being in natural
+ * ({@code String.compareTo}) order, the same order as JavaScript's string
+ * comparison. Every file may also be written gzip-compressed, as for entry
+ * pages.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class ShardedIndex implements AutoCloseable {
+
+    /**
+     * Name of the search index file.
+     */
+    static final String SEARCH_INDEX_FILE = "search-index.js";
+
+    /**
+     * Search box and the script that looks terms up in the search index.
+     */
+    private static final String SEARCH_BOX = "<input id='search' type='search'"
+            + " placeholder='Search' autocomplete='off'>\n"
+            + "<ul id='results'></ul>\n" + "<script src='" + SEARCH_INDEX_FILE
+            + "'></script>\n" + "<script>\n" + "(function () {\n"
+            + "  var data = glossaryIndex.terms, terms = [], t = '';\n"
+            + "  for (var i = 0; i < data.length; i += 2) {\n"
+            + "    t = t.slice(0, data[i]) + data[i + 1];\n"
+            + "    terms.push(t);\n" + "  }\n"
+            + "  var input = document.getElementById('search');\n"
+            + "  var results = document.getElementById('results');\n"
+            + "  input.addEventListener('input', function () {\n"
+            + "    var q = input.value, lo = 0, hi = terms.length;\n"
+            + "    while (lo < hi) {\n" + "      var mid = (lo + hi) >> 1;\n"
+            + "      if (terms[mid] < q) { lo = mid + 1; } else { hi = mid; }\n"
+            + "    }\n" + "    results.textContent = '';\n"
+            + "    for (var k = lo; q && k < terms.length && k < lo + 20\n"
+            + "        && terms[k].lastIndexOf(q, 0) === 0; k++) {\n"
+            + "      var li = document.createElement('li');\n"
+            + "      var a = document.createElement('a');\n"
+            + "      a.href = terms[k] + '.html';\n"
+            + "      a.textContent = terms[k];\n" + "      li.appendChild(a);\n"
+            + "      results.appendChild(li);\n" + "    }\n" + "  });\n"
+            + "})();\n" + "</script>\n";
+
+    /**
+     * Largest code unit escaped as \\u in JSON strings (the control
+     * characters).
+     */
+    private static final char LAST_CONTROL = 0x1F;
+
+    /**
+     * Line separator, which older JavaScript does not allow in strings.
+     */
+    private static final char LINE_SEPARATOR = '\u2028';
+
+    /**
+     * Paragraph separator, which older JavaScript does not allow in strings.
+     */
+    private static final char PARAGRAPH_SEPARATOR = '\u2029';
+
+    /**
+     * Number of hex digits in a \\u escape.
+     */
+    private static final int ESCAPE_DIGITS = 4;
+
+    /**
+     * Output directory.
+     */
+    private final Path dir;
+
+    /**
+     * Terms per shard, or 0 to shard by leading character.
+     */
+    private final int pageSize;
+
+    /**
+     * Style of every index page.
+     */
+    private final String style;
+
+    /**
+     * Whether every file is also written gzip-compressed.
+     */
+    private final boolean gzipSiblings;
+
+    /**
+     * The search index being written.
+     */
+    private final BufferedWriter search;
+
+    /**
+     * List items of the main index, one per shard.
+     */
+    private final StringBuilder shardList = new StringBuilder();
+
+    /**
+     * List items of the current shard.
+     */
+    private final StringBuilder shardTerms = new StringBuilder();
+
+    /**
+     * Number of shards started.
+     */
+    private int shards;
+
+    /**
+     * Terms added to the current shard.
+     */
+    private int inShard;
+
+    /**
+     * Label of the current shard, and of the one before it.
+     */
+    private String label, previousLabel;
+
+    /**
+     * Last term added.
+     */
+    private String previous = "";
+
+    /**
+     * Whether any term has been added.
+     */
+    private boolean started;
+
+    /**
+     * Starts writing an index into dir.
+     *
+     * @param dir
+     *            output directory
+     * @param pageSize
+     *            terms per shard, or 0 to shard by leading character
+     * @param style
+     *            internal CSS of every index page
+     * @param gzipSiblings
+     *            whether every file is also written gzip-compressed
+     * @throws IOException
+     *             if the search index cannot be created
+     * @requires pageSize >= 0
+     */
+    ShardedIndex(Path dir, int pageSize, String style, boolean gzipSiblings)
+            throws IOException {
+        assert pageSize >= 0 : "Violation of: pageSize >= 0";
+        this.dir = dir;
+        this.pageSize = pageSize;
+        this.style = style;
+        this.gzipSiblings = gzipSiblings;
+        this.search = Files.newBufferedWriter(dir.resolve(SEARCH_INDEX_FILE),
+                StandardCharsets.UTF_8);
+        this.search.write("var glossaryIndex = {\"terms\":[");
+    }
+
+    /**
+     * Returns the name of shard n.
+     *
+     * @param n
+     *            shard number, from 1
+     * @return the file name
+     */
+    static String shardFile(int n) {
+        return "index-" + n + ".html";
+    }
+
+    /**
+     * Deletes the shard files (and their gzip siblings) from number first on,
+     * up to the first one that does not exist.
+     *
+     * @param dir
+     *            output directory
+     * @param first
+     *            number of the first shard to delete
+     * @throws IOException
+     *             if a file cannot be deleted
+     */
+    static void deleteShards(Path dir, int first) throws IOException {
+        int n = first;
+        while (PageBuffer.delete(dir.resolve(shardFile(n)))) {
+            n++;
+        }
+    }
+
+    /**
+     * Returns the label of the shard that term would start.
+     *
+     * @param term
+     *            first term of a shard
+     * @return its leading character when sharding by character, or term
+     */
+    private String labelOf(String term) {
+        String shardLabel = term;
+        if (this.pageSize == 0) {
+            shardLabel = term.substring(0, term.offsetByCodePoints(0, 1));
+        }
+        return shardLabel;
+    }
+
+    /**
+     * Adds the next term.
+     *
+     * @param term
+     *            the term
+     * @throws IOException
+     *             if a file cannot be written
+     * @requires term is non-empty and after every term added before in
+     *           natural order (so no term is added twice)
+     */
+    void add(String term) throws IOException {
+        assert !term.isEmpty() : "Violation of: term is non-empty";
+        assert !this.started
+                || this.previous.compareTo(term) < 0 : "Violation of: "
+                        + "term is after every term added before";
+
+        boolean boundary;
+        if (!this.started) {
+            boundary = true;
+        } else if (this.pageSize == 0) {
+            boundary = !this.labelOf(term).equals(this.label);
+        } else {
+            boundary = this.inShard == this.pageSize;
+        }
+        if (boundary) {
+            if (this.started) {
+                this.finishShard(this.labelOf(term));
+                this.search.write(',');
+            }
+            this.shards++;
+            this.inShard = 0;
+            this.previousLabel = this.label;
+            this.label = this.labelOf(term);
+        } else {
+            this.search.write(',');
+        }
+        this.shardTerms.append("<li><a href='").append(term)
+                .append(".html'>").append(term).append("</a></li>\n");
+        this.inShard++;
+
+        int shared = 0;
+        int limit = Math.min(term.length(), this.previous.length());
+        while (shared < limit
+                && term.charAt(shared) == this.previous.charAt(shared)) {
+            shared++;
+        }
+        if (shared > 0 && Character.isLowSurrogate(term.charAt(shared))) {
+            /*
+             * Never split a surrogate pair between prefix and suffix
+             */
+            shared--;
+        }
+        this.search.write(Integer.toString(shared));
+        this.search.write(',');
+        writeJsonString(this.search, term.substring(shared));
+        this.previous = term;
+        this.started = true;
+    }
+
+    /**
+     * Writes the current shard.
+     *
+     * @param nextLabel
+     *            label of the shard after it, or null if it is the last
+     * @throws IOException
+     *             if the page cannot be written
+     */
+    private void finishShard(String nextLabel) throws IOException {
+        StringBuilder body = new StringBuilder();
+        body.append("<nav>\n");
+        if (this.previousLabel != null) {
+            body.append("<a href='").append(shardFile(this.shards - 1))
+                    .append("'>← ").append(this.previousLabel)
+                    .append("</a> | ");
+        }
+        body.append("<a href='index.html'>Index</a>");
+        if (nextLabel != null) {
+            body.append(" | <a href='").append(shardFile(this.shards + 1))
+                    .append("'>").append(nextLabel).append(" →</a>");
+        }
+        body.append("\n</nav>\n");
+        body.append("<h2>").append(this.label).append("</h2>\n");
+        body.append("<hr>\n");
+        body.append("<ul>\n").append(this.shardTerms).append("</ul>");
+        GlossaryGenerator.writeHTMLFile(
+                this.dir.resolve(shardFile(this.shards)).toString(),
+                "Glossary: " + this.label, this.style, body.toString(),
+                this.gzipSiblings);
+
+        this.shardList.append("<li><a href='").append(shardFile(this.shards))
+                .append("'>").append(this.label);
+        if (this.pageSize > 0 && this.inShard > 1) {
+            this.shardList.append(" – ").append(this.previous);
+        }
+        this.shardList.append("</a></li>\n");
+        this.shardTerms.setLength(0);
+    }
+
+    /**
+     * Writes s as a JSON string literal.
+     *
+     * @param out
+     *            destination
+     * @param s
+     *            the string
+     * @throws IOException
+     *             if out cannot be written
+     */
+    private static void writeJsonString(BufferedWriter out, String s)
+            throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c <= LAST_CONTROL || c == LINE_SEPARATOR
+                    || c == PARAGRAPH_SEPARATOR) {
+                String hex = Integer.toHexString(c);
+                out.write("\\u");
+                for (int k = hex.length(); k < ESCAPE_DIGITS; k++) {
+                    out.write('0');
+                }
+                out.write(hex);
+            } else {
+                out.write(c);
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * Writes the last shard, the search index and the main index page, and
+     * deletes the shards of an earlier, larger index.
+     *
+     * @throws IOException
+     *             if a file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.started) {
+                this.finishShard(null);
+            }
+            this.search.write("]};\n");
+        } finally {
+            this.search.close();
+        }
+        if (this.gzipSiblings) {
+            Path searchIndex = this.dir.resolve(SEARCH_INDEX_FILE);
+            byte[] contents = Files.readAllBytes(searchIndex);
+            PageBuffer.writeGzip(PageBuffer.gzipSibling(searchIndex), contents,
+                    contents.length);
+        }
+        deleteShards(this.dir, this.shards + 1);
+
+        StringBuilder body = new StringBuilder();
+        body.append("<h2>Glossary</h2>\n");
+        body.append("<hr>\n");
+        body.append(SEARCH_BOX);
+        body.append("<ul>\n").append(this.shardList).append("</ul>");
+        GlossaryGenerator.writeHTMLFile(
+                this.dir.resolve("index.html").toString(), "Glossary",
+                this.style, body.toString(), this.gzipSiblings);
+    }
+}
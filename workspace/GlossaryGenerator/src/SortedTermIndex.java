@@ -0,0 +1,153 @@
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The terms of a glossary in sorted order, held in an array.
+ *
+ * <p>
+ * The terms are read through their iterator, so a set of terms is left
+ * untouched, and sorted in O(n log n). By default the order is the natural
+ * order of {@code String}. With a {@link Collator}, the order is the
+ * collator's: every term's {@link CollationKey} is computed once up front and
+ * the keys are sorted, instead of calling the (much slower)
+ * {@code Collator.compare} O(n log n) times; terms the collator considers
+ * equal are ordered naturally, so the order is always total. Once built, an
+ * index is never modified and may be shared between threads.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class SortedTermIndex implements Iterable<String> {
+
+    /**
+     * The terms, sorted.
+     */
+    private final String[] terms;
+
+    /**
+     * Wraps an already sorted array.
+     *
+     * @param terms
+     *            the sorted terms
+     */
+    private SortedTermIndex(String[] terms) {
+        this.terms = terms;
+    }
+
+    /**
+     * Returns the terms in an array, in iteration order.
+     *
+     * @param terms
+     *            the terms
+     * @return the terms
+     */
+    private static String[] toArray(Iterable<String> terms) {
+        List<String> list = new ArrayList<>();
+        for (String term : terms) {
+            list.add(term);
+        }
+        return list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Returns the given terms in natural order.
+     *
+     * @param terms
+     *            the terms, without repeats
+     * @return the index
+     * @requires terms != null
+     */
+    static SortedTermIndex of(Iterable<String> terms) {
+        assert terms != null : "Violation of: terms is not null";
+
+        String[] sorted = toArray(terms);
+        Arrays.sort(sorted);
+        return new SortedTermIndex(sorted);
+    }
+
+    /**
+     * Returns the given terms in the order of collator, or in natural order
+     * if collator is null.
+     *
+     * @param terms
+     *            the terms, without repeats
+     * @param collator
+     *            the ordering, or null
+     * @return the index
+     * @requires terms != null
+     */
+    static SortedTermIndex of(Iterable<String> terms, Collator collator) {
+        assert terms != null : "Violation of: terms is not null";
+
+        SortedTermIndex index;
+        if (collator == null) {
+            index = of(terms);
+        } else {
+            String[] sorted = toArray(terms);
+            CollationKey[] keys = new CollationKey[sorted.length];
+            for (int i = 0; i < sorted.length; i++) {
+                keys[i] = collator.getCollationKey(sorted[i]);
+            }
+            Arrays.sort(keys, Comparator.<CollationKey>naturalOrder()
+                    .thenComparing(CollationKey::getSourceString));
+            for (int k = 0; k < keys.length; k++) {
+                sorted[k] = keys[k].getSourceString();
+            }
+            index = new SortedTermIndex(sorted);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of terms.
+     *
+     * @return number of terms
+     */
+    int length() {
+        return this.terms.length;
+    }
+
+    /**
+     * Returns the term at position i.
+     *
+     * @param i
+     *            position
+     * @return the i-th term in order
+     * @requires 0 <= i < length()
+     */
+    String entry(int i) {
+        return this.terms[i];
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+
+            /**
+             * Position of the next term.
+             */
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return this.next < SortedTermIndex.this.terms.length;
+            }
+
+            @Override
+            public String next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String term = SortedTermIndex.this.terms[this.next];
+                this.next++;
+                return term;
+            }
+        };
+    }
+}
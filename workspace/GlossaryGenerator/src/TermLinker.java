@@ -0,0 +1,408 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over a fixed set of glossary terms, used to link
+ * every occurrence of a term in a definition in one left-to-right pass.
+ *
+ * <p>
+ * Terms may contain any characters, so multi-word and hyphenated terms are
+ * found as well as single words. An occurrence only counts if it is a whole
+ * word: the characters just before and just after it must not be ASCII
+ * letters (the word boundary the generator has always used). Where
+ * occurrences overlap, the one that starts first wins, and among those the
+ * longest. The trie's transitions are kept in a single open-addressing table
+ * keyed by (node, character), so the automaton for tens of thousands of terms
+ * is a handful of flat arrays. Every term also has an int id, its position in
+ * the order the terms were given, so that callers can index per-term data by
+ * array instead of by string. Once built, a linker is never modified and may
+ * be shared between threads.
+ * </p>
+ *
+ * @author Lucas Xie
+ */
+final class TermLinker {
+
+    /**
+     * Marks an empty slot in the transition table, and a missing transition.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * Number of bits a character occupies in a transition key.
+     */
+    private static final int CHAR_BITS = Character.SIZE;
+
+    /**
+     * Multiplier for hashing transition keys (2^64 / golden ratio).
+     */
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Keys (node << 16 | character) of the transition table.
+     */
+    private final long[] keys;
+
+    /**
+     * Target node of each transition table slot, or NONE if the slot is
+     * empty.
+     */
+    private final int[] targets;
+
+    /**
+     * Number of bits of the transition table size.
+     */
+    private final int tableBits;
+
+    /**
+     * Failure link of each node: the node for the longest proper suffix of its
+     * string that is also in the trie.
+     */
+    private final int[] fail;
+
+    /**
+     * Nearest node along the failure links (excluding the node itself) that
+     * ends a term, or 0 if there is none.
+     */
+    private final int[] output;
+
+    /**
+     * Depth of each node, i.e. length of its string.
+     */
+    private final int[] depth;
+
+    /**
+     * Id of the term each node ends, or NONE if it ends none.
+     */
+    private final int[] termIds;
+
+    /**
+     * The terms, by id.
+     */
+    private final String[] terms;
+
+    /**
+     * Compiles the automaton for the given terms; empty terms are ignored.
+     *
+     * @param terms
+     *            the terms to link
+     */
+    TermLinker(Iterable<String> terms) {
+        int maxNodes = 1;
+        for (String t : terms) {
+            maxNodes += t.length();
+        }
+        int bits = 1;
+        while ((1 << bits) < 2 * maxNodes) {
+            bits++;
+        }
+        this.tableBits = bits;
+        this.keys = new long[1 << bits];
+        this.targets = new int[1 << bits];
+        Arrays.fill(this.targets, NONE);
+
+        int[] parent = new int[maxNodes];
+        char[] label = new char[maxNodes];
+        int[] nodeDepth = new int[maxNodes];
+        int[] ends = new int[maxNodes];
+        Arrays.fill(ends, NONE);
+        List<String> byId = new ArrayList<>();
+        int nodes = 1;
+        for (String t : terms) {
+            int node = 0;
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                int next = this.next(node, c);
+                if (next == NONE) {
+                    next = nodes;
+                    nodes++;
+                    parent[next] = node;
+                    label[next] = c;
+                    nodeDepth[next] = i + 1;
+                    this.put(node, c, next);
+                }
+                node = next;
+            }
+            if (node != 0 && ends[node] == NONE) {
+                ends[node] = byId.size();
+            }
+            byId.add(t);
+        }
+        this.depth = Arrays.copyOf(nodeDepth, nodes);
+        this.termIds = Arrays.copyOf(ends, nodes);
+        this.terms = byId.toArray(new String[byId.size()]);
+        this.fail = new int[nodes];
+        this.output = new int[nodes];
+
+        /*
+         * Failure and output links in breadth-first order, so both are known
+         * for every shallower node; nodes are bucketed by depth instead of
+         * enumerating children, which the table cannot do
+         */
+        int maxDepth = 0;
+        for (int v = 1; v < nodes; v++) {
+            maxDepth = Math.max(maxDepth, this.depth[v]);
+        }
+        int[] start = new int[maxDepth + 2];
+        for (int v = 1; v < nodes; v++) {
+            start[this.depth[v] + 1]++;
+        }
+        for (int d = 1; d < start.length; d++) {
+            start[d] += start[d - 1];
+        }
+        int[] order = new int[nodes];
+        for (int v = 1; v < nodes; v++) {
+            order[start[this.depth[v]]] = v;
+            start[this.depth[v]]++;
+        }
+        for (int k = 0; k < nodes - 1; k++) {
+            int v = order[k];
+            int f = 0;
+            if (parent[v] != 0) {
+                f = this.step(this.fail[parent[v]], label[v]);
+            }
+            this.fail[v] = f;
+            if (this.termIds[f] != NONE) {
+                this.output[v] = f;
+            } else {
+                this.output[v] = this.output[f];
+            }
+        }
+    }
+
+    /**
+     * Returns the slot of the transition table where the key for (node, c) is
+     * or would be stored.
+     *
+     * @param node
+     *            source node
+     * @param c
+     *            character
+     * @return table slot
+     */
+    private int slot(int node, char c) {
+        long key = ((long) node << CHAR_BITS) | c;
+        int mask = this.keys.length - 1;
+        int i = (int) ((key * HASH_MULTIPLIER) >>> (Long.SIZE
+                - this.tableBits));
+        while (this.targets[i] != NONE && this.keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the trie child of node for c, or NONE.
+     *
+     * @param node
+     *            source node
+     * @param c
+     *            character
+     * @return child node, or NONE
+     */
+    private int next(int node, char c) {
+        return this.targets[this.slot(node, c)];
+    }
+
+    /**
+     * Adds the trie edge node --c--> child.
+     *
+     * @param node
+     *            source node
+     * @param c
+     *            character
+     * @param child
+     *            target node
+     */
+    private void put(int node, char c, int child) {
+        int i = this.slot(node, c);
+        this.keys[i] = ((long) node << CHAR_BITS) | c;
+        this.targets[i] = child;
+    }
+
+    /**
+     * Returns the automaton state after reading c in state node, following
+     * failure links as needed.
+     *
+     * @param node
+     *            current state
+     * @param c
+     *            character read
+     * @return next state
+     */
+    private int step(int node, char c) {
+        int state = node;
+        int next = this.next(state, c);
+        while (next == NONE && state != 0) {
+            state = this.fail[state];
+            next = this.next(state, c);
+        }
+        int result = 0;
+        if (next != NONE) {
+            result = next;
+        }
+        return result;
+    }
+
+    /**
+     * Reports whether c is a word character, i.e. an ASCII letter.
+     *
+     * @param c
+     *            the character
+     * @return true iff c is in [a-zA-Z]
+     */
+    static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Returns, for every position of text, the length of the longest term
+     * occurrence (with word boundaries on both sides) that starts there, or 0.
+     *
+     * @param text
+     *            the text to scan
+     * @return longest occurrence length by start position
+     */
+    int[] longestMatches(CharSequence text) {
+        int n = text.length();
+        int[] longest = new int[n];
+        int state = 0;
+        for (int i = 0; i < n; i++) {
+            state = this.step(state, text.charAt(i));
+            if (i + 1 == n || !isWordChar(text.charAt(i + 1))) {
+                int t = state;
+                if (this.termIds[t] == NONE) {
+                    t = this.output[t];
+                }
+                while (t != 0) {
+                    int begin = i + 1 - this.depth[t];
+                    if ((begin == 0 || !isWordChar(text.charAt(begin - 1)))
+                            && longest[begin] < this.depth[t]) {
+                        longest[begin] = this.depth[t];
+                    }
+                    t = this.output[t];
+                }
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * Returns the number of term ids, i.e. of terms given.
+     *
+     * @return number of terms
+     */
+    int termCount() {
+        return this.terms.length;
+    }
+
+    /**
+     * Returns the term with the given id.
+     *
+     * @param id
+     *            term id
+     * @return the term
+     * @requires 0 <= id < termCount()
+     */
+    String term(int id) {
+        return this.terms[id];
+    }
+
+    /**
+     * Returns the id of the term s[from, to), or NONE if it is not a term.
+     *
+     * @param s
+     *            text holding the term
+     * @param from
+     *            start of the term
+     * @param to
+     *            end of the term
+     * @return id of the term, or NONE
+     */
+    private int idOf(CharSequence s, int from, int to) {
+        int node = 0;
+        int i = from;
+        while (node != NONE && i < to) {
+            node = this.next(node, s.charAt(i));
+            i++;
+        }
+        int id = NONE;
+        if (node != NONE) {
+            id = this.termIds[node];
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of term; if term was given more than once, the id of its
+     * first occurrence.
+     *
+     * @param term
+     *            the term
+     * @return id of term, or -1 if it is not a (non-empty) term
+     */
+    int idOf(CharSequence term) {
+        return this.idOf(term, 0, term.length());
+    }
+
+    /**
+     * Returns the ids of the terms that {@link #link} would link in text, in
+     * order of occurrence (with repeats).
+     *
+     * @param text
+     *            the text to scan
+     * @return ids of the linked terms
+     */
+    int[] linkedTermIds(CharSequence text) {
+        int[] longest = this.longestMatches(text);
+        /*
+         * Ids are compacted to the front of longest in the same walk link
+         * makes; each match takes at least one position, so the id written
+         * never overwrites a position not yet read
+         */
+        int count = 0;
+        int i = 0;
+        while (i < longest.length) {
+            if (longest[i] > 0) {
+                int end = i + longest[i];
+                longest[count] = this.idOf(text, i, end);
+                count++;
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        return Arrays.copyOf(longest, count);
+    }
+
+    /**
+     * Appends text to out with every term occurrence replaced by a link to the
+     * term's page.
+     *
+     * @param text
+     *            the text to link
+     * @param out
+     *            destination
+     * @updates out
+     * @ensures <pre>
+     * out = #out * [text, with each leftmost-longest whole-word occurrence
+     *   of a term t replaced by <a href='t.html'>t</a>]
+     * </pre>
+     */
+    void link(CharSequence text, StringBuilder out) {
+        int[] longest = this.longestMatches(text);
+        int i = 0;
+        while (i < longest.length) {
+            if (longest[i] > 0) {
+                CharSequence term = text.subSequence(i, i + longest[i]);
+                out.append("<a href='").append(term).append(".html'>")
+                        .append(term).append("</a>");
+                i += longest[i];
+            } else {
+                out.append(text.charAt(i));
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Iterator;
+
+import components.map.Map;
+import components.map.Map1L;
+import components.map.MapSecondary;
+
+/**
+ * {@code Map} that counts the changes made to it, so that data derived from
+ * its keys can be kept until they change.
+ *
+ * <p>
+ * Every kernel method that may change the key set (and {@code clear} and
+ * {@code transferFrom}, on both maps) advances {@link #version()}; data
+ * computed from the keys when the version was v is still valid while it is
+ * v. The pairs are held in a {@code Map1L}.
+ * </p>
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ * @author Lucas Xie
+ */
+final class VersionedMap<K, V> extends MapSecondary<K, V> {
+
+    /**
+     * The pairs.
+     */
+    private Map<K, V> rep;
+
+    /**
+     * Number of changes made so far.
+     */
+    private long version;
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+        this.rep = new Map1L<>();
+    }
+
+    /**
+     * No-argument constructor.
+     */
+    VersionedMap() {
+        this.createNewRep();
+    }
+
+    /**
+     * Returns the number of changes made to this map so far.
+     *
+     * @return the version
+     */
+    long version() {
+        return this.version;
+    }
+
+    @Override
+    public Map<K, V> newInstance() {
+        return new VersionedMap<>();
+    }
+
+    @Override
+    public void clear() {
+        this.createNewRep();
+        this.version++;
+    }
+
+    @Override
+    public void transferFrom(Map<K, V> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof VersionedMap<?, ?> : "Violation of: "
+                + "source is of dynamic type VersionedMap<?,?>";
+
+        VersionedMap<K, V> localSource = (VersionedMap<K, V>) source;
+        this.rep = localSource.rep;
+        this.version++;
+        localSource.createNewRep();
+        localSource.version++;
+    }
+
+    @Override
+    public void add(K key, V value) {
+        this.rep.add(key, value);
+        this.version++;
+    }
+
+    @Override
+    public Pair<K, V> remove(K key) {
+        this.version++;
+        return this.rep.remove(key);
+    }
+
+    @Override
+    public Pair<K, V> removeAny() {
+        this.version++;
+        return this.rep.removeAny();
+    }
+
+    @Override
+    public V value(K key) {
+        return this.rep.value(key);
+    }
+
+    @Override
+    public boolean hasKey(K key) {
+        return this.rep.hasKey(key);
+    }
+
+    @Override
+    public int size() {
+        return this.rep.size();
+    }
+
+    @Override
+    public Iterator<Pair<K, V>> iterator() {
+        return this.rep.iterator();
+    }
+}
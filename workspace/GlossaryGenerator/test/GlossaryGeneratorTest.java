@@ -1,6 +1,23 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import components.map.Map;
 import components.map.Map1L;
@@ -23,6 +40,12 @@ import components.simplewriter.SimpleWriter1L;
  */
 
 public class GlossaryGeneratorTest {
+    /**
+     * Folder for the files a test writes, deleted after every test.
+     */
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     /**
      * Generates a glossary generator with preset paths for testing
      * concision/ease-of-use.
@@ -126,6 +149,29 @@ public class GlossaryGeneratorTest {
         assertEquals(resExpected, gen.getEntries());
     }
 
+    /**
+     * Tests extractEntries with Windows line breaks, extra blank lines between
+     * entries, non-ASCII text and no blank line at the end of the file.
+     *
+     * @throws IOException
+     *             if the input file cannot be written
+     */
+    @Test
+    public void extractEntriesTestLineBreakStyles() throws IOException {
+        Path input = this.tmp.newFile("crlf.txt").toPath();
+        Files.write(input, ("caf\u00e9\r\na place serving\r\ncoffee\r\n\r\n"
+                + "\r\n\r\nna\u00efve\r\nlacking experience")
+                        .getBytes(StandardCharsets.UTF_8));
+        GlossaryGenerator gen = new GlossaryGenerator(input.toString(), "data");
+        gen.extractEntries();
+
+        Map<String, String> resExpected = new Map1L<>();
+        resExpected.add("caf\u00e9", "a place serving coffee");
+        resExpected.add("na\u00efve", "lacking experience");
+
+        assertEquals(resExpected, gen.getEntries());
+    }
+
     /**
      * Tests parseEntry with "entries" that are unlinked (effectively just using
      * one entry).
@@ -194,6 +240,766 @@ public class GlossaryGeneratorTest {
         assertEquals(resExpected, resActual.toString());
     }
 
+    /**
+     * Tests parseEntry with multi-word and hyphenated terms, where the longest
+     * term starting at a position wins and partial words are not linked.
+     */
+    @Test
+    public void parseEntryTestMultiWordAndHyphenated() {
+        GlossaryGenerator gen = this.createDefaultGlossaryGen("");
+        Map<String, String> entries = gen.getEntries();
+
+        entries.add("memo", "an e-mail about object oriented programming, "
+                + "objects and mail-order mail");
+        entries.add("object oriented programming", "a paradigm");
+        entries.add("object", "a thing");
+        entries.add("e-mail", "electronic mail");
+        entries.add("mail", "letters");
+
+        gen.parseAvailableEntries();
+
+        String resExpected = "<!DOCTYPE html>\n" + "<html lang='en'>\n"
+                + "<head>\n" + "<meta charset='UTF-8'>\n"
+                + "<title>memo</title>\n" + "<style>\n"
+                + GlossaryGenerator.SHARED_DEFAULT_STYLE
+                + GlossaryGenerator.TERM_PAGE_DEFAULT_STYLE + "</style>\n"
+                + "</head>\n" + "\n" + "<body>\n" + "<h2>memo</h2>\n"
+                + "<hr>\n" + "<p>\n" + "an <a href='e-mail.html'>e-mail</a> "
+                + "about <a href='object oriented programming.html'>"
+                + "object oriented programming</a>, objects and "
+                + "<a href='mail.html'>mail</a>-order "
+                + "<a href='mail.html'>mail</a> </p>\n" + "<footer>\n"
+                + "<a href='index.html'>→ Return to index</a>\n" + "</footer>\n"
+                + "\n" + "</body>\n" + "</html>\n";
+
+        StringBuilder resActual = new StringBuilder();
+
+        SimpleReader sr = new SimpleReader1L("data/memo.html");
+        while (!sr.atEOS()) {
+            resActual.append(sr.nextLine()).append("\n");
+        }
+        sr.close();
+
+        assertEquals(resExpected, resActual.toString());
+    }
+
+    /**
+     * Tests parseEntry links the terms of the entry map as it is at each call,
+     * including changes made through a map reference kept between calls.
+     *
+     * @throws IOException
+     *             if a page cannot be read
+     */
+    @Test
+    public void parseEntryTestEntriesChanged() throws IOException {
+        GlossaryGenerator gen = this.createDefaultGlossaryGen("");
+        Map<String, String> entries = gen.getEntries();
+        entries.add("java", "a language");
+        entries.add("junit", "java unit testing library");
+
+        Path page = Paths.get("data/junit.html");
+
+        gen.parseEntry("junit", "java unit testing library");
+        String first = new String(Files.readAllBytes(page),
+                StandardCharsets.UTF_8);
+
+        /*
+         * Same number of entries: library replaces java
+         */
+        entries.remove("java");
+        entries.add("library", "location where visual media is stored");
+        gen.parseEntry("junit", "java unit testing library");
+        String second = new String(Files.readAllBytes(page),
+                StandardCharsets.UTF_8);
+
+        assertEquals(true, first.contains(
+                "<a href='java.html'>java</a> unit testing library </p>"));
+        assertEquals(true, second.contains(
+                "java unit testing <a href='library.html'>library</a> </p>"));
+    }
+
+    /**
+     * Tests parseAvailableEntries with a thread count writes the same bytes as
+     * the sequential path (uses sample terms.txt).
+     *
+     * @throws IOException
+     *             if a page cannot be read
+     */
+    @Test
+    public void parseAvailableEntriesTestParallelMatchesSequential()
+            throws IOException {
+        final int threads = 3;
+        Path sequentialDir = this.tmp.newFolder("seq").toPath();
+        Path parallelDir = this.tmp.newFolder("par").toPath();
+
+        GlossaryGenerator sequential = new GlossaryGenerator("data/terms.txt",
+                sequentialDir.toString());
+        sequential.extractEntries();
+        sequential.parseAvailableEntries();
+        GlossaryGenerator parallel = new GlossaryGenerator("data/terms.txt",
+                parallelDir.toString());
+        parallel.extractEntries();
+        parallel.parseAvailableEntries(threads);
+
+        for (Map.Pair<String, String> entry : sequential.getEntries()) {
+            String page = entry.key() + ".html";
+            assertArrayEquals(Files.readAllBytes(sequentialDir.resolve(page)),
+                    Files.readAllBytes(parallelDir.resolve(page)));
+        }
+    }
+
+    /**
+     * Tests that generateGlossary, run again after the input changed, rewrites
+     * exactly the pages whose definition or links changed, deletes the pages
+     * of removed terms and rewrites the index only when the terms changed.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void generateGlossaryTestIncremental() throws IOException {
+        final byte[] marker = "unchanged".getBytes(StandardCharsets.UTF_8);
+        Path input = this.tmp.newFile("incremental.txt").toPath();
+        Path dir = this.tmp.newFolder("incremental").toPath();
+        String[] pages = {"alpha.html", "beta.html", "gamma.html",
+            "omega.html", "index.html"};
+
+        Files.write(input, ("alpha\nfirst letter, before beta\n\n"
+                + "beta\nsecond letter\n\n" + "gamma\nthird, like delta\n\n"
+                + "omega\nlast letter\n\n").getBytes(StandardCharsets.UTF_8));
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+
+        /*
+         * Same input: nothing is rewritten
+         */
+        for (String page : pages) {
+            Files.write(dir.resolve(page), marker);
+        }
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+        for (String page : pages) {
+            assertArrayEquals(marker, Files.readAllBytes(dir.resolve(page)));
+        }
+
+        /*
+         * beta removed and delta added: alpha loses a link, gamma gains one
+         */
+        Files.write(input, ("alpha\nfirst letter, before beta\n\n"
+                + "gamma\nthird, like delta\n\n" + "delta\nfourth\n\n"
+                + "omega\nlast letter\n\n").getBytes(StandardCharsets.UTF_8));
+        GlossaryGenerator gen = new GlossaryGenerator(input.toString(),
+                dir.toString());
+        gen.generateGlossary(2);
+
+        assertEquals(false, Files.exists(dir.resolve("beta.html")));
+        assertArrayEquals(marker,
+                Files.readAllBytes(dir.resolve("omega.html")));
+        Path fresh = this.tmp.newFolder("incremental-full").toPath();
+        GlossaryGenerator full = new GlossaryGenerator(input.toString(),
+                fresh.toString());
+        full.extractEntries();
+        full.parseAvailableEntries();
+        full.generateIndexPage();
+        for (String page : new String[] {"alpha.html", "gamma.html",
+            "delta.html", "index.html"}) {
+            assertArrayEquals(Files.readAllBytes(fresh.resolve(page)),
+                    Files.readAllBytes(dir.resolve(page)));
+        }
+    }
+
+    /**
+     * Tests that with a linked stylesheet, term pages link to it instead of
+     * inlining styles, and the stylesheet is written once with those styles.
+     *
+     * @throws IOException
+     *             if a page cannot be read
+     */
+    @Test
+    public void parseAvailableEntriesTestLinkedStylesheet() throws IOException {
+        Path dir = this.tmp.newFolder("linked").toPath();
+        GlossaryGenerator gen = new GlossaryGenerator("data/terms.txt",
+                dir.toString(), true);
+        gen.extractEntries();
+        gen.parseAvailableEntries();
+
+        String resExpected = "<!DOCTYPE html>\n" + "<html lang='en'>\n"
+                + "<head>\n" + "<meta charset='UTF-8'>\n"
+                + "<title>book</title>\n"
+                + "<link rel='stylesheet' href='glossary.css'>\n"
+                + "</head>\n" + "\n" + "<body>\n" + "<h2>book</h2>\n"
+                + "<hr>\n" + "<p>\n" + "a printed or written literary work "
+                + "</p>\n" + "<footer>\n"
+                + "<p>Referenced by: <a href='glossary.html'>glossary</a></p>\n"
+                + "<a href='index.html'>\u2192 Return to index</a>\n"
+                + "</footer>\n" + "\n" + "</body>\n" + "</html>\n";
+
+        assertEquals(resExpected, new String(
+                Files.readAllBytes(dir.resolve("book.html")),
+                StandardCharsets.UTF_8));
+        assertEquals(
+                GlossaryGenerator.SHARED_DEFAULT_STYLE
+                        + GlossaryGenerator.TERM_PAGE_DEFAULT_STYLE,
+                new String(
+                        Files.readAllBytes(
+                                dir.resolve(GlossaryGenerator.STYLESHEET_FILE)),
+                        StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tests that a term given more than once keeps its first definition, is
+     * listed once in the index, and leaves a manifest under which a second
+     * run rewrites nothing; a watcher writes the same pages.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void generateGlossaryTestRepeatedTerm() throws IOException {
+        final byte[] marker = "unchanged".getBytes(StandardCharsets.UTF_8);
+        Path input = this.tmp.newFile("repeated.txt").toPath();
+        Path dir = this.tmp.newFolder("repeated").toPath();
+        String[] pages = {"apple.html", "pear.html", "index.html"};
+        Files.write(input, ("apple\nthe first fruit\n\n"
+                + "pear\nlike an apple\n\n" + "apple\nthe second fruit\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+
+        String apple = new String(Files.readAllBytes(dir.resolve("apple.html")),
+                StandardCharsets.UTF_8);
+        String index = new String(Files.readAllBytes(dir.resolve("index.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, apple.contains("the first fruit"));
+        assertEquals(false, apple.contains("the second fruit"));
+        assertEquals(true, apple.contains(
+                "<p>Referenced by: <a href='pear.html'>pear</a></p>\n"));
+        assertEquals(index.indexOf("<a href='apple.html'>"),
+                index.lastIndexOf("<a href='apple.html'>"));
+
+        /*
+         * Same input: nothing is rewritten
+         */
+        for (String page : pages) {
+            Files.write(dir.resolve(page), marker);
+        }
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+        for (String page : pages) {
+            assertArrayEquals(marker, Files.readAllBytes(dir.resolve(page)));
+        }
+
+        Path watched = this.tmp.newFolder("repeated-w").toPath();
+        try (GlossaryWatcher watcher = new GlossaryWatcher(input.toString(),
+                watched.toString(), 1, 0)) {
+            watcher.update();
+        }
+        Path fresh = this.tmp.newFolder("repeated-full").toPath();
+        new GlossaryGenerator(input.toString(), fresh.toString())
+                .generateGlossary();
+        for (String page : pages) {
+            assertArrayEquals(Files.readAllBytes(fresh.resolve(page)),
+                    Files.readAllBytes(watched.resolve(page)));
+        }
+    }
+
+    /**
+     * Tests that every page lists the terms whose definitions link to it, in
+     * natural order, and that generateGlossary rewrites a page whose
+     * referrers changed even though its own entry did not.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void generateGlossaryTestBacklinks() throws IOException {
+        Path input = this.tmp.newFile("backlinks.txt").toPath();
+        Path dir = this.tmp.newFolder("backlinks").toPath();
+        Files.write(input, ("pear\nlike an apple, or an apple\n\n"
+                + "apple\na fruit, not an apple pie\n\n"
+                + "fig\nneither apple nor pear\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+
+        String apple = new String(Files.readAllBytes(dir.resolve("apple.html")),
+                StandardCharsets.UTF_8);
+        String fig = new String(Files.readAllBytes(dir.resolve("fig.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, apple.contains("<footer>\n"
+                + "<p>Referenced by: <a href='fig.html'>fig</a>, "
+                + "<a href='pear.html'>pear</a></p>\n"
+                + "<a href='index.html'>"));
+        assertEquals(true, fig.contains("<footer>\n<a href='index.html'>"));
+
+        Files.write(input, ("pear\nlike a quince\n\n"
+                + "apple\na fruit, not an apple pie\n\n"
+                + "fig\nneither apple nor pear\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        new GlossaryGenerator(input.toString(), dir.toString())
+                .generateGlossary();
+        apple = new String(Files.readAllBytes(dir.resolve("apple.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, apple.contains("<footer>\n"
+                + "<p>Referenced by: <a href='fig.html'>fig</a></p>\n"));
+    }
+
+    /**
+     * Tests that recording the referrers of a term again replaces those
+     * recorded before, so the manifest written still reads back with the
+     * same inputs.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void glossaryManifestTestReferrersRecordedTwice()
+            throws IOException {
+        Path file = this.tmp.newFolder("manifest").toPath()
+                .resolve(GlossaryManifest.FILE_NAME);
+        GlossaryManifest twice = new GlossaryManifest("test");
+        twice.record("apple", "a fruit", Arrays.asList("pear"));
+        twice.recordReferrers("apple", Arrays.asList("fig"));
+        twice.recordReferrers("apple", Arrays.asList("pear", "fig", "pear"));
+        GlossaryManifest once = new GlossaryManifest("test");
+        once.record("apple", "a fruit", Arrays.asList("pear"));
+        once.recordReferrers("apple", Arrays.asList("fig", "pear"));
+        assertEquals(true, twice.sameInputs(once, "apple"));
+
+        twice.write(file);
+        GlossaryManifest read = GlossaryManifest.read(file, "test");
+        assertEquals(true, read.contains("apple"));
+        assertEquals(true, read.sameInputs(once, "apple"));
+        assertEquals(1, read.terms().size());
+    }
+
+    /**
+     * Tests that lines appended to a manifest file replace those of the same
+     * terms when it is read, that removals are applied, and that a last line
+     * cut short is ignored.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void glossaryManifestTestAppend() throws IOException {
+        Path file = this.tmp.newFolder("journal").toPath()
+                .resolve(GlossaryManifest.FILE_NAME);
+        GlossaryManifest manifest = new GlossaryManifest("test");
+        for (String term : new String[] {"apple", "fig", "pear"}) {
+            manifest.record(term, "a fruit", Arrays.asList());
+            manifest.recordReferrers(term, Arrays.asList());
+        }
+        manifest.write(file);
+
+        GlossaryManifest changes = new GlossaryManifest("test");
+        changes.record("apple", "not a pear", Arrays.asList("pear"));
+        changes.recordReferrers("apple", Arrays.asList());
+        final int lines = 2;
+        assertEquals(lines, changes.append(file, Arrays.asList("fig")));
+        Files.write(file, "0123 4567 89ab pe".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        changes.append(file, Arrays.asList());
+
+        GlossaryManifest read = GlossaryManifest.read(file, "test");
+        assertEquals(2, read.size());
+        assertEquals(true, read.sameInputs(changes, "apple"));
+        assertEquals(true, read.sameInputs(manifest, "pear"));
+        assertEquals(false, read.contains("fig"));
+    }
+
+    /**
+     * Tests that a watcher's updates rewrite only the pages a change affects,
+     * and leave the same glossary as a full generation.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void glossaryWatcherTestUpdate() throws IOException {
+        Path input = this.tmp.newFile("watched.txt").toPath();
+        Path dir = this.tmp.newFolder("watched").toPath();
+        Files.write(input, ("pear\na fruit\n\n" + "apple\na fruit\n\n"
+                + "fig\na fruit\n\n" + "plum\na fruit\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        try (GlossaryWatcher watcher = new GlossaryWatcher(input.toString(),
+                dir.toString(), 1, 0)) {
+            final int all = 4;
+            assertEquals(all, watcher.update());
+            assertEquals(0, watcher.update());
+
+            /*
+             * fig now links apple: fig and apple (a new referrer) change
+             */
+            Files.write(input, ("pear\na fruit\n\n" + "apple\na fruit\n\n"
+                    + "fig\nnot an apple\n\n" + "plum\na fruit\n\n")
+                            .getBytes(StandardCharsets.UTF_8));
+            assertEquals(2, watcher.update());
+
+            /*
+             * plum removed and quince added, linking fig
+             */
+            Files.write(input, ("pear\na fruit\n\n" + "apple\na fruit\n\n"
+                    + "fig\nnot an apple\n\n" + "quince\nlike a fig\n\n")
+                            .getBytes(StandardCharsets.UTF_8));
+            assertEquals(2, watcher.update());
+        }
+
+        assertEquals(false, Files.exists(dir.resolve("plum.html")));
+        Path fresh = this.tmp.newFolder("watched-full").toPath();
+        new GlossaryGenerator(input.toString(), fresh.toString())
+                .generateGlossary();
+        for (String page : new String[] {"pear.html", "apple.html",
+            "fig.html", "quince.html", "index.html"}) {
+            assertArrayEquals(Files.readAllBytes(fresh.resolve(page)),
+                    Files.readAllBytes(dir.resolve(page)));
+        }
+    }
+
+    /**
+     * Asserts that dir holds the same pages and manifest as a full
+     * generation from input into fresh.
+     *
+     * @param input
+     *            the input file
+     * @param dir
+     *            directory kept up to date by a watcher
+     * @param fresh
+     *            directory to generate into, which must be empty
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    private static void assertSameAsGenerated(Path input, Path dir, Path fresh)
+            throws IOException {
+        GlossaryGenerator gen = new GlossaryGenerator(input.toString(),
+                fresh.toString());
+        gen.generateGlossary();
+        try (DirectoryStream<Path> pages = Files.newDirectoryStream(fresh,
+                "*.html")) {
+            for (Path page : pages) {
+                assertArrayEquals(Files.readAllBytes(page), Files
+                        .readAllBytes(dir.resolve(page.getFileName())));
+            }
+        }
+        try (DirectoryStream<Path> pages = Files.newDirectoryStream(dir,
+                "*.html")) {
+            for (Path page : pages) {
+                assertEquals(true,
+                        Files.exists(fresh.resolve(page.getFileName())));
+            }
+        }
+
+        GlossaryManifest expected = GlossaryManifest.read(
+                fresh.resolve(GlossaryManifest.FILE_NAME),
+                gen.manifestFormat());
+        GlossaryManifest kept = GlossaryManifest.read(
+                dir.resolve(GlossaryManifest.FILE_NAME), gen.manifestFormat());
+        assertEquals(true, kept.sameTerms(expected));
+        for (String term : expected.terms()) {
+            assertEquals(true, kept.sameInputs(expected, term));
+        }
+    }
+
+    /**
+     * Tests that after each of a series of edits, a watcher's update leaves
+     * the same pages and manifest as a full generation: definitions changed,
+     * terms added, removed and renamed (at both ends and in the middle), line
+     * breaks changed, a term given twice, a longer term that takes over
+     * matches of a shorter one, and an empty input.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void glossaryWatcherTestMatchesFullGeneration() throws IOException {
+        String base = "pear\na fruit\n\n" + "apple\nlike a pear\n\n"
+                + "fig\na fruit\n\n" + "plum\nnot a fig\n\n";
+        String[] inputs = {base,
+            base.replace("not a fig", "not a fig or an apple"),
+            "quince\nan apple\n\n" + base,
+            base.replace("pear\na fruit\n\n", "").replace("fig\na fruit\n\n",
+                    ""),
+            base.replace("\n", "\r\n"),
+            base + "fig\nsaid again\n\n",
+            base.replace("plum\n", "prune\n"),
+            base + "apple pie\na pear tart\n\n"
+                    + "tart\nnot an apple pie\n\n",
+            base + "tart\nnot an apple pie\n\n",
+            "\n\n" + base.replace("\n\n", "\n\n\n") + "fig\nlast",
+            "",
+            base };
+        Path input = this.tmp.newFile("edited.txt").toPath();
+        Path dir = this.tmp.newFolder("edited").toPath();
+        try (GlossaryWatcher watcher = new GlossaryWatcher(input.toString(),
+                dir.toString(), 1, 0)) {
+            for (int k = 0; k < inputs.length; k++) {
+                Files.write(input, inputs[k].getBytes(StandardCharsets.UTF_8));
+                watcher.update();
+                assertSameAsGenerated(input, dir,
+                        this.tmp.newFolder("edited-" + k).toPath());
+            }
+        }
+    }
+
+    /**
+     * Tests that a watcher update that cannot read the input fails with an
+     * UncheckedIOException and changes nothing, so the next update picks up
+     * from the last one that completed.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void glossaryWatcherTestInputMissing() throws IOException {
+        Path input = this.tmp.newFile("replaced.txt").toPath();
+        Path dir = this.tmp.newFolder("replaced").toPath();
+        Files.write(input, ("pear\na fruit\n\n" + "fig\na fruit\n\n")
+                .getBytes(StandardCharsets.UTF_8));
+        try (GlossaryWatcher watcher = new GlossaryWatcher(input.toString(),
+                dir.toString(), 1, 0)) {
+            assertEquals(2, watcher.update());
+            Files.delete(input);
+            boolean failed = false;
+            try {
+                watcher.update();
+            } catch (UncheckedIOException e) {
+                failed = true;
+            }
+            assertEquals(true, failed);
+            assertEquals(true, Files.exists(dir.resolve("fig.html")));
+
+            /*
+             * fig now links pear: fig and pear (a new referrer) change
+             */
+            Files.write(input, ("pear\na fruit\n\n" + "fig\nnot a pear\n\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            assertEquals(2, watcher.update());
+        }
+    }
+
+    /**
+     * Tests that entries copied into an EntryStore as bytes read back as the
+     * terms and definitions GlossaryInput decodes, with line breaks, spaces
+     * to trim, multi-byte characters and malformed UTF-8.
+     *
+     * @throws IOException
+     *             never
+     */
+    @Test
+    public void entryStoreTestAddFromInput() throws IOException {
+        byte[] wellFormed = ("pear\r\n  a fruit\r\nwith a core \n\n"
+                + "café\nà la 🍐\n\n")
+                        .getBytes(StandardCharsets.UTF_8);
+        final byte[] malformed = {'f', 'i', 'g', (byte) 0xC3, '\n',
+            (byte) 0xED, (byte) 0xA0, (byte) 0x80, ' ', (byte) 0xC0,
+            (byte) 0x80, ' ', (byte) 0xF4, (byte) 0x90, (byte) 0x80,
+            (byte) 0x80, '\n', '\n', 'p', 'l', 'u', 'm', '\n', 'x',
+            (byte) 0xE2, (byte) 0x82 };
+        byte[] contents = new byte[wellFormed.length + malformed.length];
+        System.arraycopy(wellFormed, 0, contents, 0, wellFormed.length);
+        System.arraycopy(malformed, 0, contents, wellFormed.length,
+                malformed.length);
+
+        EntryStore store = new EntryStore();
+        StringBuilder definition = new StringBuilder();
+        try (GlossaryInput in = new GlossaryInput(contents)) {
+            int slot = 0;
+            while (in.next()) {
+                assertEquals(slot, store.add(in));
+                assertEquals(in.term(), store.term(slot));
+                assertEquals(slot, store.find(in.term()));
+                definition.setLength(0);
+                store.appendDefinition(slot, definition);
+                assertEquals(in.definition(), definition.toString());
+                slot++;
+            }
+            final int entries = 4;
+            assertEquals(entries, slot);
+        }
+        assertEquals("a fruit with a core", store.definition(0));
+        assertEquals(1, store.find("café"));
+    }
+
+    /**
+     * Asserts that every page, stylesheet and script in dir has a gzip
+     * sibling that decompresses to it.
+     *
+     * @param dir
+     *            the output directory
+     * @return the number of files with a sibling
+     * @throws IOException
+     *             if a file cannot be read
+     */
+    private static int assertGzipSiblings(Path dir) throws IOException {
+        int files = 0;
+        try (DirectoryStream<Path> written = Files.newDirectoryStream(dir,
+                "*.{html,css,js}")) {
+            for (Path file : written) {
+                Path sibling = file
+                        .resolveSibling(file.getFileName() + ".gz");
+                try (InputStream in = new GZIPInputStream(
+                        Files.newInputStream(sibling))) {
+                    assertArrayEquals(Files.readAllBytes(file),
+                            in.readAllBytes());
+                }
+                files++;
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Tests that with gzip siblings, every file written has a sibling that
+     * decompresses to it, and that switching to a single-page index deletes
+     * the index pages and the search index together with their siblings.
+     *
+     * @throws IOException
+     *             if a file cannot be read
+     */
+    @Test
+    public void generateGlossaryTestGzipSiblings() throws IOException {
+        Path dir = this.tmp.newFolder("gzip").toPath();
+        GlossaryGenerator gen = new GlossaryGenerator("data/terms.txt",
+                dir.toString(), true);
+        gen.setIndexLayout(GlossaryGenerator.INDEX_BY_LEADING_CHARACTER);
+        gen.setGzipSiblings(true);
+        gen.generateGlossary(2);
+
+        /*
+         * 7 entry pages and 7 index pages (one per leading character), the
+         * main index, the stylesheet and the search index
+         */
+        final int sharded = 17;
+        assertEquals(sharded, assertGzipSiblings(dir));
+        assertEquals(true, Files.exists(dir.resolve("index-7.html.gz")));
+        assertEquals(true, Files.exists(dir.resolve("search-index.js.gz")));
+
+        gen.extractEntries();
+        gen.setIndexLayout(GlossaryGenerator.SINGLE_PAGE_INDEX);
+        gen.generateIndexPage();
+        /*
+         * 7 entry pages, the main index and the stylesheet
+         */
+        final int single = 9;
+        assertEquals(single, assertGzipSiblings(dir));
+        for (String file : new String[] {"index-1.html", "index-7.html",
+            "search-index.js"}) {
+            assertEquals(false, Files.exists(dir.resolve(file)));
+            assertEquals(false, Files.exists(dir.resolve(file + ".gz")));
+        }
+        String index = new String(Files.readAllBytes(dir.resolve("index.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(false, index.contains("index-1.html"));
+        assertEquals(true, index.contains("<a href='book.html'>"));
+    }
+
+    /**
+     * Tests generateIndexPage with index pages of a fixed size: the pages,
+     * their navigation and the search index, and that going back to a single
+     * page deletes them.
+     *
+     * @throws IOException
+     *             if a file cannot be read
+     */
+    @Test
+    public void generateIndexPageTestSharded() throws IOException {
+        final int pageSize = 3;
+        Path dir = this.tmp.newFolder("sharded").toPath();
+        GlossaryGenerator gen = new GlossaryGenerator("data/terms.txt",
+                dir.toString());
+        gen.extractEntries();
+        gen.setIndexLayout(pageSize);
+        gen.generateIndexPage();
+
+        assertEquals(true, Files.exists(dir.resolve("index-3.html")));
+        assertEquals(false, Files.exists(dir.resolve("index-4.html")));
+        assertEquals("var glossaryIndex = {\"terms\":[0,\"book\",0,"
+                + "\"definition\",0,\"glossary\",0,\"language\",0,"
+                + "\"meaning\",0,\"term\",0,\"word\"]};\n",
+                new String(Files.readAllBytes(dir.resolve("search-index.js")),
+                        StandardCharsets.UTF_8));
+        String shard = new String(
+                Files.readAllBytes(dir.resolve("index-2.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, shard.contains("<nav>\n"
+                + "<a href='index-1.html'>\u2190 book</a> | "
+                + "<a href='index.html'>Index</a> | "
+                + "<a href='index-3.html'>word \u2192</a>\n</nav>\n"
+                + "<h2>language</h2>\n<hr>\n<ul>\n"
+                + "<li><a href='language.html'>language</a></li>\n"
+                + "<li><a href='meaning.html'>meaning</a></li>\n"
+                + "<li><a href='term.html'>term</a></li>\n</ul>"));
+        String index = new String(Files.readAllBytes(dir.resolve("index.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, index.contains(
+                "<li><a href='index-2.html'>language \u2013 term</a></li>\n"));
+
+        gen.setIndexLayout(GlossaryGenerator.SINGLE_PAGE_INDEX);
+        gen.generateIndexPage();
+        assertEquals(false, Files.exists(dir.resolve("index-1.html")));
+        assertEquals(false, Files.exists(dir.resolve("search-index.js")));
+    }
+
+    /**
+     * Tests that generateGlossary rewrites a sharded index whose pages and
+     * search index were deleted by a single-page index written in between,
+     * although the terms are the same.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void generateGlossaryTestIndexLayoutRestored() throws IOException {
+        Path dir = this.tmp.newFolder().toPath();
+        GlossaryGenerator gen = new GlossaryGenerator("data/terms.txt",
+                dir.toString());
+        gen.setIndexLayout(GlossaryGenerator.INDEX_BY_LEADING_CHARACTER);
+        gen.generateGlossary();
+        gen.setIndexLayout(GlossaryGenerator.SINGLE_PAGE_INDEX);
+        gen.generateIndexPage();
+        assertEquals(false, Files.exists(dir.resolve("index-1.html")));
+
+        gen = new GlossaryGenerator("data/terms.txt", dir.toString());
+        gen.setIndexLayout(GlossaryGenerator.INDEX_BY_LEADING_CHARACTER);
+        gen.generateGlossary();
+        assertEquals(true, Files.exists(dir.resolve("index-1.html")));
+        assertEquals(true, Files.exists(dir.resolve("search-index.js")));
+        String index = new String(Files.readAllBytes(dir.resolve("index.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, index.contains("<a href='index-1.html'>"));
+    }
+
+    /**
+     * Tests generateGlossary with a sharded index and a term given more than
+     * once: the term is indexed once, in its shard and in the search index.
+     *
+     * @throws IOException
+     *             if a file cannot be read or written
+     */
+    @Test
+    public void generateGlossaryTestShardedRepeatedTerm() throws IOException {
+        Path input = this.tmp.newFile("sharded-repeated.txt").toPath();
+        Path dir = this.tmp.newFolder("sharded-repeated").toPath();
+        Files.write(input, ("apple\na fruit\n\n" + "apricot\nanother fruit\n\n"
+                + "apple\nthe same fruit again\n\n" + "banana\na fruit\n\n")
+                        .getBytes(StandardCharsets.UTF_8));
+        GlossaryGenerator gen = new GlossaryGenerator(input.toString(),
+                dir.toString());
+        gen.setIndexLayout(GlossaryGenerator.INDEX_BY_LEADING_CHARACTER);
+        gen.generateGlossary();
+
+        assertEquals("var glossaryIndex = {\"terms\":[0,\"apple\",2,"
+                + "\"ricot\",0,\"banana\"]};\n",
+                new String(Files.readAllBytes(dir.resolve("search-index.js")),
+                        StandardCharsets.UTF_8));
+        String shard = new String(
+                Files.readAllBytes(dir.resolve("index-1.html")),
+                StandardCharsets.UTF_8);
+        assertEquals(true, shard.contains("<ul>\n"
+                + "<li><a href='apple.html'>apple</a></li>\n"
+                + "<li><a href='apricot.html'>apricot</a></li>\n</ul>"));
+    }
+
     /**
      * Tests generateIndexPage with a single entry.
      */
@@ -362,6 +1168,32 @@ public class GlossaryGeneratorTest {
         assertEquals(set, setCpy);
     }
 
+    /**
+     * Tests getSortedStrSet with a collator, which orders case and accents
+     * differently from natural ordering.
+     */
+    @Test
+    public void getSortedStrSetTestCollator() {
+        Set<String> set = new Set1L<>();
+        Set<String> setCpy = set.newInstance();
+        for (String term : new String[] {"b", "\u00e9t\u00e9", "B", "a",
+            "Z"}) {
+            set.add(term);
+            setCpy.add(term);
+        }
+
+        Sequence<String> resExpected = new Sequence1L<>();
+        resExpected.add(0, "Z");
+        resExpected.add(0, "\u00e9t\u00e9");
+        resExpected.add(0, "B");
+        resExpected.add(0, "b");
+        resExpected.add(0, "a");
+
+        assertEquals(resExpected, GlossaryGenerator.getSortedStrSet(set,
+                Collator.getInstance(Locale.ENGLISH)));
+        assertEquals(set, setCpy);
+    }
+
     /**
      * Tests getKeySet with an empty string-string map.
      */